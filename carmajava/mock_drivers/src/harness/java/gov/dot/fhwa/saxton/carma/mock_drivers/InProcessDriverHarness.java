@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import diagnostic_msgs.DiagnosticStatus;
+import diagnostic_msgs.KeyValue;
+import diagnostic_msgs.SelfTestRequest;
+import diagnostic_msgs.SelfTestResponse;
+import org.ros.RosCore;
+import org.ros.exception.RemoteException;
+import org.ros.exception.ServiceNotFoundException;
+import org.ros.master.client.MasterStateClient;
+import org.ros.master.client.TopicSystemState;
+import org.ros.master.client.TopicType;
+import org.ros.namespace.GraphName;
+import org.ros.node.AbstractNodeMain;
+import org.ros.node.ConnectedNode;
+import org.ros.node.DefaultNodeMainExecutor;
+import org.ros.node.NodeConfiguration;
+import org.ros.node.NodeMainExecutor;
+import org.ros.node.parameter.ParameterTree;
+import org.ros.node.service.ServiceClient;
+import org.ros.node.service.ServiceResponseListener;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs mock drivers end to end in a single JVM without roscore, launch files or a network.
+ * <p>
+ * An in process rosjava master is started on the loopback interface together with one MockDriverNode per
+ * driver type and a measuring node which subscribes to every topic the drivers publish.
+ * After a warm up period the harness measures for a fixed duration and reports per topic receive rate,
+ * end to end latency of stamped messages, loss and bandwidth.
+ * Loss compares the messages counted by each driver's ~/get_metrics service with the messages received
+ * over the same period, so it may be off by the few messages in flight at the window boundaries.
+ * Topics published by several drivers, such as driver_discovery, are measured once for all of them. Their rate,
+ * latency and bandwidth cover every publisher and their loss is the total over the publishers.
+ * <p>
+ * Arguments are name=value pairs:
+ * drivers=can,gnss,... (default all types), rate=10 (Hz), warmup=3 (s), duration=10 (s), data_dir=config/data
+ */
+public class InProcessDriverHarness {
+  static final List<String> ALL_DRIVERS = Arrays.asList(
+    "can", "comms", "controller", "gnss", "radar", "imu", "lidar", "camera", "roadway_sensor", "lightbar");
+  static final long STARTUP_TIMEOUT = 10; // s
+
+  private final Map<String, String> args;
+  private final List<String> driverTypes;
+  private final List<TopicProbe> probes = new ArrayList<>();
+  private RosCore rosCore;
+  private NodeMainExecutor executor;
+  private ConnectedNode probeNode;
+
+  public InProcessDriverHarness(Map<String, String> args) {
+    this.args = args;
+    this.driverTypes = args.containsKey("drivers") ? Arrays.asList(args.get("drivers").split(",")) : ALL_DRIVERS;
+  }
+
+  public static void main(String[] argv) throws Exception {
+    Map<String, String> args = new HashMap<>();
+    for (String arg : argv) {
+      String[] pair = arg.split("=", 2);
+      args.put(pair[0], pair.length > 1 ? pair[1] : "");
+    }
+    InProcessDriverHarness harness = new InProcessDriverHarness(args);
+    try {
+      harness.start();
+      harness.run();
+    } finally {
+      harness.shutdown();
+    }
+  }
+
+  /**
+   * Gets the data file used by the launch files for a driver type
+   * @param driverType The simulated_driver value
+   * @return The data file name
+   */
+  static String dataFileOf(String driverType) {
+    switch (driverType) {
+      case "can":
+        return "can.csv";
+      case "comms":
+        return "dsrc.csv";
+      case "controller":
+        return "srx_controller.csv";
+      case "gnss":
+        return "pinpoint.csv";
+      case "roadway_sensor":
+        return "roadway_sensor.csv";
+      default:
+        return "radar.csv";
+    }
+  }
+
+  /**
+   * Starts the master, sets the driver parameters and starts the driver and measuring nodes
+   * @throws InterruptedException If interrupted while waiting for a node to start
+   */
+  public void start() throws InterruptedException {
+    rosCore = RosCore.newPrivate();
+    rosCore.start();
+    if (!rosCore.awaitStart(STARTUP_TIMEOUT, TimeUnit.SECONDS)) {
+      throw new IllegalStateException("In process master did not start");
+    }
+    executor = DefaultNodeMainExecutor.newDefault();
+
+    // Parameters must be on the server before the drivers read them in their constructors
+    final String dataDir = new File(arg("data_dir", "config/data")).getAbsolutePath();
+    final double rate = Double.parseDouble(arg("rate", "10"));
+    startNode("harness_parameters", new AbstractNodeMain() {
+      @Override public GraphName getDefaultNodeName() {
+        return GraphName.of("harness_parameters");
+      }
+
+      @Override public void onStart(ConnectedNode connectedNode) {
+        ParameterTree params = connectedNode.getParameterTree();
+        params.set("/run_id", "in_process_harness");
+        for (String driverType : driverTypes) {
+          String ns = "/mock_" + driverType + "/";
+          params.set(ns + "simulated_driver", driverType);
+          params.set(ns + "data_file_path", dataDir + File.separator + dataFileOf(driverType));
+          params.set(ns + "publish_rate", rate);
+        }
+      }
+    });
+
+    for (String driverType : driverTypes) {
+      executor.execute(new MockDriverNode(),
+        NodeConfiguration.newPrivate(rosCore.getUri()).setNodeName("mock_" + driverType));
+    }
+
+    startNode("harness_probe", new AbstractNodeMain() {
+      @Override public GraphName getDefaultNodeName() {
+        return GraphName.of("harness_probe");
+      }
+
+      @Override public void onStart(ConnectedNode connectedNode) {
+        probeNode = connectedNode;
+      }
+    });
+  }
+
+  /**
+   * Starts a node and waits for its onStart to finish
+   * @param name The node name
+   * @param nodeMain The node
+   * @throws InterruptedException If interrupted while waiting
+   */
+  private void startNode(String name, final AbstractNodeMain nodeMain) throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    executor.execute(new AbstractNodeMain() {
+      @Override public GraphName getDefaultNodeName() {
+        return nodeMain.getDefaultNodeName();
+      }
+
+      @Override public void onStart(ConnectedNode connectedNode) {
+        nodeMain.onStart(connectedNode);
+        started.countDown();
+      }
+    }, NodeConfiguration.newPrivate(rosCore.getUri()).setNodeName(name));
+    if (!started.await(STARTUP_TIMEOUT, TimeUnit.SECONDS)) {
+      throw new IllegalStateException("Node " + name + " did not start");
+    }
+  }
+
+  /**
+   * Subscribes to the driver topics, measures for the configured duration and prints the report
+   * @throws InterruptedException If interrupted while measuring
+   */
+  public void run() throws InterruptedException {
+    long warmup = (long) (Double.parseDouble(arg("warmup", "3")) * 1000);
+    long duration = (long) (Double.parseDouble(arg("duration", "10")) * 1000);
+
+    Thread.sleep(warmup); // Let the drivers advertise their topics
+    subscribeToDrivers();
+    Thread.sleep(warmup); // Let the subscriptions connect
+
+    Map<String, Long> publishedBefore = getPublishedCounts();
+    Map<TopicProbe, Long> receivedBefore = new HashMap<>();
+    for (TopicProbe probe : probes) {
+      receivedBefore.put(probe, probe.getReceived());
+      probe.getLatency(true);
+    }
+    Map<TopicProbe, Long> bytesBefore = new HashMap<>();
+    for (TopicProbe probe : probes) {
+      bytesBefore.put(probe, probe.getBytes());
+    }
+    long start = System.nanoTime();
+    Thread.sleep(duration);
+    double window = (System.nanoTime() - start) * 1e-9;
+    Map<String, Long> publishedAfter = getPublishedCounts();
+
+    System.out.println(String.format("%-18s %-45s %10s %10s %10s %10s %12s",
+      "node", "topic", "rate (Hz)", "p50 (ms)", "p99 (ms)", "lost", "bw (kB/s)"));
+    for (TopicProbe probe : probes) {
+      long received = probe.getReceived() - receivedBefore.get(probe);
+      long bytes = probe.getBytes() - bytesBefore.get(probe);
+      LatencyHistogram.Snapshot latency = probe.getLatency(false);
+      String lost = "-";
+      long published = 0;
+      for (String publisherNode : probe.getPublisherNodes()) {
+        String key = publisherNode + " " + probe.getTopic();
+        if (!publishedBefore.containsKey(key) || !publishedAfter.containsKey(key)) {
+          published = -1;
+          break;
+        }
+        published += publishedAfter.get(key) - publishedBefore.get(key);
+      }
+      if (published >= 0) {
+        lost = Long.toString(published - received); // Negative when more arrived than were counted in the window
+      }
+      List<String> publisherNodes = probe.getPublisherNodes();
+      System.out.println(String.format("%-18s %-45s %10.2f %10s %10s %10s %12.2f",
+        publisherNodes.size() == 1 ? publisherNodes.get(0) : publisherNodes.size() + " drivers",
+        probe.getTopic(), received / window,
+        latency.getCount() == 0 ? "-" : String.format("%.3f", latency.getPercentile(0.5) / 1e6),
+        latency.getCount() == 0 ? "-" : String.format("%.3f", latency.getPercentile(0.99) / 1e6),
+        lost, bytes / window / 1000.0));
+    }
+  }
+
+  /**
+   * Creates one probe for every topic published by mock driver nodes
+   */
+  void subscribeToDrivers() {
+    MasterStateClient master = new MasterStateClient(probeNode, rosCore.getUri());
+    Map<String, String> types = new HashMap<>();
+    for (TopicType topicType : master.getTopicTypes()) {
+      types.put(topicType.getName(), topicType.getMessageType());
+    }
+    for (TopicSystemState topic : master.getSystemState().getTopics()) {
+      if (topic.getTopicName().equals("/rosout") || topic.getTopicName().equals("/diagnostics")) {
+        continue;
+      }
+      List<String> publishers = new ArrayList<>();
+      for (String publisher : topic.getPublishers()) {
+        if (publisher.startsWith("/mock_")) {
+          publishers.add(publisher);
+        }
+      }
+      if (!publishers.isEmpty()) {
+        probes.add(new TopicProbe(probeNode, topic.getTopicName(), types.get(topic.getTopicName()), publishers));
+      }
+    }
+  }
+
+  /**
+   * Reads the published message counts of every driver from its ~/get_metrics service
+   * @return The message counts keyed by publishing node and topic
+   * @throws InterruptedException If interrupted while waiting for a response
+   */
+  private Map<String, Long> getPublishedCounts() throws InterruptedException {
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (String driverType : driverTypes) {
+      String nodeName = "/mock_" + driverType;
+      SelfTestResponse response = callGetMetrics(nodeName);
+      if (response == null) {
+        continue;
+      }
+      for (DiagnosticStatus status : response.getStatus()) {
+        for (KeyValue value : status.getValues()) {
+          if (value.getKey().endsWith(" messages")) {
+            String topic = value.getKey().substring(0, value.getKey().length() - " messages".length());
+            counts.put(nodeName + " " + topic, Long.parseLong(value.getValue()));
+          }
+        }
+      }
+    }
+    return counts;
+  }
+
+  private SelfTestResponse callGetMetrics(String nodeName) throws InterruptedException {
+    final SelfTestResponse[] response = new SelfTestResponse[1];
+    final CountDownLatch done = new CountDownLatch(1);
+    ServiceClient<SelfTestRequest, SelfTestResponse> client;
+    try {
+      client = probeNode.newServiceClient(nodeName + "/get_metrics", diagnostic_msgs.SelfTest._TYPE);
+    } catch (ServiceNotFoundException e) {
+      System.err.println("No metrics service for " + nodeName + " " + e.getMessage());
+      return null;
+    }
+    client.call(client.newMessage(), new ServiceResponseListener<SelfTestResponse>() {
+      @Override public void onSuccess(SelfTestResponse result) {
+        response[0] = result;
+        done.countDown();
+      }
+
+      @Override public void onFailure(RemoteException e) {
+        System.err.println("Metrics request failed " + e.getMessage());
+        done.countDown();
+      }
+    });
+    done.await(STARTUP_TIMEOUT, TimeUnit.SECONDS);
+    client.shutdown();
+    return response[0];
+  }
+
+  public void shutdown() {
+    for (TopicProbe probe : probes) {
+      probe.shutdown();
+    }
+    if (executor != null) {
+      executor.shutdown();
+    }
+    if (rosCore != null) {
+      rosCore.shutdown();
+    }
+  }
+
+  private String arg(String name, String defaultValue) {
+    return args.containsKey(name) ? args.get(name) : defaultValue;
+  }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.ThreadMXBean;
+import com.sun.management.UnixOperatingSystemMXBean;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs mock drivers for a long time and fails if the JVM resources they use keep growing.
+ * <p>
+ * The drivers and measuring subscribers are started as in InProcessDriverHarness, usually at an accelerated rate.
+ * Every sample period the harness records the old generation use after the last full or mixed collection, the
+ * allocation rate, the garbage collection pauses, the live thread count and the open file descriptor count. After
+ * the warm up the trend of each series is the least squares slope per hour. The run fails, with exit code 1, if the
+ * old generation after collection, allocation rate, thread count or descriptor count grows faster than its limit, or
+ * if the p99 pause of the second half of the run is more than the allowed fraction above the first half.
+ * <p>
+ * A collection counts as full or mixed when it lowers the old generation use. Young collections only promote into
+ * the old generation so the heap after them rises and falls with the marking cycle rather than with leaks. If fewer
+ * than three samples follow such a collection the trend of the sampled old generation use is checked instead.
+ * Allocation is the sum of ThreadMXBean.getThreadAllocatedBytes over the live threads, so bytes allocated by a
+ * thread which ended during a sample period are not counted.
+ * <p>
+ * Arguments are name=value pairs. drivers and data_dir are as in InProcessDriverHarness:
+ * drivers=can,gnss,... (default all types), rate=100 (Hz), duration=7200 (s), sample_period=10 (s),
+ * warmup=300 (s, samples before this are not used for trends), max_heap_growth=16 (MB/h),
+ * max_alloc_growth=10 (%/h), max_thread_growth=2 (/h), max_fd_growth=8 (/h), max_pause_growth=50 (%),
+ * min_pause=5 (ms, p99 pauses below this always pass), output=soak.csv (optional csv of the samples)
+ */
+public class SoakHarness implements NotificationListener {
+  static final double MB = 1024.0 * 1024.0;
+  static final double NS_PER_MS = 1e6;
+
+  private final Map<String, String> args;
+  // time (h), old gen after full or mixed gc (MB, NaN before the first), alloc (MB/s), threads, fds, old gen (MB)
+  private final List<double[]> samples = new ArrayList<>();
+  private final LatencyHistogram firstHalfPauses = new LatencyHistogram();
+  private final LatencyHistogram secondHalfPauses = new LatencyHistogram();
+  private final LatencyHistogram windowPauses = new LatencyHistogram();
+  private final Set<String> oldPools = new HashSet<>();
+  private final Map<Long, Long> threadAllocatedBytes = new HashMap<>(); // By thread id at the last sample
+  private volatile boolean secondHalf = false;
+  private volatile long oldAfterGc = -1; // -1 before the first full or mixed collection
+
+  public SoakHarness(Map<String, String> args) {
+    this.args = args;
+  }
+
+  public static void main(String[] argv) throws Exception {
+    Map<String, String> args = new HashMap<>();
+    for (String arg : argv) {
+      String[] pair = arg.split("=", 2);
+      args.put(pair[0], pair.length > 1 ? pair[1] : "");
+    }
+    if (!args.containsKey("rate")) {
+      args.put("rate", "100");
+    }
+    SoakHarness soak = new SoakHarness(args);
+    InProcessDriverHarness drivers = new InProcessDriverHarness(args);
+    boolean passed;
+    try {
+      drivers.start();
+      Thread.sleep(3000); // Let the drivers advertise their topics
+      drivers.subscribeToDrivers();
+      passed = soak.run();
+    } finally {
+      drivers.shutdown();
+    }
+    System.exit(passed ? 0 : 1);
+  }
+
+  /**
+   * Samples the JVM for the configured duration and checks the trends
+   * @return True if no trend is above its limit
+   * @throws InterruptedException If interrupted while sampling
+   * @throws IOException If the samples could not be written
+   */
+  public boolean run() throws InterruptedException, IOException {
+    double duration = Double.parseDouble(arg("duration", "7200"));
+    double samplePeriod = Double.parseDouble(arg("sample_period", "10"));
+    double warmup = Double.parseDouble(arg("warmup", "300"));
+
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && (pool.getName().contains("Old") || pool.getName().contains("Tenured"))) {
+        oldPools.add(pool.getName());
+      }
+    }
+    if (oldPools.isEmpty()) { // Collectors without generations
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP) {
+          oldPools.add(pool.getName());
+        }
+      }
+    }
+    ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    if (!threadBean.isThreadAllocatedMemorySupported()) {
+      throw new IllegalStateException("This JVM does not measure thread allocation");
+    }
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+    }
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+    System.out.println(String.format("%10s %14s %14s %8s %10s %8s %6s",
+      "time (s)", "old gc (MB)", "alloc (MB/s)", "pauses", "p99 (ms)", "threads", "fds"));
+    long start = System.nanoTime();
+    allocatedSinceLastSample(threadBean);
+    long previousNanos = start;
+    while (true) {
+      long elapsed = System.nanoTime() - start;
+      if (elapsed >= duration * 1e9) {
+        break;
+      }
+      Thread.sleep((long) Math.min(samplePeriod * 1000, duration * 1000 - elapsed / 1e6 + 1));
+      long now = System.nanoTime();
+      secondHalf = now - start >= duration * 1e9 / 2;
+
+      double allocRate = allocatedSinceLastSample(threadBean) / MB / ((now - previousNanos) * 1e-9);
+      previousNanos = now;
+      long afterGc = oldAfterGc;
+      double oldAfterGcMb = afterGc < 0 ? Double.NaN : afterGc / MB;
+      long old = 0;
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (oldPools.contains(pool.getName())) {
+          old += pool.getUsage().getUsed();
+        }
+      }
+      int threads = threadBean.getThreadCount();
+      long fds = os instanceof UnixOperatingSystemMXBean
+        ? ((UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount() : -1;
+      LatencyHistogram.Snapshot pauses = windowPauses.snapshot(true);
+
+      double seconds = (now - start) * 1e-9;
+      System.out.println(String.format("%10.0f %14.1f %14.1f %8d %10.2f %8d %6d", seconds, oldAfterGcMb,
+        allocRate, pauses.getCount(), pauses.getPercentile(0.99) / NS_PER_MS, threads, fds));
+      if (seconds >= warmup) {
+        samples.add(new double[] {seconds / 3600.0, oldAfterGcMb, allocRate, threads, fds, old / MB});
+      }
+    }
+
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      try {
+        ((NotificationEmitter) collector).removeNotificationListener(this);
+      } catch (javax.management.ListenerNotFoundException e) {
+        // Not registered
+      }
+    }
+    writeSamples();
+    return checkTrends();
+  }
+
+  /**
+   * Compares the trend of each series with its limit and prints the result
+   * @return True if every check passed
+   */
+  private boolean checkTrends() {
+    if (samples.size() < 3) {
+      System.out.println("FAIL: only " + samples.size() + " samples after the warm up. Increase duration");
+      return false;
+    }
+    double meanAlloc = 0.0;
+    for (double[] sample : samples) {
+      meanAlloc += sample[2] / samples.size();
+    }
+    boolean passed = true;
+    double maxHeapGrowth = Double.parseDouble(arg("max_heap_growth", "16"));
+    int collectedSamples = 0;
+    for (double[] sample : samples) {
+      collectedSamples += Double.isNaN(sample[1]) ? 0 : 1;
+    }
+    if (collectedSamples >= 3) {
+      passed &= check("old gen after gc", slope(1), "MB/h", maxHeapGrowth);
+    } else {
+      System.out.println("Only " + collectedSamples + " samples follow a full or mixed collection");
+      passed &= check("old gen", slope(5), "MB/h", maxHeapGrowth);
+    }
+    passed &= check("allocation rate", meanAlloc > 0.0 ? slope(2) / meanAlloc * 100.0 : 0.0, "%/h",
+      Double.parseDouble(arg("max_alloc_growth", "10")));
+    passed &= check("threads", slope(3), "/h", Double.parseDouble(arg("max_thread_growth", "2")));
+    if (samples.get(0)[4] >= 0) {
+      passed &= check("file descriptors", slope(4), "/h", Double.parseDouble(arg("max_fd_growth", "8")));
+    }
+
+    LatencyHistogram.Snapshot first = firstHalfPauses.snapshot(false);
+    LatencyHistogram.Snapshot second = secondHalfPauses.snapshot(false);
+    double firstP99 = first.getPercentile(0.99) / NS_PER_MS;
+    double secondP99 = second.getPercentile(0.99) / NS_PER_MS;
+    double growth = firstP99 > 0.0 ? (secondP99 / firstP99 - 1.0) * 100.0 : 0.0;
+    double maxPauseGrowth = Double.parseDouble(arg("max_pause_growth", "50"));
+    boolean pausesPassed = secondP99 < Double.parseDouble(arg("min_pause", "5")) || growth <= maxPauseGrowth;
+    System.out.println(String.format("%-5s %-18s p99 %.2f ms -> %.2f ms (%+.1f%%, limit %.1f%%), max %.2f ms",
+      pausesPassed ? "PASS" : "FAIL", "gc pauses", firstP99, secondP99, growth, maxPauseGrowth,
+      Math.max(first.getMax(), second.getMax()) / NS_PER_MS));
+    passed &= pausesPassed;
+
+    System.out.println(passed ? "Soak passed" : "Soak failed");
+    return passed;
+  }
+
+  private boolean check(String name, double trend, String unit, double limit) {
+    boolean passed = trend <= limit;
+    System.out.println(String.format("%-5s %-18s %+.2f %s (limit %.2f)", passed ? "PASS" : "FAIL", name, trend, unit,
+      limit));
+    return passed;
+  }
+
+  /**
+   * Gets the least squares slope of a series over time
+   * @param column The index of the series in each sample. Samples where it is NaN are left out
+   * @return The slope per hour
+   */
+  private double slope(int column) {
+    int count = 0;
+    double meanTime = 0.0;
+    double meanValue = 0.0;
+    for (double[] sample : samples) {
+      if (!Double.isNaN(sample[column])) {
+        count++;
+        meanTime += sample[0];
+        meanValue += sample[column];
+      }
+    }
+    if (count == 0) {
+      return 0.0;
+    }
+    meanTime /= count;
+    meanValue /= count;
+    double covariance = 0.0;
+    double variance = 0.0;
+    for (double[] sample : samples) {
+      if (!Double.isNaN(sample[column])) {
+        covariance += (sample[0] - meanTime) * (sample[column] - meanValue);
+        variance += (sample[0] - meanTime) * (sample[0] - meanTime);
+      }
+    }
+    return variance > 0.0 ? covariance / variance : 0.0;
+  }
+
+  private void writeSamples() throws IOException {
+    String output = arg("output", "");
+    if (output.isEmpty()) {
+      return;
+    }
+    try (PrintWriter writer = new PrintWriter(new FileWriter(output))) {
+      writer.println("time (h),old gen after full or mixed gc (MB),allocation rate (MB/s),threads,file descriptors,"
+        + "old gen (MB)");
+      for (double[] sample : samples) {
+        writer.println(String.format("%.5f,%s,%.3f,%.0f,%.0f,%.3f", sample[0],
+          Double.isNaN(sample[1]) ? "" : String.format("%.3f", sample[1]), sample[2], sample[3], sample[4], sample[5]));
+      }
+    }
+  }
+
+  /**
+   * Records the pause of each garbage collection and the old generation use after full and mixed collections
+   */
+  @Override public void handleNotification(Notification notification, Object handback) {
+    if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+      return;
+    }
+    GarbageCollectionNotificationInfo info =
+      GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+    long before = oldUse(info.getGcInfo().getMemoryUsageBeforeGc());
+    long after = oldUse(info.getGcInfo().getMemoryUsageAfterGc());
+    if (after < before) { // The collection reclaimed old generation space so it was full or mixed
+      oldAfterGc = after;
+    }
+    if (!info.getGcAction().toLowerCase().contains("concurrent")) { // Concurrent cycles do not pause the drivers
+      long pause = (long) (info.getGcInfo().getDuration() * NS_PER_MS);
+      windowPauses.record(pause);
+      (secondHalf ? secondHalfPauses : firstHalfPauses).record(pause);
+    }
+  }
+
+  private long oldUse(Map<String, MemoryUsage> pools) {
+    long used = 0;
+    for (Map.Entry<String, MemoryUsage> pool : pools.entrySet()) {
+      if (oldPools.contains(pool.getKey())) {
+        used += pool.getValue().getUsed();
+      }
+    }
+    return used;
+  }
+
+  /**
+   * Gets the bytes allocated by the live threads since the previous call
+   * @param threadBean The thread bean measuring allocation
+   * @return The bytes allocated. Threads started since the previous call count from their start
+   */
+  private long allocatedSinceLastSample(ThreadMXBean threadBean) {
+    long[] ids = threadBean.getAllThreadIds();
+    long[] allocated = threadBean.getThreadAllocatedBytes(ids);
+    Map<Long, Long> previous = new HashMap<>(threadAllocatedBytes);
+    threadAllocatedBytes.clear();
+    long total = 0;
+    for (int i = 0; i < ids.length; i++) {
+      if (allocated[i] < 0) {
+        continue; // The thread ended
+      }
+      Long last = previous.get(ids[i]);
+      total += allocated[i] - (last == null ? 0L : last);
+      threadAllocatedBytes.put(ids[i], allocated[i]);
+    }
+    return total;
+  }
+
+  private String arg(String name, String defaultValue) {
+    return args.containsKey(name) ? args.get(name) : defaultValue;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.message.MessageListener;
+import org.ros.message.MessageSerializer;
+import org.ros.message.Time;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Subscriber;
+
+import java.lang.reflect.Method;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscribes to one topic and measures what arrives.
+ * <p>
+ * rosjava returns the same subscriber for every subscription of a node to a topic and does not pass the connection
+ * header to listeners, so one probe covers all publishers of its topic and their messages cannot be told apart.
+ * Every received message is serialized again to count the bytes which crossed the connection.
+ * If the message type has a header the end to end latency is the receive time minus the header stamp.
+ */
+public class TopicProbe {
+  private final String topic;
+  private final List<String> publisherNodes;
+  private final Subscriber<Object> subscriber;
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+
+  // Only accessed by the subscriber thread
+  private final ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(ByteOrder.LITTLE_ENDIAN, 8192);
+  private Method getHeader = null;
+  private boolean headerChecked = false;
+
+  /**
+   * Constructor
+   *
+   * @param node The node used to subscribe
+   * @param topic The topic name
+   * @param messageType The message type of the topic
+   * @param publisherNodes The names of the nodes publishing the topic
+   */
+  public TopicProbe(final ConnectedNode node, String topic, String messageType, List<String> publisherNodes) {
+    this.topic = topic;
+    this.publisherNodes = publisherNodes;
+    final MessageSerializer<Object> serializer =
+      node.getMessageSerializationFactory().newMessageSerializer(messageType);
+    subscriber = node.newSubscriber(topic, messageType);
+    subscriber.addMessageListener(new MessageListener<Object>() {
+      @Override public void onNewMessage(Object message) {
+        Time now = node.getCurrentTime();
+        received.incrementAndGet();
+        buffer.clear();
+        serializer.serialize(message, buffer);
+        bytes.addAndGet(buffer.readableBytes());
+        Time stamp = stampOf(message);
+        if (stamp != null && !stamp.isZero()) {
+          latency.record(now.totalNsecs() - stamp.totalNsecs());
+        }
+      }
+    });
+  }
+
+  private Time stampOf(Object message) {
+    if (!headerChecked) {
+      headerChecked = true;
+      try {
+        getHeader = message.getClass().getMethod("getHeader");
+      } catch (NoSuchMethodException e) {
+        getHeader = null; // Message type without a header
+      }
+    }
+    if (getHeader == null) {
+      return null;
+    }
+    try {
+      return ((std_msgs.Header) getHeader.invoke(message)).getStamp();
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  public String getTopic() {
+    return topic;
+  }
+
+  public List<String> getPublisherNodes() {
+    return publisherNodes;
+  }
+
+  public long getReceived() {
+    return received.get();
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  /**
+   * Gets the latency of the messages received since the last reset
+   * @param reset If true the latency histogram is cleared
+   * @return The latency snapshot. Empty if the message type has no header
+   */
+  public LatencyHistogram.Snapshot getLatency(boolean reset) {
+    return latency.snapshot(reset);
+  }
+
+  public void shutdown() {
+    subscriber.shutdown();
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds mock driver data files of a requested size from the sample files in config/data.
+ * <p>
+ * The sample groups of the source file are repeated in order and renumbered so the generated file holds the
+ * requested number of distinct sample groups. The directory of the source files is read from the
+ * mock_drivers.data_dir system property and defaults to config/data relative to the working directory.
+ */
+public class BenchmarkDataFile {
+  static final String DATA_DIR = System.getProperty("mock_drivers.data_dir", "config/data");
+
+  /**
+   * Gets the sample file used by the launch files for a driver type
+   * The launch files give the imu, lidar, camera and lightbar drivers radar.csv, which has their column count
+   * @param driverType The simulated_driver value
+   * @return The sample file name
+   * @throws IllegalArgumentException If the driver type has no sample file
+   */
+  static String sourceFileOf(String driverType) {
+    switch (driverType) {
+      case "can":
+        return "can.csv";
+      case "comms":
+        return "dsrc.csv";
+      case "controller":
+        return "srx_controller.csv";
+      case "gnss":
+        return "pinpoint.csv";
+      case "radar":
+      case "imu":
+      case "lidar":
+      case "camera":
+      case "lightbar":
+        return "radar.csv";
+      case "roadway_sensor":
+        return "roadway_sensor.csv";
+      default:
+        throw new IllegalArgumentException("No sample file for driver type " + driverType);
+    }
+  }
+
+  /**
+   * Reads the first sample group of the sample file of a driver type
+   * @param driverType The simulated_driver value
+   * @return The rows of the sample group split on the data file delimiter
+   * @throws IOException If the sample file could not be read
+   */
+  static List<String[]> firstSampleGroup(String driverType) throws IOException {
+    List<String> lines = Files.readAllLines(Paths.get(DATA_DIR, sourceFileOf(driverType)), StandardCharsets.UTF_8);
+    List<String[]> group = new ArrayList<>();
+    String firstId = null;
+    for (String line : lines.subList(1, lines.size())) {
+      String[] elements = line.split(",");
+      if (firstId != null && !elements[0].equals(firstId)) {
+        break;
+      }
+      firstId = elements[0];
+      group.add(elements);
+    }
+    return group;
+  }
+
+  /**
+   * Writes a temporary data file for a driver type
+   * @param driverType The simulated_driver value
+   * @param sampleGroups The number of sample groups to write
+   * @return The generated file. It is deleted when the JVM exits
+   * @throws IOException If the file could not be written
+   */
+  static File generate(String driverType, int sampleGroups) throws IOException {
+    List<String> lines = Files.readAllLines(Paths.get(DATA_DIR, sourceFileOf(driverType)), StandardCharsets.UTF_8);
+
+    // Group the rows of the source file by sample id keeping their order
+    Map<String, List<String>> groups = new LinkedHashMap<>();
+    for (String line : lines.subList(1, lines.size())) {
+      int idEnd = line.indexOf(',');
+      if (idEnd < 0) {
+        continue;
+      }
+      String id = line.substring(0, idEnd);
+      if (!groups.containsKey(id)) {
+        groups.put(id, new ArrayList<String>());
+      }
+      groups.get(id).add(line.substring(idEnd));
+    }
+    List<List<String>> groupRows = new ArrayList<>(groups.values());
+
+    Path file = Files.createTempFile("mock_" + driverType + "_", ".csv");
+    file.toFile().deleteOnExit();
+    try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      writer.write(lines.get(0));
+      writer.newLine();
+      for (int i = 0; i < sampleGroups; i++) {
+        for (String row : groupRows.get(i % groupRows.size())) {
+          writer.write(Integer.toString(i));
+          writer.write(row);
+          writer.newLine();
+        }
+      }
+    }
+    return file.toFile();
+  }
+}
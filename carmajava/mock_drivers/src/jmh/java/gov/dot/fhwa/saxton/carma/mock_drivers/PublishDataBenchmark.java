@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the publishData implementation of each driver on its own.
+ * <p>
+ * The first sample group of the driver's sample file is split once during setup so only message building,
+ * value parsing and serialization by the stub publishers are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishDataBenchmark {
+
+  @Param({"can", "comms", "controller", "gnss", "radar", "imu", "lidar", "camera", "roadway_sensor", "lightbar"})
+  public String driverType;
+
+  private StubConnectedNode stubNode;
+  private AbstractMockDriver driver;
+  private List<String[]> sampleGroup;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    sampleGroup = BenchmarkDataFile.firstSampleGroup(driverType);
+    stubNode = new StubConnectedNode("mock_" + driverType)
+      .setParam("simulated_driver", driverType)
+      .setParam("diagnostics_period", 3600.0);
+    driver = (AbstractMockDriver) MockDriverNode.newDriver(driverType, "", "", stubNode.getNode(),
+      stubNode.getNode().getLog());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    stubNode.shutdown();
+  }
+
+  @Benchmark
+  public void publishData(Blackhole blackhole) {
+    driver.publishData(sampleGroup);
+    blackhole.consume(stubNode.getPublishedBytes());
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one call of readAndPublishData, which reads, parses, builds and publishes one sample group.
+ * <p>
+ * Each driver reads a generated data file of sampleGroups groups and wraps around at its end like it does
+ * when driven by MockDriverNode. Run with -prof gc to add the allocation rate to the throughput and
+ * latency distribution.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadAndPublishDataBenchmark {
+
+  @Param({"can", "comms", "controller", "gnss", "radar", "imu", "lidar", "camera", "roadway_sensor", "lightbar"})
+  public String driverType;
+
+  @Param({"10", "1000", "100000"})
+  public int sampleGroups;
+
+  private StubConnectedNode stubNode;
+  private IMockDriver driver;
+  private File dataFile;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    dataFile = BenchmarkDataFile.generate(driverType, sampleGroups);
+    stubNode = new StubConnectedNode("mock_" + driverType)
+      .setParam("simulated_driver", driverType)
+      .setParam("data_file_path", dataFile.getAbsolutePath())
+      .setParam("diagnostics_period", 3600.0);
+    driver = MockDriverNode.newDriver(driverType, "", "", stubNode.getNode(), stubNode.getNode().getLog());
+    driver.onStart(stubNode.getNode());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    driver.onInterruption();
+    stubNode.shutdown();
+    if (!dataFile.delete()) {
+      dataFile.deleteOnExit();
+    }
+  }
+
+  @Benchmark
+  public void readAndPublishData(Blackhole blackhole) {
+    driver.readAndPublishData();
+    blackhole.consume(stubNode.getPublishedBytes());
+  }
+}
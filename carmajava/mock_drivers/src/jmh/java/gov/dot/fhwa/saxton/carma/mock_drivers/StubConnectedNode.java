@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.apache.commons.logging.Log;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.internal.message.DefaultMessageFactory;
+import org.ros.internal.message.DefaultMessageSerializationFactory;
+import org.ros.internal.message.definition.MessageDefinitionReflectionProvider;
+import org.ros.message.MessageDefinitionProvider;
+import org.ros.message.MessageFactory;
+import org.ros.message.MessageSerializationFactory;
+import org.ros.message.MessageSerializer;
+import org.ros.message.Time;
+import org.ros.namespace.GraphName;
+import org.ros.node.ConnectedNode;
+import org.ros.node.parameter.ParameterTree;
+import org.ros.node.service.ServiceServer;
+import org.ros.node.topic.Publisher;
+import org.ros.node.topic.Subscriber;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A ConnectedNode which never touches the network.
+ * <p>
+ * Publishers created by this node serialize every message into a reused buffer exactly as rosjava would before
+ * writing it to a socket, then drop it. Subscribers and services are inert. Parameters are read from a map.
+ * The rosjava interfaces are implemented with dynamic proxies so only the calls made by the mock drivers
+ * need to be handled.
+ */
+public class StubConnectedNode {
+  private static final MessageDefinitionProvider DEFINITIONS = new MessageDefinitionReflectionProvider();
+  private static final MessageFactory MESSAGE_FACTORY = new DefaultMessageFactory(DEFINITIONS);
+  private static final MessageSerializationFactory SERIALIZATION_FACTORY =
+    new DefaultMessageSerializationFactory(DEFINITIONS);
+
+  private final GraphName name;
+  private final Map<String, Object> params = new HashMap<>();
+  private final ScheduledExecutorService executor;
+  private final ConnectedNode node;
+  private long publishedMessages = 0;
+  private long publishedBytes = 0;
+
+  /**
+   * Constructor
+   *
+   * @param name The node name
+   */
+  public StubConnectedNode(String name) {
+    this.name = GraphName.of(name);
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "stub_node_executor");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.node = proxy(ConnectedNode.class, new NodeHandler());
+  }
+
+  /**
+   * Sets a private parameter of the node
+   * @param key The parameter name relative to the node such as data_file_path
+   * @param value The value
+   * @return This stub
+   */
+  public StubConnectedNode setParam(String key, Object value) {
+    params.put("~/" + key, value);
+    return this;
+  }
+
+  public ConnectedNode getNode() {
+    return node;
+  }
+
+  public long getPublishedMessages() {
+    return publishedMessages;
+  }
+
+  public long getPublishedBytes() {
+    return publishedBytes;
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return (T) Proxy.newProxyInstance(StubConnectedNode.class.getClassLoader(), new Class<?>[] {type}, handler);
+  }
+
+  /**
+   * Handles the methods of java.lang.Object and returns an empty value for anything else
+   */
+  private static class InertHandler implements InvocationHandler {
+    @Override public Object invoke(Object proxy, Method method, Object[] args) {
+      switch (method.getName()) {
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "equals":
+          return proxy == args[0];
+        case "toString":
+          return getClass().getSimpleName();
+        default:
+          return defaultValue(method.getReturnType());
+      }
+    }
+
+    static Object defaultValue(Class<?> type) {
+      if (type == boolean.class) {
+        return false;
+      } else if (type == int.class) {
+        return 0;
+      } else if (type == long.class) {
+        return 0L;
+      } else if (type == double.class) {
+        return 0.0;
+      }
+      return null;
+    }
+  }
+
+  private class NodeHandler extends InertHandler {
+    @Override public Object invoke(Object proxy, Method method, Object[] args) {
+      switch (method.getName()) {
+        case "getName":
+          return name;
+        case "getLog":
+          return proxy(Log.class, new InertHandler());
+        case "getParameterTree":
+          return proxy(ParameterTree.class, new ParameterHandler());
+        case "getCurrentTime":
+          return Time.fromMillis(System.currentTimeMillis());
+        case "getTopicMessageFactory":
+          return MESSAGE_FACTORY;
+        case "getMessageSerializationFactory":
+          return SERIALIZATION_FACTORY;
+        case "getScheduledExecutorService":
+          return executor;
+        case "newPublisher":
+          return proxy(Publisher.class, new PublisherHandler(args[0].toString(), (String) args[1]));
+        case "newSubscriber":
+          return proxy(Subscriber.class, new InertHandler());
+        case "newServiceServer":
+          return proxy(ServiceServer.class, new InertHandler());
+        default:
+          return super.invoke(proxy, method, args);
+      }
+    }
+  }
+
+  private class ParameterHandler extends InertHandler {
+    @Override public Object invoke(Object proxy, Method method, Object[] args) {
+      if (method.getName().equals("has")) {
+        return params.containsKey(args[0].toString());
+      }
+      if (method.getName().startsWith("get") && args != null) {
+        Object value = params.get(args[0].toString());
+        if (value == null && args.length > 1) {
+          return args[1];
+        }
+        return value == null ? defaultValue(method.getReturnType()) : value;
+      }
+      return super.invoke(proxy, method, args);
+    }
+  }
+
+  private class PublisherHandler extends InertHandler {
+    private final GraphName topic;
+    private final String messageType;
+    private final MessageSerializer<Object> serializer;
+    private final ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(ByteOrder.LITTLE_ENDIAN, 8192);
+
+    PublisherHandler(String topic, String messageType) {
+      this.topic = GraphName.of(topic);
+      this.messageType = messageType;
+      this.serializer = SERIALIZATION_FACTORY.newMessageSerializer(messageType);
+    }
+
+    @Override public Object invoke(Object proxy, Method method, Object[] args) {
+      switch (method.getName()) {
+        case "newMessage":
+          return MESSAGE_FACTORY.newFromType(messageType);
+        case "publish":
+          buffer.clear();
+          serializer.serialize(args[0], buffer);
+          publishedMessages++;
+          publishedBytes += buffer.readableBytes();
+          return null;
+        case "getTopicName":
+          return topic;
+        case "getTopicMessageType":
+          return messageType;
+        default:
+          return super.invoke(proxy, method, args);
+      }
+    }
+  }
+}
@@ -19,7 +19,11 @@ package gov.dot.fhwa.saxton.carma.mock_drivers;
 import cav_msgs.DriverStatus;
 import cav_srvs.*;
 import org.apache.commons.logging.Log;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.ros.message.MessageFactory;
+import org.ros.message.MessageSerializer;
+import org.ros.message.Time;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.NodeConfiguration;
@@ -30,11 +34,71 @@ import org.ros.node.topic.Publisher;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Abstract implementation of a simulated driver. Reads a simulated data file and publishes the data.
+ * <p>
+ * The time spent reading, parsing, building and publishing each sample, the per topic message counts and the
+ * achieved publish rate are tracked. They are published on /diagnostics every ~/diagnostics_period seconds
+ * and can be requested at any time from the ~/get_metrics service.
+ * <p>
+ * The timing of published messages can be shaped with a traffic profile set through the ~/traffic/ parameters:
+ * dropout_period, dropout_duration and dropout_offset in s; burst_period, burst_duration and burst_offset in s
+ * with burst_factor times the publish rate; loss_percent; reorder_percent with reorder_max_hold_ms, after which
+ * a held message is released even if no other message of its topic followed; delay_ms and delay_jitter_ms;
+ * and the seed of the random choices.
+ * <p>
+ * Ticks are scheduled against the wall clock. When ~/overrun_limit consecutive ticks finish after the start of
+ * the next period the driver reports DEGRADED and applies ~/degraded_strategy until ~/recovery_ticks consecutive
+ * ticks are on time again. The strategies are skip, which drops the sample groups the driver fell behind on,
+ * lower_rate, which halves the publish rate down to ~/min_publish_rate, and none, which only reports the overload.
+ * With lower_rate each run of ~/recovery_ticks on time ticks raises the rate by a quarter of ~/publish_rate, and
+ * the driver only recovers after ~/recovery_ticks on time ticks at the full rate.
+ * <p>
+ * With ~/use_replay_clock set, data file replay follows the ReplayClock shared by every driver in the process
+ * instead. Each sample group is released when the clock reaches its sample id and its messages are stamped with
+ * the release time, so groups with the same sample id in different drivers carry identical stamps.
+ * <p>
+ * Setting ~/recorded_rate below ~/publish_rate upsamples a data file recorded at that rate. Each tick publishes
+ * a group interpolated between the two recorded groups around the current replay time using the column kinds
+ * from getInterpolationKinds.
+ * <p>
+ * The data file is indexed when it is opened and watched for changes unless ~/watch_data_file is false.
+ * A changed file, or a call to the ~/reload_data_file service, is opened and indexed off the tick thread and
+ * replaces the current file at the start of the next sample group. Playback continues with the first group of the
+ * new file whose sample id follows the last published one, so there is no gap in publishing.
+ * <p>
+ * Playback is controlled at runtime with std_srvs/Trigger services. ~/pause and ~/resume stop and restart
+ * publishing. ~/seek jumps to the first sample group at or after the double ~/seek_to. ~/seek_by selects whether
+ * ~/seek_to is a recorded time in s, the default, where consecutive sample ids are 1 / ~/recorded_rate s apart
+ * (1 / ~/publish_rate s if it is not set), or a sample_id. ~/set_playback_rate sets the speed of playback to
+ * ~/playback_rate times the recorded speed. Like every other setting these parameters are read through the
+ * instance fallback and are left in place, so repeating a call repeats its effect. Seeks are a binary search of
+ * the sample group index. Seeking and changing the playback rate are not available while following the shared
+ * replay clock.
+ * <p>
+ * Setting ~/warmup_ticks runs that many ticks of the read, parse and build path on the opened data before the driver
+ * reports OPERATIONAL, so the first published samples do not run in the interpreter. Built messages are serialized
+ * instead of published, the warm-up is left out of the metrics and Flight Recorder events and the replay state is
+ * reset afterwards. The warm-up stops early after ~/warmup_max_duration s.
+ * It is steady if the mean tick time of its last tenth is within ~/warmup_tolerance of the tenth before it.
+ * The duration and the steady state check are logged and reported in the diagnostics.
+ * <p>
+ * Drivers which replay a TimedLogReader such as a candump or receiver log pass it to setTimedLog. Each tick then
+ * advances the log's clock by one publish period and hands the records which became due to onLogRecord.
+ * <p>
+ * Ticks, data file reads, row parses, publishes, status publishes and deadline misses are recorded as JDK Flight
+ * Recorder events with the driver name and sample id when the JVM provides jdk.jfr. See FlightRecorderEvents.
  */
 public abstract class AbstractMockDriver implements IMockDriver {
   protected final ConnectedNode connectedNode;
@@ -44,24 +108,115 @@ public abstract class AbstractMockDriver implements IMockDriver {
   protected final Log log;
   protected final ParameterTree params;
   protected final GraphName graphName;
+  protected final String instanceName;
+  protected final String topicNamespace; // Prefix of this driver's topics and public services. Empty for none
 
   // Parameters
   protected final String rosRunID;
-  protected final String dataFilePath;
+  protected final String dataFilePath; // Empty if ~/data_file_path is not set
+  protected volatile double publishRate; // Hz
+  protected final double diagnosticsPeriod; // s
+  protected final double phaseOffset; // s
 
   // Topics
   // Published
   //protected final Publisher<bond.Status> bondPub;
   protected final Publisher<cav_msgs.DriverStatus> discoveryPub;
+  protected final Publisher<diagnostic_msgs.DiagnosticArray> diagnosticsPub;
 
   // Server
   protected final ServiceServer<cav_srvs.BindRequest, cav_srvs.BindResponse> bindService;
   protected final ServiceServer<GetDriverApiRequest, GetDriverApiResponse> getApiService;
   protected final ServiceServer<GetDriverStatusRequest, GetDriverStatusResponse> getStatusService;
+  protected final ServiceServer<diagnostic_msgs.SelfTestRequest, diagnostic_msgs.SelfTestResponse> getMetricsService;
+  protected final ServiceServer<std_srvs.TriggerRequest, std_srvs.TriggerResponse> reloadService;
+  protected final ServiceServer<std_srvs.TriggerRequest, std_srvs.TriggerResponse> pauseService;
+  protected final ServiceServer<std_srvs.TriggerRequest, std_srvs.TriggerResponse> resumeService;
+  protected final ServiceServer<std_srvs.TriggerRequest, std_srvs.TriggerResponse> seekService;
+  protected final ServiceServer<std_srvs.TriggerRequest, std_srvs.TriggerResponse> setPlaybackRateService;
 
   protected final String delimiter = ","; // Comma for csv file
   protected RandomAccessFile reader = null;
+  protected volatile SampleGroupIndex sampleGroupIndex = null; // The index of the file opened by reader
+  protected DataFileWatcher dataFileWatcher = null;
+  private final AtomicReference<LoadedDataFile> pendingDataFile = new AtomicReference<>();
   protected byte driverStatus = cav_msgs.DriverStatus.OFF;
+  protected volatile int sampleScale = 1; // Times each data row is published
+  protected volatile double nominalPublishRate; // Hz rate to return to after recovering from overruns
+
+  // Playback control
+  protected volatile boolean paused = false;
+  protected volatile double playbackRate = 1.0; // Multiple of the recorded speed
+  private final AtomicLong pendingSeekOffset = new AtomicLong(-1); // File offset to seek to before the next tick
+
+  // Overrun handling
+  protected final OverrunDetector overrunDetector;
+  protected final String degradedStrategy; // skip, lower_rate or none
+  protected final double minPublishRate; // Hz
+  protected volatile String degradedReason = null;
+  private long nextTickNanos = 0; // Only accessed by the tick thread
+
+  // Replay clock. Only accessed by the tick thread
+  protected final ReplayClock replayClock; // Null unless ~/use_replay_clock is set
+  protected int lastSampleId = -1; // The sample id of the last group read from the data file
+  private List<String[]> pendingGroup = null;
+  private long pendingIndex;
+  private long replayLoopOffset = 0;
+  private int prevReplaySampleId = -1;
+  private Time replayStamp = null;
+
+  // Interpolation. Only accessed by the tick thread
+  protected final double recordedRate; // Hz. 0 disables interpolation
+  private SampleInterpolator interpolator = null;
+  private List<String[]> interpolateFrom = null;
+  private List<String[]> interpolateTo = null;
+  private double interpolatePhase = 0.0; // Fraction of the way from interpolateFrom to interpolateTo
+
+  // Metrics. Replaced by a discarded instance during the warm-up
+  protected volatile DriverMetrics metrics;
+
+  // Traffic shaping
+  protected final TrafficProfile trafficProfile;
+  private final TrafficProfile.Sink trafficSink = new TrafficProfile.Sink() {
+    @Override public <T> void deliver(Publisher<T> publisher, T message) {
+      publishNow(publisher, message);
+    }
+  };
+  protected ScheduledFuture<?> diagnosticsTask = null;
+
+  // Flight Recorder events. Replaced by DriverEvents.NONE during the warm-up
+  protected volatile DriverEvents events;
+
+  // Warm-up
+  protected final int warmupTicks; // 0 to start without a warm-up
+  protected final double warmupMaxDuration; // s
+  protected final double warmupTolerance; // Fraction of the mean tick time
+  private boolean warmingUp = false; // Only accessed by the thread running onStart
+  private final Map<String, MessageSerializer<Object>> warmupSerializers = new HashMap<>();
+  private final ChannelBuffer warmupBuffer = ChannelBuffers.dynamicBuffer(ByteOrder.LITTLE_ENDIAN, 256);
+  private volatile long warmupNanos = -1; // -1 if no warm-up ran
+  private volatile int warmupTicksRun = 0;
+  private volatile double warmupTickMicros = 0.0; // Mean of the last window
+  private volatile boolean warmupSteady = false;
+
+  // Log replayed at its recorded spacing instead of a data file when set. Only accessed by the tick thread
+  private TimedLogReader timedLog = null;
+  private boolean logRecordPending = false; // True if the log holds a record which is not yet due
+  private long logTime = -1; // us. The replay position on the log's clock. -1 before the first record
+
+  // Vehicle state used instead of a data file when a state source is available
+  protected IVehicleStateSource vehicleStateSource = null;
+  private boolean sharesRouteStartTime = false; // True if the route start time was acquired from RouteStartTime
+  protected final VehicleState vehicleState = new VehicleState();
+
+  // Defaults
+  protected static final double DEFAULT_PUBLISH_RATE = 10.0; // Hz
+  protected static final double KPH_TO_MPS = 1.0 / 3.6;
+  protected static final double DEFAULT_ORIGIN_LAT = 38.95497; // deg TFHRC
+  protected static final double DEFAULT_ORIGIN_LON = -77.14965; // deg TFHRC
+  protected static final double DEFAULT_WHEEL_BASE = 3.0; // m
+  protected static final double DEFAULT_STEERING_RATIO = 16.0;
+  protected static final long DATA_FILE_QUIET_PERIOD = 200; // ms
 
   /**
    * Constructor establishes the publishers and subscribers for the ROS network.
@@ -69,80 +224,864 @@ public abstract class AbstractMockDriver implements IMockDriver {
    * @param connectedNode the ros node which this driver provides implementations for
    */
   public AbstractMockDriver(ConnectedNode connectedNode) {
+    this(connectedNode, "", "");
+  }
+
+  /**
+   * Constructor establishes the publishers and subscribers for the ROS network.
+   * Drivers which share a node must each have a unique instance name.
+   * Their private services are advertised under ~/instanceName/ and their private parameters are read
+   * from ~/instanceName/ with a fallback to the node wide value.
+   * Drivers of the same type in one node must also have different topic namespaces.
+   *
+   * @param connectedNode the ros node which this driver provides implementations for
+   * @param instanceName the name of this driver within the node. Empty if the driver is alone in the node
+   * @param topicNamespace the prefix of this driver's topics and public services. Empty for none
+   */
+  public AbstractMockDriver(ConnectedNode connectedNode, String instanceName, String topicNamespace) {
     this.connectedNode = connectedNode;
+    this.instanceName = instanceName;
+    this.topicNamespace = topicNamespace;
     log = connectedNode.getLog();
     params = connectedNode.getParameterTree();
-    this.graphName = connectedNode.getName();
+    this.graphName = instanceName.isEmpty() ? connectedNode.getName() : connectedNode.getName().join(instanceName);
 
     // Parameters
     rosRunID = params.getString("/run_id");
-    dataFilePath = params.getString("~/data_file_path");
+    dataFilePath = params.getString(param("data_file_path"), "");
+    publishRate = params.getDouble(param("publish_rate"), DEFAULT_PUBLISH_RATE);
+    diagnosticsPeriod = params.getDouble(param("diagnostics_period"), 1.0);
+    phaseOffset = params.getDouble(param("phase_offset"), 0.0);
+    nominalPublishRate = publishRate;
+    overrunDetector = new OverrunDetector(params.getInteger(param("overrun_limit"), 5),
+      params.getInteger(param("recovery_ticks"), 50));
+    degradedStrategy = params.getString(param("degraded_strategy"), "skip");
+    minPublishRate = params.getDouble(param("min_publish_rate"), 1.0);
+    recordedRate = params.getDouble(param("recorded_rate"), 0.0);
+    replayClock = params.getBoolean(param("use_replay_clock"), false) ? ReplayClock.getShared(connectedNode) : null;
+    warmupTicks = params.getInteger(param("warmup_ticks"), 0);
+    warmupMaxDuration = params.getDouble(param("warmup_max_duration"), 10.0);
+    warmupTolerance = params.getDouble(param("warmup_tolerance"), 0.1);
+    metrics = new DriverMetrics(connectedNode.getMessageSerializationFactory(), publishRate);
+    events = DriverEvents.forDriver(graphName.toString());
+    trafficProfile = new TrafficProfile(params.getInteger(param("traffic/seed"), 0),
+      connectedNode.getScheduledExecutorService())
+      .setDropouts(params.getDouble(param("traffic/dropout_period"), 0.0),
+        params.getDouble(param("traffic/dropout_duration"), 0.0),
+        params.getDouble(param("traffic/dropout_offset"), 0.0))
+      .setBursts(params.getDouble(param("traffic/burst_period"), 0.0),
+        params.getDouble(param("traffic/burst_duration"), 0.0),
+        params.getDouble(param("traffic/burst_offset"), 0.0),
+        params.getDouble(param("traffic/burst_factor"), 1.0))
+      .setLoss(params.getDouble(param("traffic/loss_percent"), 0.0))
+      .setReorder(params.getDouble(param("traffic/reorder_percent"), 0.0),
+        params.getDouble(param("traffic/reorder_max_hold_ms"), 100.0))
+      .setDelay(params.getDouble(param("traffic/delay_ms"), 0.0),
+        params.getDouble(param("traffic/delay_jitter_ms"), 0.0));
 
     // Topics
     // Published
     //bondPub = connectedNode.newPublisher("~/bond", bond.Status._TYPE); //TODO add once bind cpp is wrapped in jni
     discoveryPub = connectedNode.newPublisher("driver_discovery", cav_msgs.DriverStatus._TYPE);
+    diagnosticsPub = connectedNode.newPublisher("/diagnostics", diagnostic_msgs.DiagnosticArray._TYPE);
 
     // Service
     // Server
-    bindService = connectedNode.newServiceServer("~/bind", cav_srvs.Bind._TYPE,
+    bindService = connectedNode.newServiceServer(privateName("bind"), cav_srvs.Bind._TYPE,
       new ServiceResponseBuilder<BindRequest, BindResponse>() {
         @Override public void build(cav_srvs.BindRequest request, cav_srvs.BindResponse response) {
           log.info("Request for bind received");
         }
       });
     getApiService = connectedNode
-      .newServiceServer("~/get_driver_api", cav_srvs.GetDriverApi._TYPE,
+      .newServiceServer(privateName("get_driver_api"), cav_srvs.GetDriverApi._TYPE,
         new ServiceResponseBuilder<cav_srvs.GetDriverApiRequest, cav_srvs.GetDriverApiResponse>() {
           @Override public void build(cav_srvs.GetDriverApiRequest request,
             cav_srvs.GetDriverApiResponse response) {
             List<String> FQNs = new LinkedList<>();
             for (String apiElement: getDriverAPI()) {
-              FQNs.add("/" + apiElement);
+              FQNs.add("/" + topicName(apiElement));
             }
             response.setApiList(FQNs);
           }
         });
-    getStatusService = connectedNode.newServiceServer("~/get_status", GetDriverStatus._TYPE,
+    getStatusService = connectedNode.newServiceServer(privateName("get_status"), GetDriverStatus._TYPE,
       new ServiceResponseBuilder<GetDriverStatusRequest, GetDriverStatusResponse>() {
         @Override public void build(GetDriverStatusRequest request,
           GetDriverStatusResponse response) {
           response.setStatus(getDriverStatus());
         }
       });
+    getMetricsService = connectedNode.newServiceServer(privateName("get_metrics"), diagnostic_msgs.SelfTest._TYPE,
+      new ServiceResponseBuilder<diagnostic_msgs.SelfTestRequest, diagnostic_msgs.SelfTestResponse>() {
+        @Override public void build(diagnostic_msgs.SelfTestRequest request,
+          diagnostic_msgs.SelfTestResponse response) {
+          List<diagnostic_msgs.DiagnosticStatus> statuses = new ArrayList<>();
+          addDiagnostics(statuses, false);
+          byte passed = 1;
+          for (diagnostic_msgs.DiagnosticStatus status : statuses) {
+            if (status.getLevel() != diagnostic_msgs.DiagnosticStatus.OK) {
+              passed = 0;
+            }
+          }
+          response.setId(getGraphName().toString());
+          response.setPassed(passed);
+          response.setStatus(statuses);
+        }
+      });
+    reloadService = connectedNode.newServiceServer(privateName("reload_data_file"), std_srvs.Trigger._TYPE,
+      new ServiceResponseBuilder<std_srvs.TriggerRequest, std_srvs.TriggerResponse>() {
+        @Override public void build(std_srvs.TriggerRequest request, std_srvs.TriggerResponse response) {
+          try {
+            int groups = reloadDataFile();
+            response.setSuccess(true);
+            response.setMessage("Indexed " + groups + " sample groups. Switching at the next sample group");
+          } catch (IOException e) {
+            response.setSuccess(false);
+            response.setMessage("Could not reload " + dataFilePath + " " + e.getMessage());
+          }
+        }
+      });
+    pauseService = connectedNode.newServiceServer(privateName("pause"), std_srvs.Trigger._TYPE,
+      new ServiceResponseBuilder<std_srvs.TriggerRequest, std_srvs.TriggerResponse>() {
+        @Override public void build(std_srvs.TriggerRequest request, std_srvs.TriggerResponse response) {
+          paused = true;
+          response.setSuccess(true);
+          response.setMessage(getGraphName() + " paused");
+        }
+      });
+    resumeService = connectedNode.newServiceServer(privateName("resume"), std_srvs.Trigger._TYPE,
+      new ServiceResponseBuilder<std_srvs.TriggerRequest, std_srvs.TriggerResponse>() {
+        @Override public void build(std_srvs.TriggerRequest request, std_srvs.TriggerResponse response) {
+          paused = false;
+          response.setSuccess(true);
+          response.setMessage(getGraphName() + " resumed");
+        }
+      });
+    seekService = connectedNode.newServiceServer(privateName("seek"), std_srvs.Trigger._TYPE,
+      new ServiceResponseBuilder<std_srvs.TriggerRequest, std_srvs.TriggerResponse>() {
+        @Override public void build(std_srvs.TriggerRequest request, std_srvs.TriggerResponse response) {
+          String result = seek();
+          response.setSuccess(result == null);
+          response.setMessage(result == null ? getGraphName() + " seeking" : result);
+        }
+      });
+    setPlaybackRateService = connectedNode.newServiceServer(privateName("set_playback_rate"), std_srvs.Trigger._TYPE,
+      new ServiceResponseBuilder<std_srvs.TriggerRequest, std_srvs.TriggerResponse>() {
+        @Override public void build(std_srvs.TriggerRequest request, std_srvs.TriggerResponse response) {
+          double rate = params.getDouble(param("playback_rate"), 1.0);
+          if (replayClock != null) {
+            response.setSuccess(false);
+            response.setMessage("The playback rate is set by the shared replay clock");
+          } else if (rate <= 0.0) {
+            response.setSuccess(false);
+            response.setMessage("~/playback_rate must be positive. Use ~/pause to stop playback");
+          } else {
+            setPlaybackRate(rate);
+            response.setSuccess(true);
+            response.setMessage(getGraphName() + " playing at " + rate + " times the recorded speed");
+          }
+        }
+      });
   }
 
   /**
    * Function which should be called in the onStart function of a containing ROS Node
    * This implementation opens a data file to use for simulation
+   * If the driver can publish a vehicle state and ~/route_file_path is set the route is loaded instead
    * @param connectedNode The node which is being started
    */
   @Override public void onStart(ConnectedNode connectedNode) {
+    startDiagnostics();
+    if (vehicleStateSource != null) {
+      driverStatus = cav_msgs.DriverStatus.OPERATIONAL;
+      return;
+    }
+    if (publishesVehicleState() && params.has(param("route_file_path"))) {
+      loadRoute(params.getString(param("route_file_path")));
+      return;
+    }
+    if (dataFilePath.isEmpty()) {
+      log.warn(getGraphName() + " has no ~/data_file_path. No data published");
+      driverStatus = cav_msgs.DriverStatus.DEGRADED;
+      return;
+    }
+    if (params.getBoolean(param("watch_data_file"), true)) {
+      dataFileWatcher = new DataFileWatcher(dataFilePath, DATA_FILE_QUIET_PERIOD, new Runnable() {
+        @Override public void run() {
+          try {
+            int groups = reloadDataFile();
+            log.info(getGraphName() + " reloading changed file " + dataFilePath + " with " + groups + " sample groups");
+          } catch (IOException e) {
+            log.warn(getGraphName() + " could not reload changed file " + dataFilePath + " " + e.getMessage());
+          }
+        }
+      }, log);
+      dataFileWatcher.start();
+    }
     try {
       reader = new RandomAccessFile(dataFilePath, "r");
-      driverStatus = cav_msgs.DriverStatus.OPERATIONAL;
+      sampleGroupIndex = SampleGroupIndex.build(dataFilePath, getSampleIdIdx(), delimiter.charAt(0));
     } catch (FileNotFoundException e) {
       log.warn(getGraphName() + " could not find file " + dataFilePath + ".No data published " + e.getMessage());
       driverStatus = cav_msgs.DriverStatus.DEGRADED;
+      return;
+    } catch (IOException e) {
+      log.warn(getGraphName() + " could not index file " + dataFilePath + ". Seeking is unavailable " + e.getMessage());
+    }
+    warmUp();
+    if (reader != null) {
+      driverStatus = cav_msgs.DriverStatus.OPERATIONAL;
     }
   }
 
-  @Override public void onInterruption() {
-    // Close an opened data file
+  /**
+   * Runs up to ~/warmup_ticks ticks of readAndPublishSample without publishing so the JIT compiles the replay path
+   * Built messages are serialized instead and the ticks are recorded in discarded metrics without events. Then
+   * rewindAfterWarmUp moves the replay back to its start.
+   * Drivers which replay a source opened in their own onStart should call this function before reporting OPERATIONAL
+   */
+  protected void warmUp() {
+    if (warmupTicks <= 0) {
+      return;
+    }
+    int window = Math.max(warmupTicks / 10, 1);
+    long windowNanos = 0;
+    long lastWindowNanos = -1;
+    long previousWindowNanos = -1;
+    int ticks = 0;
+    long start = System.nanoTime();
+    long end = start + (long) (warmupMaxDuration * 1e9);
+    DriverMetrics replayMetrics = metrics;
+    DriverEvents replayEvents = events;
+    metrics = new DriverMetrics(connectedNode.getMessageSerializationFactory(), replayMetrics.getTargetRate());
+    events = DriverEvents.NONE;
+    warmingUp = true;
+    try {
+      while (ticks < warmupTicks && System.nanoTime() < end && driverStatus != cav_msgs.DriverStatus.FAULT) {
+        long tickStart = System.nanoTime();
+        readAndPublishSample();
+        windowNanos += System.nanoTime() - tickStart;
+        ticks++;
+        if (ticks % window == 0) {
+          previousWindowNanos = lastWindowNanos;
+          lastWindowNanos = windowNanos;
+          windowNanos = 0;
+        }
+      }
+      rewindAfterWarmUp();
+    } catch (IOException e) {
+      log.warn(getGraphName() + " could not rewind after the warm-up " + e.getMessage());
+    } finally {
+      warmingUp = false;
+      metrics = replayMetrics;
+      events = replayEvents;
+      warmupSerializers.clear();
+    }
+    warmupNanos = System.nanoTime() - start;
+    warmupTicksRun = ticks;
+    warmupTickMicros = lastWindowNanos >= 0 ? lastWindowNanos / 1000.0 / window : 0.0;
+    warmupSteady = previousWindowNanos > 0
+      && Math.abs(lastWindowNanos - previousWindowNanos) <= warmupTolerance * previousWindowNanos;
+    String summary = getGraphName() + " warmed up in " + warmupNanos / 1000000 + " ms over " + ticks + " ticks";
+    if (warmupSteady) {
+      log.info(summary + ". Steady at " + String.format("%.1f", warmupTickMicros) + " us per tick");
+    } else {
+      log.warn(summary + " without reaching a steady tick time. Increase ~/warmup_ticks");
+    }
+  }
+
+  /**
+   * Moves the replay back to its start after the warm-up
+   * Drivers which replay a source opened in their own onStart, or keep state such as counters across sample
+   * groups, should override this function and call it
+   * @throws IOException If the data file could not be rewound
+   */
+  protected void rewindAfterWarmUp() throws IOException {
+    interpolateFrom = null;
+    interpolateTo = null;
+    interpolatePhase = 0.0;
+    lastSampleId = -1;
+    if (reader != null) {
+      reader.seek(0);
+    }
+    if (timedLog != null) {
+      timedLog.rewind();
+      logRecordPending = false;
+      logTime = -1;
+    }
+  }
+
+  /**
+   * Serializes a message built during the warm-up in place of publishing it
+   */
+  private <T> void serializeForWarmUp(Publisher<T> publisher, T message) {
+    MessageSerializer<Object> serializer = warmupSerializers.get(publisher.getTopicMessageType());
+    if (serializer == null) {
+      serializer = connectedNode.getMessageSerializationFactory().newMessageSerializer(publisher.getTopicMessageType());
+      warmupSerializers.put(publisher.getTopicMessageType(), serializer);
+    }
+    warmupBuffer.clear();
+    serializer.serialize(message, warmupBuffer);
+  }
+
+  /**
+   * Finds the sample group requested by the seek parameters and schedules a jump to it
+   * Drivers which do not replay an indexed data file override this function to seek in their own source
+   * @return null on success. The reason otherwise
+   */
+  protected String seek() {
+    SampleGroupIndex index = sampleGroupIndex;
+    if (replayClock != null) {
+      return "The position is set by the shared replay clock";
+    }
+    if (index == null) {
+      return "No indexed data file is open";
+    }
+    if (!params.has(param("seek_to"))) {
+      return "Set ~/seek_to before calling seek";
+    }
+    double seekTo = params.getDouble(param("seek_to"));
+    String seekBy = params.getString(param("seek_by"), "time");
+    int sampleId;
+    if (seekBy.equals("sample_id")) {
+      sampleId = (int) Math.round(seekTo);
+    } else if (seekBy.equals("time")) {
+      double recordedSampleRate = recordedRate > 0.0 ? recordedRate : nominalPublishRate;
+      sampleId = (int) Math.round(seekTo * recordedSampleRate);
+    } else {
+      return "~/seek_by must be time or sample_id";
+    }
+    int group = index.findSampleId(sampleId);
+    if (group < 0) {
+      return "No sample group with sample id " + sampleId + " or later";
+    }
+    pendingSeekOffset.set(index.getOffset(group));
+    log.info(getGraphName() + " seeking to sample id " + index.getSampleId(group));
+    return null;
+  }
+
+  /**
+   * Moves the data file to a sample group on the tick thread and drops any groups read ahead of it
+   * @param offset The file offset of the group
+   */
+  private void applySeek(long offset) {
+    try {
+      reader.seek(offset);
+    } catch (IOException e) {
+      log.warn(getGraphName() + " could not seek in data file " + e.getMessage());
+      return;
+    }
+    interpolateFrom = null;
+    nextTickNanos = 0;
+  }
+
+  /**
+   * Changes the speed of playback
+   * Without interpolation the publish rate changes. With interpolation the publish rate is kept and the replay time
+   * advances faster or slower between ticks
+   * @param rate The multiple of the recorded speed
+   */
+  public void setPlaybackRate(double rate) {
+    playbackRate = rate;
+    metrics.setTargetRate(getTickRate());
+  }
+
+  /**
+   * Gets the rate at which ticks run
+   * @return The rate in Hz
+   */
+  protected double getTickRate() {
+    return interpolates() ? publishRate : publishRate * playbackRate;
+  }
+
+  /**
+   * Opens and indexes the data file on the calling thread
+   * The tick thread switches to it at the start of its next sample group
+   * Drivers which do not replay a csv data file override this function to reopen their own source
+   * @return The number of sample groups in the file
+   * @throws IOException If the file could not be opened or indexed
+   */
+  protected int reloadDataFile() throws IOException {
+    if (dataFilePath.isEmpty()) {
+      throw new FileNotFoundException("~/data_file_path is not set");
+    }
+    SampleGroupIndex index = SampleGroupIndex.build(dataFilePath, getSampleIdIdx(), delimiter.charAt(0));
+    LoadedDataFile replaced = pendingDataFile.getAndSet(
+      new LoadedDataFile(new RandomAccessFile(dataFilePath, "r"), index));
+    if (replaced != null) {
+      replaced.reader.close(); // A newer version arrived before the previous one was used
+    }
+    return index.size();
+  }
+
+  /**
+   * Replaces the data file with a reloaded one
+   * Playback continues with the first group after the last sample id read from the old file
+   * @param loaded The reloaded file
+   * @throws IOException If the new file could not be positioned
+   */
+  private void swapDataFile(LoadedDataFile loaded) throws IOException {
     closeDataFile();
+    reader = loaded.reader;
+    sampleGroupIndex = loaded.index;
+    int group = lastSampleId < 0 ? -1 : sampleGroupIndex.findSampleId(lastSampleId + 1);
+    reader.seek(group < 0 ? 0 : sampleGroupIndex.getOffset(group));
+    if (driverStatus == cav_msgs.DriverStatus.FAULT
+      || (driverStatus == cav_msgs.DriverStatus.DEGRADED && degradedReason == null)) {
+      driverStatus = cav_msgs.DriverStatus.OPERATIONAL;
+    }
+    log.info(getGraphName() + " switched to the reloaded data file " + dataFilePath);
+  }
+
+  /**
+   * A data file opened and indexed off the tick thread
+   */
+  private static class LoadedDataFile {
+    final RandomAccessFile reader;
+    final SampleGroupIndex index;
+
+    LoadedDataFile(RandomAccessFile reader, SampleGroupIndex index) {
+      this.reader = reader;
+      this.index = index;
+    }
   }
 
-  @Override protected void finalize() throws Throwable{
+  /**
+   * Loads a route file as the vehicle state source of this driver
+   * The vehicle is at the first waypoint at ~/route_start_time s if it is set. Otherwise it is there at the
+   * RouteStartTime shared by every route driver, so drivers in different nodes publish consistent states
+   * @param routeFilePath The path to the route file
+   */
+  protected void loadRoute(String routeFilePath) {
+    double startTime;
+    if (params.has(param("route_start_time"))) {
+      startTime = params.getDouble(param("route_start_time"));
+    } else {
+      startTime = RouteStartTime.acquire(connectedNode);
+      sharesRouteStartTime = true;
+    }
+    LocalTangentPlane tangentPlane = new LocalTangentPlane(
+      params.getDouble(param("origin_latitude"), DEFAULT_ORIGIN_LAT),
+      params.getDouble(param("origin_longitude"), DEFAULT_ORIGIN_LON),
+      params.getDouble(param("origin_altitude"), 0.0));
+    try {
+      vehicleStateSource = RouteTrajectory.load(routeFilePath,
+        params.getDouble(param("route_velocity_scale"), KPH_TO_MPS),
+        tangentPlane,
+        startTime,
+        params.getDouble(param("wheel_base"), DEFAULT_WHEEL_BASE),
+        params.getDouble(param("steering_ratio"), DEFAULT_STEERING_RATIO));
+      driverStatus = cav_msgs.DriverStatus.OPERATIONAL;
+    } catch (IOException e) {
+      log.warn(getGraphName() + " could not load route " + routeFilePath + ". No data published " + e.getMessage());
+      driverStatus = cav_msgs.DriverStatus.DEGRADED;
+    }
+  }
+
+  /**
+   * Starts the periodic publication of this driver's diagnostics
+   * Drivers which override onStart without calling it must call this function
+   */
+  protected void startDiagnostics() {
+    if (diagnosticsTask != null) {
+      return;
+    }
+    long periodNanos = (long) (diagnosticsPeriod * 1e9);
+    diagnosticsTask = connectedNode.getScheduledExecutorService().scheduleAtFixedRate(new Runnable() {
+      @Override public void run() {
+        publishDiagnostics();
+      }
+    }, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override public void onInterruption() {
+    if (diagnosticsTask != null) {
+      diagnosticsTask.cancel(false);
+    }
+    if (dataFileWatcher != null) {
+      dataFileWatcher.close();
+    }
+    if (replayClock != null) {
+      ReplayClock.release(connectedNode);
+    }
+    if (sharesRouteStartTime) {
+      RouteStartTime.release(connectedNode);
+      sharesRouteStartTime = false;
+    }
+    // Close an opened data file
     closeDataFile();
-    super.finalize();
+    LoadedDataFile pending = pendingDataFile.getAndSet(null);
+    if (pending != null) {
+      try {
+        pending.reader.close();
+      } catch (IOException e) {
+        log.warn(getGraphName() + " failed to close reloaded data file. " + e.getMessage());
+      }
+    }
   }
 
+  /**
+   * Reads and publishes one sample while tracking the time spent in each stage and detecting overruns
+   * Drivers should override readAndPublishSample instead of this function
+   */
   @Override public void readAndPublishData() {
-    
-    if (reader == null) {
+    releaseHeldMessages();
+    if (paused) {
+      nextTickNanos = 0; // Restart the schedule on resume instead of skipping the paused time
       return;
     }
+    long seekOffset = pendingSeekOffset.getAndSet(-1);
+    if (seekOffset >= 0 && reader != null) {
+      applySeek(seekOffset);
+    }
+    if (replaysOnClock()) {
+      readAndPublishReplay();
+      return;
+    }
+    long period = getPublishPeriodNanos();
+    long now = System.nanoTime();
+    long behind = now - nextTickNanos;
+    if (nextTickNanos == 0 || (behind >= period && !skipsWhenDegraded())) {
+      nextTickNanos = now; // Run late instead of bursting to catch up
+    } else if (behind >= period) {
+      long skipped = behind / period;
+      skipSampleGroups(skipped);
+      metrics.addSkippedSamples(skipped);
+      nextTickNanos += skipped * period;
+    }
+
+    Object tick = startTick();
     try {
+      readAndPublishSample();
+    } finally {
+      endTick(tick);
+    }
+    nextTickNanos += period;
+    handleOverrun(System.nanoTime() > nextTickNanos);
+  }
+
+  /**
+   * Delivers the messages the traffic profile held back for reordering longer than ~/traffic/reorder_max_hold_ms
+   * Drivers which override readAndPublishData must call this function every tick
+   */
+  protected void releaseHeldMessages() {
+    trafficProfile.releaseHeld(trafficSink);
+  }
+
+  /**
+   * Checks if the data file is released by the replay clock
+   * @return True if the replay clock is used and a data file is open
+   */
+  private boolean replaysOnClock() {
+    return replayClock != null && reader != null && vehicleStateSource == null;
+  }
+
+  /**
+   * Waits for the replay clock to reach the next sample group and publishes it with its release time
+   * Groups whose release time has already passed are skipped so a late driver joins the other drivers in step
+   */
+  private void readAndPublishReplay() {
+    if (pendingGroup == null && !readPendingGroup()) {
+      return;
+    }
+    long currentIndex = replayClock.getCurrentIndex();
+    long skipped = 0;
+    while (pendingIndex < currentIndex && readPendingGroup()) {
+      skipped++;
+    }
+    if (skipped > 0) {
+      metrics.addSkippedSamples(skipped);
+    }
+    if (pendingGroup == null) {
+      return;
+    }
+    try {
+      replayStamp = replayClock.awaitRelease(pendingIndex);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt(); // The driver loop is cancelled on its next sleep
+      return;
+    }
+
+    Object tick = startTick();
+    try {
+      publishData(scaleSample(pendingGroup));
+      readPendingGroup();
+    } finally {
+      replayStamp = null;
+      endTick(tick);
+    }
+  }
+
+  /**
+   * Marks the start of a tick in the metrics and the Flight Recorder events
+   * @return The tick event to pass to endTick
+   */
+  protected Object startTick() {
+    Object tick = events.beginTick();
+    metrics.startTick();
+    return tick;
+  }
+
+  /**
+   * Marks the end of a tick in the metrics and the Flight Recorder events
+   * @param tick The event returned by startTick
+   */
+  protected void endTick(Object tick) {
+    long duration = metrics.endTick();
+    events.endTick(tick, lastSampleId);
+    long period = (long) (1e9 / metrics.getTargetRate());
+    if (duration > period) {
+      events.deadlineMiss(lastSampleId, duration, period);
+    }
+  }
+
+  /**
+   * Reads the next sample group to be released by the replay clock
+   * Sample ids restart when the data file is rewound so the replay index keeps increasing across loops
+   * @return True if a group was read
+   */
+  private boolean readPendingGroup() {
+    List<String[]> data = readSampleGroup();
+    if (data == null || data.isEmpty()) {
+      pendingGroup = null;
+      return false;
+    }
+    if (lastSampleId < prevReplaySampleId) {
+      replayLoopOffset += prevReplaySampleId + 1;
+    }
+    prevReplaySampleId = lastSampleId;
+    pendingGroup = data;
+    pendingIndex = replayLoopOffset + lastSampleId;
+    return true;
+  }
+
+  /**
+   * Gets the header stamp for messages built from the current sample
+   * @return The release time of the group when the replay clock is used. The current time otherwise
+   */
+  protected Time getSampleTime() {
+    return replayStamp != null ? replayStamp : connectedNode.getCurrentTime();
+  }
+
+  /**
+   * Checks if sample groups are currently skipped to stay on the wall clock
+   * @return True if the driver is degraded with the skip strategy
+   */
+  private boolean skipsWhenDegraded() {
+    return degradedReason != null && degradedStrategy.equals("skip");
+  }
+
+  /**
+   * Updates the overrun detector and applies the degraded strategy when the state changes
+   * @param overrun True if the last tick finished after the start of the next period
+   */
+  protected void handleOverrun(boolean overrun) {
+    switch (overrunDetector.update(overrun)) {
+      case DEGRADE:
+        degrade();
+        break;
+      case RECOVER:
+        recover();
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void degrade() {
+    String reason = "ticks overran the " + String.format("%.1f", publishRate) + " Hz period";
+    switch (degradedStrategy) {
+      case "skip":
+        reason += ". Skipping samples to stay on the wall clock";
+        break;
+      case "lower_rate":
+        publishRate = Math.max(publishRate / 2.0, minPublishRate);
+        metrics.setTargetRate(getTickRate());
+        reason += ". Lowered the publish rate to " + String.format("%.1f", publishRate) + " Hz";
+        break;
+      default:
+        reason += ". Publishing late";
+        break;
+    }
+    degradedReason = reason;
+    if (driverStatus == cav_msgs.DriverStatus.OPERATIONAL) {
+      driverStatus = cav_msgs.DriverStatus.DEGRADED;
+    }
+    log.warn(getGraphName() + " is degraded: " + reason);
+  }
+
+  private void recover() {
+    if (degradedStrategy.equals("lower_rate") && publishRate < nominalPublishRate) {
+      // Raise the rate in steps so a driver which only overruns at the full rate settles below it
+      publishRate = Math.min(publishRate + nominalPublishRate / 4.0, nominalPublishRate);
+      metrics.setTargetRate(getTickRate());
+      overrunDetector.stayDegraded();
+      degradedReason = "ticks overran the publish period. Raised the publish rate to "
+        + String.format("%.1f", publishRate) + " Hz";
+      log.info(getGraphName() + " is recovering: " + degradedReason);
+      return;
+    }
+    publishRate = nominalPublishRate;
+    metrics.setTargetRate(getTickRate());
+    degradedReason = null;
+    if (driverStatus == cav_msgs.DriverStatus.DEGRADED) {
+      driverStatus = cav_msgs.DriverStatus.OPERATIONAL;
+    }
+    log.info(getGraphName() + " recovered from overruns at " + publishRate + " Hz");
+  }
+
+  /**
+   * Reads the next sample group from the data file or samples the vehicle state source and publishes it
+   */
+  protected void readAndPublishSample() {
+    if (vehicleStateSource != null) {
+      Time time = connectedNode.getCurrentTime();
+      vehicleStateSource.sample(time, vehicleState);
+      publishVehicleState(time, vehicleState);
+      return;
+    }
+    List<String[]> data = interpolates() ? readInterpolatedGroup() : readSampleGroup();
+    if (data != null) {
+      publishData(scaleSample(data));
+    }
+  }
+
+  /**
+   * Checks if the data file is upsampled to the publish rate
+   * @return True if the recorded rate is set and below the publish rate
+   */
+  private boolean interpolates() {
+    return recordedRate > 0.0 && recordedRate < publishRate;
+  }
+
+  /**
+   * Builds the sample group for the current tick between the two recorded groups around it
+   * Only the two recorded groups are kept so memory does not depend on the length of the data file
+   * @return The interpolated group. Null if no data file is open or it could not be read
+   */
+  private List<String[]> readInterpolatedGroup() {
+    if (interpolateFrom == null) {
+      interpolateFrom = readSampleGroup();
+      interpolateTo = readSampleGroup();
+      interpolatePhase = 0.0;
+      if (interpolateFrom == null || interpolateTo == null) {
+        List<String[]> data = interpolateFrom;
+        interpolateFrom = null;
+        return data;
+      }
+    }
+    if (interpolator == null) {
+      interpolator = new SampleInterpolator(getInterpolationKinds(), getSampleIdIdx());
+    }
+    List<String[]> data = interpolator.interpolate(interpolateFrom, interpolateTo, interpolatePhase);
+    interpolatePhase += recordedRate * playbackRate / publishRate;
+    while (interpolatePhase >= 1.0 && interpolateFrom != null) {
+      interpolatePhase -= 1.0;
+      interpolateFrom = interpolateTo;
+      interpolateTo = readSampleGroup();
+      if (interpolateTo == null) {
+        interpolateFrom = null;
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Gets how each column of the data file is interpolated when upsampling
+   * The default holds every column so the recorded groups are repeated
+   * @return The kind of each column
+   */
+  protected SampleInterpolator.Kind[] getInterpolationKinds() {
+    return SampleInterpolator.holdAll(getExpectedColCount());
+  }
+
+  /**
+   * Reads and discards sample groups of the data file
+   * Drivers which publish from a vehicle state source or a generated scene always publish the current state
+   * so there is nothing to skip
+   * @param count The number of sample groups to skip
+   */
+  protected void skipSampleGroups(long count) {
+    if (timedLog != null) {
+      if (logTime >= 0) {
+        logTime += (long) (count * 1e6 / publishRate); // Move the log forward so it stays on the wall clock
+      }
+      return;
+    }
+    for (long i = 0; i < count && reader != null && vehicleStateSource == null; i++) {
+      readSampleGroup();
+    }
+  }
+
+  /**
+   * Replays a log at its recorded spacing instead of the data file
+   * The driver calls advanceTimedLog from its ticks and handles the due records in onLogRecord
+   * @param log The opened log. Null once the driver has closed it
+   */
+  protected void setTimedLog(TimedLogReader log) {
+    timedLog = log;
+    logRecordPending = false;
+    logTime = -1;
+  }
+
+  /**
+   * Advances the timed log by one publish period and passes every record which became due to onLogRecord
+   * The log restarts from its first record after its last record
+   * @throws IOException If the log could not be read
+   */
+  protected void advanceTimedLog() throws IOException {
+    if (logTime >= 0) {
+      logTime += (long) (1e6 / publishRate);
+    }
+    boolean rewound = false;
+    while (true) {
+      if (!logRecordPending) {
+        long start = System.nanoTime();
+        logRecordPending = timedLog.next();
+        metrics.addParseTime(System.nanoTime() - start);
+        if (!logRecordPending) {
+          if (rewound) {
+            return; // The log holds no records
+          }
+          timedLog.rewind();
+          logTime = -1;
+          rewound = true;
+          continue;
+        }
+        if (logTime < 0) {
+          logTime = timedLog.getTime();
+        }
+      }
+      long lag = logTime - timedLog.getTime();
+      if (lag < 0) {
+        return;
+      }
+      logRecordPending = false;
+      onLogRecord(lag);
+    }
+  }
+
+  /**
+   * Handles the current record of the timed log once it is due
+   * @param lag The time in us on the log's clock since the record became due
+   */
+  protected void onLogRecord(long lag) {
+  }
+
+  /**
+   * Reads the next sample group from the data file. The file is rewound after its last group
+   * @return The rows of the sample group. Null if no data file is open or it could not be read
+   */
+  protected List<String[]> readSampleGroup() {
+    LoadedDataFile loaded = pendingDataFile.getAndSet(null);
+    if (loaded == null && reader == null) {
+      return null;
+    }
+    try {
+      if (loaded != null) {
+        swapDataFile(loaded);
+      }
       List<String[]> data = new LinkedList<>();
       String dataLine;
       String[] elements;
@@ -150,24 +1089,46 @@ public abstract class AbstractMockDriver implements IMockDriver {
       int prevSampleIndex = -1;
       int currentSampleIndex;
       long prevLineIndex = reader.getFilePointer();
+      long lineStart = prevLineIndex;
+      long stageStart = System.nanoTime();
+      long stageEnd;
 
-      while((dataLine = reader.readLine()) != null) {
+      while (true) {
+        Object fileRead = events.beginFileRead();
+        dataLine = reader.readLine();
+        events.end(fileRead);
+        if (dataLine == null) {
+          break;
+        }
+        stageEnd = System.nanoTime();
+        metrics.addReadTime(stageEnd - stageStart);
+        stageStart = stageEnd;
         // Skip the header line of all data files
         if (prevLineIndex == 0) {
           prevLineIndex = reader.getFilePointer();
           continue;
         }
-        // separate on delimiter
-        elements = dataLine.split(delimiter);
+        // separate on delimiter keeping empty trailing values in their columns
+        Object rowParse = events.beginRowParse();
+        elements = dataLine.split(delimiter, -1);
         // Update sample index
-        if (elements.length != getExpectedColCount()) {
+        if (!isValidRow(elements)) {
+          metrics.addParseTime(System.nanoTime() - stageStart);
+          events.commitRow(fileRead, rowParse, -1);
           log.warn(
-            "Publish data requested for " + getGraphName() + " with incorrect number of data elements. "
-              + "The required number of data elements is " + getExpectedColCount());
+            "Publish data requested for " + getGraphName() + " with an invalid row. "
+              + "The required number of data elements is " + getExpectedColCount()
+              + " and parsed values must be set");
+          stageStart = System.nanoTime();
           continue; // Skip this invalid line
         }
 
         currentSampleIndex = Integer.parseInt(elements[getSampleIdIdx()]);
+        events.end(rowParse);
+        events.commitRow(fileRead, rowParse, currentSampleIndex);
+        stageEnd = System.nanoTime();
+        metrics.addParseTime(stageEnd - stageStart);
+        stageStart = stageEnd;
         //If this is the first sample
         if (prevSampleIndex == -1) {
           prevSampleIndex = currentSampleIndex;
@@ -175,14 +1136,18 @@ public abstract class AbstractMockDriver implements IMockDriver {
         // If the end of this sample set then exit the loop
         if (currentSampleIndex != prevSampleIndex) {
           exitBeforeEOF = true;
+          reader.seek(lineStart); // The line starts the next sample group
           break;
         }
         data.add(elements);
+        lineStart = reader.getFilePointer();
       }
       if (!exitBeforeEOF) {
         reader.seek(0);
+        metrics.addReadTime(System.nanoTime() - stageStart);
       }
-      publishData(data);
+      lastSampleId = prevSampleIndex;
+      return data;
 
     } catch (IOException e) {
       closeDataFile();
@@ -190,7 +1155,29 @@ public abstract class AbstractMockDriver implements IMockDriver {
       // Log warning if the node failed to read data in the file. All publishing will be stopped in this case as the file may be corrupt.
       log.warn(getGraphName() + " failed to read data file. No data will be published " + e.getMessage());
       driverStatus = cav_msgs.DriverStatus.FAULT;
+      return null;
+    }
+  }
+
+  /**
+   * Repeats every row of a sample group sampleScale times
+   * Drivers which build one message per sample group publish larger messages and
+   * drivers which build one message per row publish more messages
+   * @param data The rows of a sample group
+   * @return The scaled rows
+   */
+  protected List<String[]> scaleSample(List<String[]> data) {
+    int scale = sampleScale;
+    if (scale <= 1) {
+      return data;
     }
+    List<String[]> scaled = new ArrayList<>(data.size() * scale);
+    for (String[] row : data) {
+      for (int i = 0; i < scale; i++) {
+        scaled.add(row);
+      }
+    }
+    return scaled;
   }
 
   /**
@@ -253,7 +1240,83 @@ public abstract class AbstractMockDriver implements IMockDriver {
   }
 
   @Override public void publishDriverStatus() {
-    discoveryPub.publish(getDriverStatus());
+    Object statusPublish = events.beginStatusPublish();
+    publishNow(discoveryPub, getDriverStatus());
+    events.endStatusPublish(statusPublish, lastSampleId);
+  }
+
+  /**
+   * Publishes a message through the traffic profile and records it in this driver's metrics
+   * All data published by a driver should go through this function
+   * @param publisher The publisher to use
+   * @param message The message to publish
+   * @param <T> The message type
+   */
+  protected <T> void publish(Publisher<T> publisher, T message) {
+    if (warmingUp) {
+      serializeForWarmUp(publisher, message);
+    } else if (trafficProfile.isEnabled()) {
+      trafficProfile.shape(publisher, message, trafficSink);
+    } else {
+      publishNow(publisher, message);
+    }
+  }
+
+  /**
+   * Publishes a message immediately and records it in this driver's metrics
+   * @param publisher The publisher to use
+   * @param message The message to publish
+   * @param <T> The message type
+   */
+  protected <T> void publishNow(Publisher<T> publisher, T message) {
+    if (warmingUp) {
+      serializeForWarmUp(publisher, message);
+      return;
+    }
+    Object publish = events.beginPublish();
+    long start = System.nanoTime();
+    publisher.publish(message);
+    long nanos = System.nanoTime() - start;
+    events.endPublish(publish, publisher, lastSampleId);
+    metrics.recordPublish(publisher, message, nanos);
+  }
+
+  /**
+   * Adds the diagnostics of this driver to a list of statuses
+   * Drivers with additional diagnostics should override this function and call it
+   * @param statuses The list to add to
+   * @param reset If true the tracked values are cleared so the next call only covers newer data
+   */
+  protected void addDiagnostics(List<diagnostic_msgs.DiagnosticStatus> statuses, boolean reset) {
+    DiagnosticStatusBuilder builder = new DiagnosticStatusBuilder(messageFactory,
+      getGraphName() + ": metrics", getGraphName().toString());
+    metrics.report(builder, reset);
+    if (trafficProfile.isEnabled()) {
+      trafficProfile.report(builder);
+    }
+    if (warmupNanos >= 0) {
+      builder.add("warmup ms", warmupNanos / 1e6);
+      builder.add("warmup ticks", warmupTicksRun);
+      builder.add("warmup tick us", warmupTickMicros);
+      builder.add("warmup steady", String.valueOf(warmupSteady));
+    }
+    String reason = degradedReason;
+    if (reason != null) {
+      builder.setLevel(diagnostic_msgs.DiagnosticStatus.WARN, reason);
+    }
+    statuses.add(builder.build());
+  }
+
+  /**
+   * Publishes the diagnostics of this driver covering the time since the last call
+   */
+  protected void publishDiagnostics() {
+    List<diagnostic_msgs.DiagnosticStatus> statuses = new ArrayList<>();
+    addDiagnostics(statuses, true);
+    diagnostic_msgs.DiagnosticArray diagnostics = diagnosticsPub.newMessage();
+    diagnostics.getHeader().setStamp(connectedNode.getCurrentTime());
+    diagnostics.setStatus(statuses);
+    diagnosticsPub.publish(diagnostics);
   }
 
   /**
@@ -273,12 +1336,98 @@ public abstract class AbstractMockDriver implements IMockDriver {
     return graphName;
   }
 
+  @Override public IVehicleStateSource getProvidedVehicleStateSource() {
+    return null;
+  }
+
+  @Override public void useVehicleStateSource(IVehicleStateSource source) {
+    if (publishesVehicleState()) {
+      vehicleStateSource = source;
+    }
+  }
+
+  /**
+   * Gets the name of a private service or topic of this driver
+   * @param name The name relative to this driver
+   * @return The private name
+   */
+  protected String privateName(String name) {
+    return instanceName.isEmpty() ? "~/" + name : "~/" + instanceName + "/" + name;
+  }
+
+  /**
+   * Gets the name of a topic or public service of this driver within its namespace
+   * Instances of the same driver type in one node use different namespaces to keep their topics apart
+   * @param name The name used by a single driver
+   * @return The name to advertise
+   */
+  protected String topicName(String name) {
+    return topicNamespace.isEmpty() ? name : topicNamespace + "/" + name;
+  }
+
+  /**
+   * Resolves the name of a private parameter of this driver
+   * Drivers which share a node use their own value if it is set and the node wide value otherwise
+   * @param name The parameter name relative to this driver
+   * @return The parameter name to read
+   */
+  protected String param(String name) {
+    if (!instanceName.isEmpty() && params.has(privateName(name))) {
+      return privateName(name);
+    }
+    return "~/" + name;
+  }
+
   /**
    * Publishes the provided data array
    * @param data The data to be published usually provided as a direct line from a data file
    */
   protected abstract void publishData(List<String[]> data);
 
+  /**
+   * Checks if a data line can be passed to publishData
+   * The default implementation requires exactly getExpectedColCount() elements, none of which are empty
+   * @param elements The elements of the data line
+   * @return True if the line is valid
+   */
+  protected boolean isValidRow(String[] elements) {
+    return elements.length == getExpectedColCount() && allSet(elements, 0, elements.length);
+  }
+
+  /**
+   * Checks that a range of elements of a data line have values
+   * Captured data files leave values which were not received empty
+   * @param elements The elements of the data line
+   * @param from The first element to check
+   * @param to The element after the last one to check
+   * @return True if none of the elements are empty
+   */
+  protected static boolean allSet(String[] elements, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (elements[i].isEmpty()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Checks if this driver can publish data derived from a vehicle state instead of a data file
+   * @return True if publishVehicleState is implemented
+   */
+  protected boolean publishesVehicleState() {
+    return false;
+  }
+
+  /**
+   * Publishes data derived from the provided vehicle state
+   * Drivers which return true from publishesVehicleState override this function. The default publishes nothing
+   * @param time The time the state was sampled at
+   * @param state The vehicle state
+   */
+  protected void publishVehicleState(Time time, VehicleState state) {
+  }
+
   /**
    * Gets the expected number of row elements in a data line
    * @return The number of expected elements
@@ -299,7 +1448,54 @@ public abstract class AbstractMockDriver implements IMockDriver {
 
   @Override public abstract List<String> getDriverAPI();
 
+  /**
+   * Gets the time until the next tick should start
+   * @return The delay in ms. 0 if the next tick is already due
+   */
   @Override public long getPublishDelay() {
-    return 100;
+    if (paused) {
+      return getPublishPeriodNanos() / 1000000;
+    }
+    if (replaysOnClock()) {
+      return 0; // readAndPublishData waits for the replay clock
+    }
+    if (nextTickNanos == 0) {
+      return getPublishPeriodNanos() / 1000000;
+    }
+    return Math.max(nextTickNanos - System.nanoTime(), 0L) / 1000000;
+  }
+
+  /**
+   * Gets the current tick period including bursts of the traffic profile
+   * @return The period in ns
+   */
+  protected long getPublishPeriodNanos() {
+    return (long) (1e9 / (getTickRate() * trafficProfile.getRateFactor()));
+  }
+
+  @Override public double getPhaseOffset() {
+    return phaseOffset;
+  }
+
+  @Override public double getPublishRate() {
+    return publishRate;
+  }
+
+  @Override public void setPublishRate(double rate) {
+    nominalPublishRate = rate;
+    publishRate = rate;
+    metrics.setTargetRate(getTickRate());
+  }
+
+  @Override public int getSampleScale() {
+    return sampleScale;
+  }
+
+  @Override public void setSampleScale(int scale) {
+    sampleScale = Math.max(scale, 1);
+  }
+
+  @Override public DriverMetrics getMetrics() {
+    return metrics;
   }
 }
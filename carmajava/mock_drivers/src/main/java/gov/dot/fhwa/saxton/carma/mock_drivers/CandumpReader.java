@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the frames of a candump log file as written by candump -l.
+ * <p>
+ * Each line has the form "(1436509052.249713) can0 123#DEADBEEF". Ids of more than three hex digits are extended
+ * ids and are returned with bit 31 set as in a DBC file. The data is returned as a long with its first byte in the
+ * lowest 8 bits. Remote frames, CAN FD frames and lines which cannot be parsed are skipped and counted.
+ * Lines are parsed in place from a reused read buffer so reading a frame does not allocate.
+ */
+public class CandumpReader implements TimedLogReader {
+  static final int READ_BUFFER_SIZE = 1 << 16;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+  private final byte[] bytes = buffer.array();
+  private int position = 0;
+  private int limit = 0;
+  private boolean endOfFile = false;
+  private long skippedLines = 0;
+
+  // The current frame
+  private long time; // us
+  private int id;
+  private int length;
+  private long data;
+
+  /**
+   * Constructor
+   *
+   * @param path The path to the log file
+   * @throws IOException If the file could not be opened
+   */
+  public CandumpReader(String path) throws IOException {
+    channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+  }
+
+  /**
+   * Moves to the next frame
+   * @return False at the end of the file
+   * @throws IOException If the file could not be read
+   */
+  @Override public boolean next() throws IOException {
+    while (true) {
+      int end = findLineEnd();
+      if (end < 0) {
+        return false;
+      }
+      int start = position;
+      position = end + 1;
+      if (parseLine(start, end)) {
+        return true;
+      }
+      if (end > start) {
+        skippedLines++;
+      }
+    }
+  }
+
+  /**
+   * Moves back to the start of the file
+   * @throws IOException If the file could not be read
+   */
+  @Override public void rewind() throws IOException {
+    channel.position(0);
+    position = 0;
+    limit = 0;
+    endOfFile = false;
+  }
+
+  /**
+   * @return The time of the current frame in us
+   */
+  @Override public long getTime() {
+    return time;
+  }
+
+  /**
+   * @return The id of the current frame with bit 31 set for an extended id
+   */
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * @return The number of data bytes of the current frame
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * @return The data of the current frame with its first byte in the lowest 8 bits
+   */
+  public long getData() {
+    return data;
+  }
+
+  /**
+   * @return The number of lines which were not frames
+   */
+  public long getSkippedLines() {
+    return skippedLines;
+  }
+
+  @Override public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Finds the end of the next line, reading more of the file when the line is incomplete
+   * @return The index of the line break or of the end of the last line. -1 if no line is left
+   */
+  private int findLineEnd() throws IOException {
+    int scanned = position;
+    while (true) {
+      for (int i = scanned; i < limit; i++) {
+        if (bytes[i] == '\n') {
+          return i;
+        }
+      }
+      if (endOfFile) {
+        if (position < limit) {
+          bytes[limit] = '\n'; // The last line has no line break. Room is kept for it when reading
+          return limit++;
+        }
+        return -1;
+      }
+      // Keep the partial line and read more after it
+      int partial = limit - position;
+      if (partial >= bytes.length - 1) {
+        position = limit; // Drop a line longer than the buffer
+        partial = 0;
+        skippedLines++;
+      }
+      System.arraycopy(bytes, position, bytes, 0, partial);
+      scanned = partial;
+      position = 0;
+      limit = partial;
+      buffer.clear();
+      buffer.position(limit);
+      buffer.limit(bytes.length - 1);
+      int read = channel.read(buffer);
+      if (read < 0) {
+        endOfFile = true;
+      } else {
+        limit += read;
+      }
+    }
+  }
+
+  /**
+   * Parses a line into the current frame
+   * @return False if the line is not a classic CAN data frame
+   */
+  private boolean parseLine(int start, int end) {
+    int i = skipSpaces(start, end);
+    if (i >= end || bytes[i] != '(') {
+      return false;
+    }
+    // Timestamp in s with up to 6 fractional digits
+    long seconds = 0;
+    for (i++; i < end && isDigit(bytes[i]); i++) {
+      seconds = seconds * 10 + (bytes[i] - '0');
+    }
+    long micros = 0;
+    int digits = 0;
+    if (i < end && bytes[i] == '.') {
+      for (i++; i < end && isDigit(bytes[i]); i++) {
+        if (digits < 6) {
+          micros = micros * 10 + (bytes[i] - '0');
+          digits++;
+        }
+      }
+    }
+    for (; digits < 6; digits++) {
+      micros *= 10;
+    }
+    if (i >= end || bytes[i] != ')') {
+      return false;
+    }
+    // Interface name
+    i = skipSpaces(i + 1, end);
+    while (i < end && bytes[i] != ' ' && bytes[i] != '\t') {
+      i++;
+    }
+    i = skipSpaces(i, end);
+    // Id
+    int idStart = i;
+    long frameId = 0;
+    int value;
+    while (i < end && (value = hexValue(bytes[i])) >= 0) {
+      frameId = (frameId << 4) | value;
+      i++;
+    }
+    int idDigits = i - idStart;
+    if (idDigits == 0 || idDigits > 8 || i >= end || bytes[i] != '#') {
+      return false;
+    }
+    i++;
+    if (i < end && (bytes[i] == 'R' || bytes[i] == '#')) {
+      return false; // Remote or CAN FD frame
+    }
+    // Data
+    long frameData = 0;
+    int frameLength = 0;
+    while (i + 1 < end && frameLength < 8) {
+      int high = hexValue(bytes[i]);
+      int low = hexValue(bytes[i + 1]);
+      if (high < 0 || low < 0) {
+        break;
+      }
+      frameData |= (long) ((high << 4) | low) << (8 * frameLength);
+      frameLength++;
+      i += 2;
+    }
+    i = skipSpaces(i, end);
+    if (i < end && bytes[i] != '\r') {
+      return false;
+    }
+    time = seconds * 1000000 + micros;
+    id = idDigits > 3 ? (int) frameId | DbcDecoder.EXTENDED_ID_FLAG : (int) frameId;
+    length = frameLength;
+    data = frameData;
+    return true;
+  }
+
+  private int skipSpaces(int i, int end) {
+    while (i < end && (bytes[i] == ' ' || bytes[i] == '\t')) {
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean isDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  private static int hexValue(byte b) {
+    if (b >= '0' && b <= '9') {
+      return b - '0';
+    } else if (b >= 'A' && b <= 'F') {
+      return b - 'A' + 10;
+    } else if (b >= 'a' && b <= 'f') {
+      return b - 'a' + 10;
+    }
+    return -1;
+  }
+}
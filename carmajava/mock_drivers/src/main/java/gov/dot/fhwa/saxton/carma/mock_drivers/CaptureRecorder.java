@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.ros.message.MessageListener;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Subscriber;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records the topics of a real driver into a data file which the matching mock driver can replay.
+ * <p>
+ * A recorder keeps one row in the column layout of its mock driver. Subscriber callbacks copy the latest value of
+ * each field into the row and the arrival of the recorder's trigger topic writes the row as a new sample group.
+ * Columns whose topic has not been received yet, and columns the recorder cannot fill, are written empty so a
+ * capture never claims values which were not seen. The mock drivers skip rows with an empty value in a column
+ * they parse. Recorders of drivers with several rows per sample group build those rows and write them with
+ * writeGroup.
+ * Callbacks of different topics may run concurrently so they must only change the row through set, writeRow and
+ * writeGroup.
+ */
+public abstract class CaptureRecorder {
+  protected final ConnectedNode connectedNode;
+  protected final String namespace;
+  private final CaptureWriter writer;
+  private final String[] row;
+  private final int sampleIdIdx;
+  private final StringBuilder line = new StringBuilder(256);
+  private final List<Subscriber<?>> subscribers = new ArrayList<>();
+  private int sampleId = 0;
+
+  /**
+   * Constructor
+   *
+   * @param connectedNode The node used to subscribe
+   * @param namespace The namespace of the recorded driver's topics. Empty for none
+   * @param writer The writer of the capture file
+   * @param columnCount The number of columns of the mock driver's data file
+   * @param sampleIdIdx The column of the sample id
+   */
+  protected CaptureRecorder(ConnectedNode connectedNode, String namespace, CaptureWriter writer, int columnCount,
+    int sampleIdIdx) {
+    this.connectedNode = connectedNode;
+    this.namespace = namespace;
+    this.writer = writer;
+    this.row = new String[columnCount];
+    this.sampleIdIdx = sampleIdIdx;
+    Arrays.fill(row, "");
+  }
+
+  /**
+   * Subscribes to the recorded topics
+   */
+  public abstract void start();
+
+  /**
+   * Subscribes to one topic of the recorded driver
+   * @param topic The topic name used by a single driver
+   * @param messageType The message type
+   * @param listener The callback
+   * @param <T> The message type
+   */
+  protected <T> void subscribe(String topic, String messageType, MessageListener<T> listener) {
+    Subscriber<T> subscriber = connectedNode.newSubscriber(namespace.isEmpty() ? topic : namespace + "/" + topic,
+      messageType);
+    subscriber.addMessageListener(listener);
+    subscribers.add(subscriber);
+  }
+
+  /**
+   * Sets a column of the current row
+   * @param column The column
+   * @param value The value
+   */
+  protected synchronized void set(int column, Object value) {
+    row[column] = String.valueOf(value);
+  }
+
+  /**
+   * Sets a boolean column of the current row in the TRUE and FALSE form used by the data files
+   * @param column The column
+   * @param value The value
+   */
+  protected synchronized void set(int column, boolean value) {
+    row[column] = value ? "TRUE" : "FALSE";
+  }
+
+  /**
+   * Sets consecutive columns of the current row from an array
+   * @param firstColumn The column of the first value
+   * @param values The values
+   */
+  protected synchronized void set(int firstColumn, double[] values) {
+    for (int i = 0; i < values.length; i++) {
+      row[firstColumn + i] = Double.toString(values[i]);
+    }
+  }
+
+  /**
+   * Writes the current row as a new sample group
+   */
+  protected synchronized void writeRow() {
+    row[sampleIdIdx] = Integer.toString(sampleId++);
+    writeLine(row);
+  }
+
+  /**
+   * Writes rows built by the recorder as one new sample group instead of the current row
+   * Used by drivers whose sample groups hold a row per detected object
+   * @param rows The rows of the sample group. Their sample id column is overwritten
+   */
+  protected synchronized void writeGroup(List<String[]> rows) {
+    String id = Integer.toString(sampleId++);
+    for (String[] groupRow : rows) {
+      groupRow[sampleIdIdx] = id;
+      writeLine(groupRow);
+    }
+  }
+
+  /**
+   * Joins the columns of a row and queues it for the capture file
+   * @param columns The columns of the row
+   */
+  private void writeLine(String[] columns) {
+    line.setLength(0);
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) {
+        line.append(',');
+      }
+      line.append(columns[i]);
+    }
+    writer.write(line.toString());
+  }
+
+  /**
+   * Stops recording and closes the capture file
+   * @throws InterruptedException If interrupted while the remaining lines are written
+   */
+  public void shutdown() throws InterruptedException {
+    for (Subscriber<?> subscriber : subscribers) {
+      subscriber.shutdown();
+    }
+    writer.close();
+  }
+
+  public CaptureWriter getWriter() {
+    return writer;
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.apache.commons.logging.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the lines of a capture file on a background thread.
+ * <p>
+ * write only offers the line to a bounded queue so callers such as subscriber callbacks are never blocked by the
+ * disk. The writer thread drains the queue in batches into a direct buffer which is written to a FileChannel when
+ * it fills or the queue is empty, so a busy recording costs one write call per batch rather than one per line.
+ * Lines offered while the queue is full are dropped and counted.
+ */
+public class CaptureWriter implements Runnable {
+  static final int BUFFER_SIZE = 1 << 16;
+  static final int MAX_BATCH = 1024;
+  static final long IDLE_POLL = 100; // ms
+
+  private final Path path;
+  private final Log log;
+  private final FileChannel channel;
+  private final BlockingQueue<String> queue;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final List<String> batch = new ArrayList<>(MAX_BATCH);
+  private final AtomicLong writtenLines = new AtomicLong();
+  private final AtomicLong droppedLines = new AtomicLong();
+  private final Thread thread;
+  private volatile boolean closed = false;
+
+  /**
+   * Constructor. Creates or truncates the file, writes the header and starts the writer thread
+   *
+   * @param path The capture file
+   * @param header The header line
+   * @param capacity The number of lines which may wait to be written
+   * @param log The log used to report write failures
+   * @throws IOException If the file could not be opened
+   */
+  public CaptureWriter(Path path, String header, int capacity, Log log) throws IOException {
+    this.path = path;
+    this.log = log;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+      StandardOpenOption.TRUNCATE_EXISTING);
+    queue.add(header);
+    thread = new Thread(this, "capture_writer " + path.getFileName());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Queues a line without blocking
+   * @param line The line without a line break
+   * @return False if the queue was full and the line was dropped
+   */
+  public boolean write(String line) {
+    if (closed || !queue.offer(line)) {
+      droppedLines.incrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  public long getWrittenLines() {
+    return writtenLines.get();
+  }
+
+  public long getDroppedLines() {
+    return droppedLines.get();
+  }
+
+  @Override public void run() {
+    boolean interrupted = false;
+    try {
+      while (!closed || !queue.isEmpty()) {
+        String first = queue.poll(IDLE_POLL, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        append(first);
+        writtenLines.incrementAndGet();
+        writeBatch();
+        if (queue.isEmpty()) {
+          flush();
+        }
+      }
+    } catch (InterruptedException e) {
+      // Stop taking lines but still write the queued ones. The interrupt status was cleared by the exception so
+      // the interruptible channel is not closed by the writes below
+      interrupted = true;
+      closed = true;
+    } catch (IOException e) {
+      stopAfterFailure(e);
+      return;
+    }
+    try {
+      while (!queue.isEmpty()) {
+        writeBatch();
+      }
+      flush();
+      channel.force(false);
+    } catch (IOException e) {
+      stopAfterFailure(e);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void writeBatch() throws IOException {
+    queue.drainTo(batch, MAX_BATCH);
+    for (String line : batch) {
+      append(line);
+    }
+    writtenLines.addAndGet(batch.size());
+    batch.clear();
+  }
+
+  private void stopAfterFailure(IOException e) {
+    closed = true;
+    log.warn("Capture " + path + " stopped after a write failure " + e.getMessage());
+  }
+
+  private void append(String line) throws IOException {
+    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length + 1 > buffer.remaining()) {
+      flush();
+    }
+    if (bytes.length + 1 > buffer.capacity()) {
+      ByteBuffer large = ByteBuffer.allocate(bytes.length + 1);
+      large.put(bytes).put((byte) '\n').flip();
+      writeFully(large);
+      return;
+    }
+    buffer.put(bytes).put((byte) '\n');
+  }
+
+  private void flush() throws IOException {
+    buffer.flip();
+    writeFully(buffer);
+    buffer.clear();
+  }
+
+  private void writeFully(ByteBuffer data) throws IOException {
+    while (data.hasRemaining()) {
+      channel.write(data);
+    }
+  }
+
+  /**
+   * Writes the queued lines, forces them to the disk and closes the file
+   * If interrupted while waiting, the writer thread is interrupted so it writes the queued lines without waiting
+   * for more and the file is still closed once it has finished
+   * @throws InterruptedException If interrupted while waiting for the writer thread
+   */
+  public void close() throws InterruptedException {
+    closed = true;
+    InterruptedException interruption = null;
+    while (thread.isAlive()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        interruption = e;
+        thread.interrupt();
+      }
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      log.warn("Could not close capture " + path + " " + e.getMessage());
+    }
+    if (interruption != null) {
+      throw interruption;
+    }
+  }
+}
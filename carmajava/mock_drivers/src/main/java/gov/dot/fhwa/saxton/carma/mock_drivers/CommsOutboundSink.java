@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import cav_msgs.ByteArray;
+import org.ros.message.MessageListener;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Receives the outbound V2X messages of the platform in place of a radio.
+ * <p>
+ * The number of messages and content bytes is counted per message type and the queueing delay between the header
+ * stamp set by the sender and the arrival at the sink is tracked in a histogram. Nothing is formatted per message
+ * so the sink keeps up with the outbound load it is measuring.
+ * When a loopback profile is set each outbound message is also published on the inbound topic through that profile,
+ * which adds the configured latency and loss, so a single vehicle stack receives its own messages as a remote
+ * vehicle would. Looped back messages keep the header of the outbound message so the round trip can be measured
+ * from its stamp.
+ */
+public class CommsOutboundSink implements MessageListener<ByteArray> {
+
+  private static class TypeCounters {
+    final AtomicLong messages = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+  }
+
+  private final ConnectedNode connectedNode;
+  private final ConcurrentMap<String, TypeCounters> types = new ConcurrentHashMap<>();
+  private final MessageLatencyTracker queueDelay = new MessageLatencyTracker();
+  private final AtomicLong loopedBack = new AtomicLong();
+  private Publisher<ByteArray> loopbackPub = null;
+  private TrafficProfile loopbackProfile = null;
+  private TrafficProfile.Sink loopbackSink = null;
+
+  /**
+   * Constructor
+   *
+   * @param connectedNode The node used for the current ROS time
+   */
+  public CommsOutboundSink(ConnectedNode connectedNode) {
+    this.connectedNode = connectedNode;
+  }
+
+  /**
+   * Enables the loopback of outbound messages
+   * Must be called before the sink receives messages
+   * @param publisher The inbound publisher
+   * @param profile The latency and loss applied to looped back messages
+   * @param sink The destination of the looped back messages which pass the profile
+   * @return This sink
+   */
+  public CommsOutboundSink setLoopback(Publisher<ByteArray> publisher, TrafficProfile profile,
+    TrafficProfile.Sink sink) {
+    loopbackPub = publisher;
+    loopbackProfile = profile;
+    loopbackSink = sink;
+    return this;
+  }
+
+  @Override public void onNewMessage(ByteArray outbound) {
+    queueDelay.record(outbound.getHeader().getStamp(), connectedNode.getCurrentTime(), System.nanoTime());
+    TypeCounters counters = types.get(outbound.getMessageType());
+    if (counters == null) {
+      types.putIfAbsent(outbound.getMessageType(), new TypeCounters());
+      counters = types.get(outbound.getMessageType());
+    }
+    counters.messages.incrementAndGet();
+    counters.bytes.addAndGet(outbound.getContent().readableBytes());
+
+    if (loopbackPub != null) {
+      ByteArray inbound = loopbackPub.newMessage();
+      inbound.setHeader(outbound.getHeader());
+      inbound.setMessageType(outbound.getMessageType());
+      inbound.setContent(outbound.getContent().duplicate());
+      loopedBack.incrementAndGet();
+      loopbackProfile.shape(loopbackPub, inbound, loopbackSink);
+    }
+  }
+
+  /**
+   * Adds the message and byte counts of each type, the queueing delay and the loopback counts to a diagnostic status
+   * @param builder The status builder
+   * @param reset If true the delay histograms are cleared so the next report only covers newer messages
+   * @return The queueing delay snapshot which was reported
+   */
+  public LatencyHistogram.Snapshot report(DiagnosticStatusBuilder builder, boolean reset) {
+    LatencyHistogram.Snapshot delay = queueDelay.report(builder, reset);
+    for (Map.Entry<String, TypeCounters> type : new TreeMap<>(types).entrySet()) {
+      builder.add(type.getKey() + " messages", type.getValue().messages.get());
+      builder.add(type.getKey() + " bytes", type.getValue().bytes.get());
+    }
+    if (loopbackPub != null) {
+      builder.add("looped back", loopedBack.get());
+      loopbackProfile.report(builder);
+    }
+    return delay;
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.apache.commons.logging.Log;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a data file on a background thread and calls a listener after it changes.
+ * <p>
+ * Editors and copies usually write a file in several steps, so the listener is only called once no further change
+ * has been seen for quietPeriod ms. The directory of the file is watched so files which are replaced by a rename
+ * or created after the driver started are also seen.
+ */
+public class DataFileWatcher implements Runnable {
+  private final Path file;
+  private final long quietPeriod; // ms
+  private final Runnable listener;
+  private final Log log;
+  private volatile WatchService watchService = null;
+  private volatile boolean closed = false;
+
+  /**
+   * Constructor
+   *
+   * @param filePath The file to watch
+   * @param quietPeriod The time without changes after which the listener is called in ms
+   * @param listener The listener called on the watcher thread
+   * @param log The log used to report watch failures
+   */
+  public DataFileWatcher(String filePath, long quietPeriod, Runnable listener, Log log) {
+    this.file = Paths.get(filePath).toAbsolutePath();
+    this.quietPeriod = quietPeriod;
+    this.listener = listener;
+    this.log = log;
+  }
+
+  /**
+   * Starts watching on a new daemon thread
+   */
+  public void start() {
+    Thread thread = new Thread(this, "data_file_watcher " + file.getFileName());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override public void run() {
+    try (WatchService service = FileSystems.getDefault().newWatchService()) {
+      watchService = service;
+      if (closed) {
+        return;
+      }
+      file.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+      while (!closed) {
+        if (!isFileChange(service.take())) {
+          continue;
+        }
+        WatchKey key;
+        while ((key = service.poll(quietPeriod, TimeUnit.MILLISECONDS)) != null) {
+          isFileChange(key);
+        }
+        listener.run();
+      }
+    } catch (ClosedWatchServiceException | InterruptedException e) {
+      // Closed
+    } catch (IOException e) {
+      log.warn("Could not watch " + file + " for changes. It will only be reloaded on request " + e.getMessage());
+    }
+  }
+
+  /**
+   * Checks the events of a key for a change to the watched file and resets the key
+   */
+  private boolean isFileChange(WatchKey key) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+        changed = true;
+      }
+    }
+    key.reset();
+    return changed;
+  }
+
+  /**
+   * Stops watching
+   */
+  public void close() {
+    closed = true;
+    WatchService service = watchService;
+    if (service != null) {
+      try {
+        service.close();
+      } catch (IOException e) {
+        log.warn("Could not close the watcher of " + file + " " + e.getMessage());
+      }
+    }
+  }
+}
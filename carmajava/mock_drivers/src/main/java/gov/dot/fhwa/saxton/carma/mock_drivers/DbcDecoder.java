@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decodes selected signals of classic CAN frames with the message and signal definitions of a DBC file.
+ * <p>
+ * compile reads the BO_ and SG_ lines of the file once and keeps only the messages holding a selected signal.
+ * Each kept signal becomes a row of primitive tables holding the shift and mask which extract its raw value from the
+ * 64 bit frame data, so decode only does a binary search for the frame id and a shift, mask, multiply and add per
+ * signal without allocating. Intel signals are extracted from the data as a little endian word and Motorola signals
+ * from the same data with its bytes reversed. Signals of a multiplexed message are only decoded when the message's
+ * multiplexer has their value.
+ * Frame ids use the DBC form in which bit 31 marks an extended id.
+ */
+public class DbcDecoder {
+  static final int EXTENDED_ID_FLAG = 0x80000000;
+  private static final Pattern MESSAGE = Pattern.compile("^\\s*BO_\\s+(\\d+)\\s+(\\w+)\\s*:");
+  private static final Pattern SIGNAL = Pattern.compile(
+    "^\\s*SG_\\s+(\\w+)\\s*(M|m\\d+)?\\s*:\\s*(\\d+)\\|(\\d+)@([01])([+-])\\s*\\(([^,]+),([^)]+)\\)");
+
+  // One row per kept message sorted by id
+  private final int[] messageIds;
+  private final int[] firstSignals;
+  private final int[] signalCounts;
+  private final int[] multiplexers; // The signal holding the multiplexer value. -1 if not multiplexed
+
+  // One row per kept signal
+  private final int[] shifts;
+  private final long[] masks;
+  private final boolean[] motorola;
+  private final boolean[] signed;
+  private final double[] factors;
+  private final double[] offsets;
+  private final int[] columns; // The output column. -1 for a multiplexer which is not selected
+  private final long[] multiplexValues; // The multiplexer value the signal is sent with. -1 if always sent
+
+  private static class SignalDef {
+    String name;
+    int start;
+    int length;
+    boolean motorola;
+    boolean signed;
+    double factor;
+    double offset;
+    boolean multiplexer;
+    long multiplexValue = -1;
+    int column = -1;
+  }
+
+  private static class MessageDef {
+    int id;
+    String name;
+    List<SignalDef> signals = new ArrayList<>();
+  }
+
+  private DbcDecoder(List<MessageDef> messages) {
+    int signalTotal = 0;
+    for (MessageDef message : messages) {
+      signalTotal += message.signals.size();
+    }
+    messageIds = new int[messages.size()];
+    firstSignals = new int[messages.size()];
+    signalCounts = new int[messages.size()];
+    multiplexers = new int[messages.size()];
+    shifts = new int[signalTotal];
+    masks = new long[signalTotal];
+    motorola = new boolean[signalTotal];
+    signed = new boolean[signalTotal];
+    factors = new double[signalTotal];
+    offsets = new double[signalTotal];
+    columns = new int[signalTotal];
+    multiplexValues = new long[signalTotal];
+
+    int s = 0;
+    for (int m = 0; m < messages.size(); m++) {
+      MessageDef message = messages.get(m);
+      messageIds[m] = message.id;
+      firstSignals[m] = s;
+      signalCounts[m] = message.signals.size();
+      multiplexers[m] = -1;
+      for (SignalDef signal : message.signals) {
+        if (signal.multiplexer) {
+          multiplexers[m] = s;
+        }
+        if (signal.motorola) {
+          // The start bit is the most significant bit in the sawtooth numbering of the DBC format
+          int msb = (signal.start / 8) * 8 + (7 - signal.start % 8);
+          shifts[s] = 63 - (msb + signal.length - 1);
+        } else {
+          shifts[s] = signal.start;
+        }
+        masks[s] = signal.length >= 64 ? -1L : (1L << signal.length) - 1;
+        motorola[s] = signal.motorola;
+        signed[s] = signal.signed;
+        factors[s] = signal.factor;
+        offsets[s] = signal.offset;
+        columns[s] = signal.column;
+        multiplexValues[s] = signal.multiplexValue;
+        s++;
+      }
+    }
+  }
+
+  /**
+   * Compiles the decoding tables of selected signals
+   * @param path The path to the DBC file
+   * @param signalColumns The output column of each selected signal by signal name or message.signal name
+   * @param signalScales A factor applied to the physical value of a selected signal. Signals without one use 1
+   * @return The decoder
+   * @throws IOException If the file could not be read or a selected signal is not defined in it
+   */
+  public static DbcDecoder compile(String path, Map<String, Integer> signalColumns, Map<String, Double> signalScales)
+    throws IOException {
+    List<MessageDef> messages = new ArrayList<>();
+    MessageDef current = null;
+    try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.ISO_8859_1)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        Matcher messageMatch = MESSAGE.matcher(line);
+        if (messageMatch.find()) {
+          current = new MessageDef();
+          current.id = (int) Long.parseLong(messageMatch.group(1));
+          current.name = messageMatch.group(2);
+          messages.add(current);
+          continue;
+        }
+        Matcher signalMatch = SIGNAL.matcher(line);
+        if (signalMatch.find() && current != null) {
+          SignalDef signal = new SignalDef();
+          signal.name = signalMatch.group(1);
+          String multiplex = signalMatch.group(2);
+          signal.multiplexer = "M".equals(multiplex);
+          if (multiplex != null && !signal.multiplexer) {
+            signal.multiplexValue = Long.parseLong(multiplex.substring(1));
+          }
+          signal.start = Integer.parseInt(signalMatch.group(3));
+          signal.length = Integer.parseInt(signalMatch.group(4));
+          signal.motorola = signalMatch.group(5).equals("0");
+          signal.signed = signalMatch.group(6).equals("-");
+          signal.factor = Double.parseDouble(signalMatch.group(7).trim());
+          signal.offset = Double.parseDouble(signalMatch.group(8).trim());
+          current.signals.add(signal);
+        }
+      }
+    }
+
+    // Assign the selected signals to their columns and keep the messages they are sent in
+    Map<String, Integer> unresolved = new HashMap<>(signalColumns);
+    List<MessageDef> kept = new ArrayList<>();
+    for (MessageDef message : messages) {
+      List<SignalDef> keptSignals = new ArrayList<>();
+      boolean selected = false;
+      for (SignalDef signal : message.signals) {
+        String qualified = message.name + "." + signal.name;
+        String key = null;
+        if (signalColumns.containsKey(qualified)) {
+          key = qualified;
+        } else if (unresolved.containsKey(signal.name)) {
+          key = signal.name; // An unqualified name selects the first message sending the signal
+        }
+        if (key != null) {
+          signal.column = signalColumns.get(key);
+          Double scale = signalScales.get(key);
+          if (scale != null) {
+            signal.factor *= scale;
+            signal.offset *= scale;
+          }
+          unresolved.remove(key);
+          selected = true;
+        }
+        if (signal.column >= 0 || signal.multiplexer) {
+          keptSignals.add(signal);
+        }
+      }
+      if (selected) {
+        message.signals = keptSignals;
+        kept.add(message);
+      }
+    }
+    if (!unresolved.isEmpty()) {
+      throw new IOException("Signals " + unresolved.keySet() + " are not defined in " + path);
+    }
+    MessageDef[] sorted = kept.toArray(new MessageDef[0]);
+    Arrays.sort(sorted, new Comparator<MessageDef>() {
+      @Override public int compare(MessageDef a, MessageDef b) {
+        return Integer.compare(a.id, b.id);
+      }
+    });
+    return new DbcDecoder(Arrays.asList(sorted));
+  }
+
+  /**
+   * Decodes the selected signals of a frame
+   * @param id The frame id with bit 31 set for an extended id
+   * @param data The frame data with its first byte in the lowest 8 bits
+   * @param values The values indexed by column. Only the columns of the decoded signals are written
+   * @param decoded Set to true for the columns of the decoded signals
+   * @return The number of decoded signals. 0 if the frame holds no selected signal
+   */
+  public int decode(int id, long data, double[] values, boolean[] decoded) {
+    int m = Arrays.binarySearch(messageIds, id);
+    if (m < 0) {
+      return 0;
+    }
+    long swapped = Long.reverseBytes(data);
+    long multiplexValue = multiplexers[m] >= 0 ? raw(multiplexers[m], data, swapped) : -1;
+    int count = 0;
+    int end = firstSignals[m] + signalCounts[m];
+    for (int s = firstSignals[m]; s < end; s++) {
+      if (columns[s] < 0 || (multiplexValues[s] >= 0 && multiplexValues[s] != multiplexValue)) {
+        continue;
+      }
+      values[columns[s]] = raw(s, data, swapped) * factors[s] + offsets[s];
+      decoded[columns[s]] = true;
+      count++;
+    }
+    return count;
+  }
+
+  private long raw(int s, long data, long swapped) {
+    long value = ((motorola[s] ? swapped : data) >>> shifts[s]) & masks[s];
+    if (signed[s] && masks[s] != -1L && (value & ~(masks[s] >>> 1)) != 0) {
+      value |= ~masks[s]; // Sign extend
+    }
+    return value;
+  }
+
+  /**
+   * @return The number of messages holding a selected signal
+   */
+  public int getMessageCount() {
+    return messageIds.length;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import diagnostic_msgs.DiagnosticStatus;
+import diagnostic_msgs.KeyValue;
+import org.ros.message.MessageFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helper for building diagnostic_msgs/DiagnosticStatus messages
+ */
+public class DiagnosticStatusBuilder {
+  static final double NS_PER_MS = 1e6;
+
+  private final MessageFactory messageFactory;
+  private final DiagnosticStatus status;
+  private final List<KeyValue> values = new ArrayList<>();
+
+  /**
+   * Constructor
+   *
+   * @param messageFactory The factory used to create messages
+   * @param name The name of the status
+   * @param hardwareId The hardware id of the status
+   */
+  public DiagnosticStatusBuilder(MessageFactory messageFactory, String name, String hardwareId) {
+    this.messageFactory = messageFactory;
+    status = messageFactory.newFromType(DiagnosticStatus._TYPE);
+    status.setName(name);
+    status.setHardwareId(hardwareId);
+    status.setLevel(DiagnosticStatus.OK);
+    status.setMessage("OK");
+  }
+
+  public DiagnosticStatusBuilder setLevel(byte level, String message) {
+    status.setLevel(level);
+    status.setMessage(message);
+    return this;
+  }
+
+  public DiagnosticStatusBuilder add(String key, String value) {
+    KeyValue keyValue = messageFactory.newFromType(KeyValue._TYPE);
+    keyValue.setKey(key);
+    keyValue.setValue(value);
+    values.add(keyValue);
+    return this;
+  }
+
+  public DiagnosticStatusBuilder add(String key, long value) {
+    return add(key, Long.toString(value));
+  }
+
+  public DiagnosticStatusBuilder add(String key, double value) {
+    return add(key, String.format("%.3f", value));
+  }
+
+  /**
+   * Adds the count, mean, percentiles and max of a histogram snapshot in ms
+   * @param prefix The prefix of each key
+   * @param snapshot The histogram snapshot
+   * @return This builder
+   */
+  public DiagnosticStatusBuilder addHistogram(String prefix, LatencyHistogram.Snapshot snapshot) {
+    add(prefix + " count", snapshot.getCount());
+    add(prefix + " mean (ms)", snapshot.getMean() / NS_PER_MS);
+    add(prefix + " p50 (ms)", snapshot.getPercentile(0.5) / NS_PER_MS);
+    add(prefix + " p90 (ms)", snapshot.getPercentile(0.9) / NS_PER_MS);
+    add(prefix + " p99 (ms)", snapshot.getPercentile(0.99) / NS_PER_MS);
+    add(prefix + " p99.9 (ms)", snapshot.getPercentile(0.999) / NS_PER_MS);
+    add(prefix + " max (ms)", snapshot.getMax() / NS_PER_MS);
+    return this;
+  }
+
+  public DiagnosticStatus build() {
+    status.setValues(values);
+    return status;
+  }
+}
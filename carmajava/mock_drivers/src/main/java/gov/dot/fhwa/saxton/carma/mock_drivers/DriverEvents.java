@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.ros.node.topic.Publisher;
+
+/**
+ * Marks the phases of a driver's ticks for a profiler.
+ * <p>
+ * Each begin function returns an event which is passed to the matching end or commit function. Events which are not
+ * recorded are null. This class records nothing, so its empty functions are inlined away when the JVM has no
+ * JDK Flight Recorder. forDriver returns FlightRecorderEvents when it is available.
+ * Events are not shared between threads, so publishing from several threads is safe.
+ */
+public class DriverEvents {
+  private static final String FLIGHT_RECORDER_EVENTS = "gov.dot.fhwa.saxton.carma.mock_drivers.FlightRecorderEvents";
+  static final DriverEvents NONE = new DriverEvents();
+
+  /**
+   * Gets the events of a driver
+   * The Flight Recorder events are loaded by name so this class also links on JVMs without jdk.jfr
+   * @param driverName The name recorded with each event
+   * @return The events
+   */
+  public static DriverEvents forDriver(String driverName) {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return (DriverEvents) Class.forName(FLIGHT_RECORDER_EVENTS).getConstructor(String.class)
+        .newInstance(driverName);
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return NONE;
+    }
+  }
+
+  public Object beginTick() {
+    return null;
+  }
+
+  /**
+   * @param tick The event returned by beginTick
+   * @param sampleId The sample id of the last group read in the tick
+   */
+  public void endTick(Object tick, int sampleId) {
+  }
+
+  /**
+   * Records a tick which took longer than the tick period
+   * @param sampleId The sample id of the last group read in the tick
+   * @param duration The duration of the tick in ns
+   * @param period The tick period in ns
+   */
+  public void deadlineMiss(int sampleId, long duration, long period) {
+  }
+
+  public Object beginFileRead() {
+    return null;
+  }
+
+  public Object beginRowParse() {
+    return null;
+  }
+
+  /**
+   * Ends the timing of a file read or row parse. It is recorded by commitRow
+   * @param event The event returned by beginFileRead or beginRowParse
+   */
+  public void end(Object event) {
+  }
+
+  /**
+   * Records the read and parse of a data file row
+   * @param fileRead The event returned by beginFileRead
+   * @param rowParse The event returned by beginRowParse
+   * @param sampleId The sample id of the row. -1 if the row is not valid
+   */
+  public void commitRow(Object fileRead, Object rowParse, int sampleId) {
+  }
+
+  public Object beginPublish() {
+    return null;
+  }
+
+  /**
+   * @param publish The event returned by beginPublish
+   * @param publisher The publisher of the message
+   * @param sampleId The sample id of the last group read by the driver
+   */
+  public void endPublish(Object publish, Publisher<?> publisher, int sampleId) {
+  }
+
+  public Object beginStatusPublish() {
+    return null;
+  }
+
+  /**
+   * @param statusPublish The event returned by beginStatusPublish
+   * @param sampleId The sample id of the last group read by the driver
+   */
+  public void endStatusPublish(Object statusPublish, int sampleId) {
+  }
+}
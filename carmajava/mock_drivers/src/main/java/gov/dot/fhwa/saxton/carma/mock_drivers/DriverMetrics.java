@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.message.MessageSerializationFactory;
+import org.ros.message.MessageSerializer;
+import org.ros.node.topic.Publisher;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hot path metrics of a mock driver.
+ * <p>
+ * Each call to readAndPublishData is a tick. The time spent reading the data file, parsing rows,
+ * building messages and publishing them is summed over a tick and recorded in fixed memory histograms.
+ * A tick which takes longer than the target publish period is a deadline miss.
+ * Published messages are counted per topic. Serializing every message a second time only to count its bytes would
+ * double the publish cost, so the size of one in BYTE_SAMPLE_INTERVAL messages is measured and the byte count
+ * is estimated from the mean sampled size.
+ * <p>
+ * Ticks must run on a single thread. Messages may be published and reports taken from any thread.
+ */
+public class DriverMetrics {
+  static final int BYTE_SAMPLE_INTERVAL = 16;
+
+  private final MessageSerializationFactory serializationFactory;
+  private volatile double targetRate; // Hz
+
+  private final LatencyHistogram readTime = new LatencyHistogram();
+  private final LatencyHistogram parseTime = new LatencyHistogram();
+  private final LatencyHistogram buildTime = new LatencyHistogram();
+  private final LatencyHistogram publishTime = new LatencyHistogram();
+  private final LatencyHistogram tickTime = new LatencyHistogram();
+  private final AtomicLong ticks = new AtomicLong();
+  private final AtomicLong windowTicks = new AtomicLong();
+  private final AtomicLong deadlineMisses = new AtomicLong();
+  private final AtomicLong skippedSamples = new AtomicLong();
+  private final AtomicLong windowDeadlineMisses = new AtomicLong();
+  private final AtomicLong windowStartNanos = new AtomicLong(System.nanoTime());
+  private final Map<Publisher<?>, TopicMetrics> topics = new ConcurrentHashMap<>();
+
+  // Only accessed by the tick thread
+  private volatile Thread tickThread = null;
+  private long tickStartNanos;
+  private long tickReadNanos;
+  private long tickParseNanos;
+  private long tickPublishNanos;
+
+  /**
+   * Constructor
+   *
+   * @param serializationFactory The factory used to measure the size of published messages
+   * @param targetRate The rate at which ticks should occur in Hz
+   */
+  public DriverMetrics(MessageSerializationFactory serializationFactory, double targetRate) {
+    this.serializationFactory = serializationFactory;
+    this.targetRate = targetRate;
+  }
+
+  public void setTargetRate(double targetRate) {
+    this.targetRate = targetRate;
+  }
+
+  public double getTargetRate() {
+    return targetRate;
+  }
+
+  /**
+   * Marks the start of a tick on the calling thread
+   */
+  public void startTick() {
+    tickReadNanos = 0;
+    tickParseNanos = 0;
+    tickPublishNanos = 0;
+    tickThread = Thread.currentThread();
+    tickStartNanos = System.nanoTime();
+  }
+
+  public void addReadTime(long nanos) {
+    tickReadNanos += nanos;
+  }
+
+  public void addParseTime(long nanos) {
+    tickParseNanos += nanos;
+  }
+
+  /**
+   * Marks the end of the current tick. Time not spent reading, parsing or publishing is counted as build time
+   * @return The duration of the tick in ns
+   */
+  public long endTick() {
+    long duration = System.nanoTime() - tickStartNanos;
+    tickThread = null;
+    readTime.record(tickReadNanos);
+    parseTime.record(tickParseNanos);
+    publishTime.record(tickPublishNanos);
+    buildTime.record(duration - tickReadNanos - tickParseNanos - tickPublishNanos);
+    tickTime.record(duration);
+    ticks.incrementAndGet();
+    windowTicks.incrementAndGet();
+    if (duration > 1e9 / targetRate) {
+      deadlineMisses.incrementAndGet();
+      windowDeadlineMisses.incrementAndGet();
+    }
+    return duration;
+  }
+
+  /**
+   * Records a published message
+   * @param publisher The publisher which published the message
+   * @param message The message
+   * @param nanos The time taken by the publish call in ns
+   * @param <T> The message type
+   */
+  public <T> void recordPublish(Publisher<T> publisher, T message, long nanos) {
+    if (Thread.currentThread() == tickThread) {
+      tickPublishNanos += nanos;
+    }
+    TopicMetrics topic = topics.get(publisher);
+    if (topic == null) {
+      topics.putIfAbsent(publisher, new TopicMetrics(publisher,
+        serializationFactory.<T>newMessageSerializer(publisher.getTopicMessageType())));
+      topic = topics.get(publisher);
+    }
+    topic.record(message, nanos);
+  }
+
+  /**
+   * Records sample groups which were read but not published to stay on the wall clock
+   * @param count The number of skipped sample groups
+   */
+  public void addSkippedSamples(long count) {
+    skippedSamples.addAndGet(count);
+  }
+
+  public long getTicks() {
+    return ticks.get();
+  }
+
+  public long getDeadlineMisses() {
+    return deadlineMisses.get();
+  }
+
+  /**
+   * Gets the totals of every topic published so far. Unlike report this never resets anything
+   * @return The totals of each topic
+   */
+  public List<TopicTotals> getTopicTotals() {
+    List<TopicTotals> totals = new ArrayList<>();
+    for (TopicMetrics topic : topics.values()) {
+      totals.add(new TopicTotals(topic.name, topic.messages.get(), (long) (topic.messages.get() * topic.getMeanSize()),
+        topic.publishNanos.get(), topic.publisher.getNumberOfSubscribers()));
+    }
+    return totals;
+  }
+
+  /**
+   * Adds the metrics to a diagnostic status
+   * The level is raised to WARN if a deadline was missed since the last reset
+   * @param builder The status builder
+   * @param reset If true the histograms and rates are cleared so the next report only covers newer ticks
+   */
+  public void report(DiagnosticStatusBuilder builder, boolean reset) {
+    long now = System.nanoTime();
+    double window = (now - (reset ? windowStartNanos.getAndSet(now) : windowStartNanos.get())) * 1e-9;
+    long tickCount = reset ? windowTicks.getAndSet(0) : windowTicks.get();
+    long missCount = reset ? windowDeadlineMisses.getAndSet(0) : windowDeadlineMisses.get();
+
+    builder.add("target rate (Hz)", targetRate);
+    builder.add("achieved rate (Hz)", window > 0.0 ? tickCount / window : 0.0);
+    builder.add("ticks", ticks.get());
+    builder.add("deadline misses", deadlineMisses.get());
+    builder.add("recent deadline misses", missCount);
+    builder.add("skipped samples", skippedSamples.get());
+    builder.addHistogram("tick", tickTime.snapshot(reset));
+    builder.addHistogram("read", readTime.snapshot(reset));
+    builder.addHistogram("parse", parseTime.snapshot(reset));
+    builder.addHistogram("build", buildTime.snapshot(reset));
+    builder.addHistogram("publish", publishTime.snapshot(reset));
+    for (TopicMetrics topic : topics.values()) {
+      topic.report(builder, window, reset);
+    }
+    if (missCount > 0) {
+      builder.setLevel(diagnostic_msgs.DiagnosticStatus.WARN, missCount + " deadline misses");
+    }
+  }
+
+  /**
+   * The totals of one published topic at the time they were taken
+   */
+  public static class TopicTotals {
+    private final String topic;
+    private final long messages;
+    private final long bytes;
+    private final long publishNanos;
+    private final int subscribers;
+
+    TopicTotals(String topic, long messages, long bytes, long publishNanos, int subscribers) {
+      this.topic = topic;
+      this.messages = messages;
+      this.bytes = bytes;
+      this.publishNanos = publishNanos;
+      this.subscribers = subscribers;
+    }
+
+    public String getTopic() {
+      return topic;
+    }
+
+    public long getMessages() {
+      return messages;
+    }
+
+    /**
+     * @return The estimated number of serialized bytes
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * @return The total time spent in publish calls in ns
+     */
+    public long getPublishNanos() {
+      return publishNanos;
+    }
+
+    public int getSubscribers() {
+      return subscribers;
+    }
+  }
+
+  /**
+   * Message and byte counts of one published topic
+   */
+  private static class TopicMetrics {
+    private final Publisher<?> publisher;
+    private final String name;
+    private final MessageSerializer<Object> serializer;
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong windowMessages = new AtomicLong();
+    private final AtomicLong sampledMessages = new AtomicLong();
+    private final AtomicLong sampledBytes = new AtomicLong();
+    private final AtomicLong publishNanos = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    TopicMetrics(Publisher<?> publisher, MessageSerializer<?> serializer) {
+      this.publisher = publisher;
+      this.name = publisher.getTopicName().toString();
+      this.serializer = (MessageSerializer<Object>) serializer;
+    }
+
+    void record(Object message, long nanos) {
+      publishNanos.addAndGet(nanos);
+      windowMessages.incrementAndGet();
+      if (messages.getAndIncrement() % BYTE_SAMPLE_INTERVAL == 0) {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(ByteOrder.LITTLE_ENDIAN, 256);
+        serializer.serialize(message, buffer);
+        sampledBytes.addAndGet(buffer.readableBytes());
+        sampledMessages.incrementAndGet();
+      }
+    }
+
+    double getMeanSize() {
+      long sampled = sampledMessages.get();
+      return sampled == 0 ? 0.0 : (double) sampledBytes.get() / sampled;
+    }
+
+    void report(DiagnosticStatusBuilder builder, double window, boolean reset) {
+      long count = reset ? windowMessages.getAndSet(0) : windowMessages.get();
+      double meanSize = getMeanSize();
+      builder.add(name + " messages", messages.get());
+      builder.add(name + " bytes", (long) (messages.get() * meanSize));
+      builder.add(name + " rate (Hz)", window > 0.0 ? count / window : 0.0);
+      builder.add(name + " bandwidth (B/s)", window > 0.0 ? count * meanSize / window : 0.0);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.ros.concurrent.CancellableLoop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the ticks of one or more drivers on a single thread.
+ * <p>
+ * Each loop runs the driver whose next tick is due first, sleeping until it is due.
+ * A driver's first tick is due getPhaseOffset seconds after the loop starts and each later tick is due
+ * getPublishDelay ms after the previous one ends. Drivers which block inside readAndPublishData, such as
+ * drivers following the replay clock, delay every other driver on the same scheduler.
+ */
+public class DriverScheduler extends CancellableLoop {
+  private final List<IMockDriver> drivers;
+  private final long[] dueNanos;
+
+  /**
+   * Constructor
+   *
+   * @param drivers The drivers to run. Each driver must only be run by one scheduler
+   */
+  public DriverScheduler(List<IMockDriver> drivers) {
+    this.drivers = new ArrayList<>(drivers);
+    this.dueNanos = new long[drivers.size()];
+  }
+
+  @Override protected void setup() {
+    long now = System.nanoTime();
+    for (int i = 0; i < drivers.size(); i++) {
+      dueNanos[i] = now + (long) (drivers.get(i).getPhaseOffset() * 1e9);
+    }
+  }
+
+  @Override protected void loop() throws InterruptedException {
+    int next = 0;
+    for (int i = 1; i < dueNanos.length; i++) {
+      if (dueNanos[i] < dueNanos[next]) {
+        next = i;
+      }
+    }
+    long wait = dueNanos[next] - System.nanoTime();
+    if (wait > 0) {
+      Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+    }
+
+    IMockDriver driver = drivers.get(next);
+    driver.publishDriverStatus();
+    driver.readAndPublishData();
+    dueNanos[next] = System.nanoTime() + driver.getPublishDelay() * 1000000;
+    if (Thread.interrupted()) {
+      throw new InterruptedException(); // A driver was interrupted while waiting inside its tick
+    }
+  }
+
+  @Override protected void handleInterruptedException(InterruptedException e) {
+    for (IMockDriver driver : drivers) {
+      driver.onInterruption();
+    }
+    super.handleInterruptedException(e);
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import org.ros.node.topic.Publisher;
+
+/**
+ * Records the phases of a driver's ticks as JDK Flight Recorder events in the CARMA / Mock Drivers category.
+ * <p>
+ * Ticks, file reads, row parses, publishes and status publishes are duration events. Deadline misses are instant
+ * events. Each event has the driver name and sample id. An event is only created while its type is enabled in a
+ * running recording, so a driver which is not recorded pays one field read per phase. Stack traces are off by
+ * default and can be turned on per event type in the recording settings.
+ * Only loaded by DriverEvents.forDriver on JVMs which provide jdk.jfr.
+ */
+public class FlightRecorderEvents extends DriverEvents {
+
+  @Category({"CARMA", "Mock Drivers"})
+  @StackTrace(false)
+  abstract static class DriverEvent extends Event {
+    @Label("Driver")
+    String driver;
+
+    @Label("Sample Id")
+    @Description("The sample id of the last sample group read by the driver")
+    int sampleId;
+  }
+
+  @Name("gov.dot.fhwa.saxton.carma.mock_drivers.Tick")
+  @Label("Driver Tick")
+  static class TickEvent extends DriverEvent {
+  }
+
+  @Name("gov.dot.fhwa.saxton.carma.mock_drivers.DeadlineMiss")
+  @Label("Deadline Miss")
+  @Description("A tick which took longer than the tick period")
+  static class DeadlineMissEvent extends DriverEvent {
+    @Label("Tick Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long tickDuration;
+
+    @Label("Tick Period")
+    @Timespan(Timespan.NANOSECONDS)
+    long tickPeriod;
+  }
+
+  @Name("gov.dot.fhwa.saxton.carma.mock_drivers.FileRead")
+  @Label("Data File Read")
+  static class FileReadEvent extends DriverEvent {
+  }
+
+  @Name("gov.dot.fhwa.saxton.carma.mock_drivers.RowParse")
+  @Label("Data Row Parse")
+  static class RowParseEvent extends DriverEvent {
+  }
+
+  @Name("gov.dot.fhwa.saxton.carma.mock_drivers.Publish")
+  @Label("Publish")
+  static class PublishEvent extends DriverEvent {
+    @Label("Topic")
+    String topic;
+  }
+
+  @Name("gov.dot.fhwa.saxton.carma.mock_drivers.StatusPublish")
+  @Label("Driver Status Publish")
+  static class StatusPublishEvent extends DriverEvent {
+  }
+
+  private static final EventType TICK = EventType.getEventType(TickEvent.class);
+  private static final EventType DEADLINE_MISS = EventType.getEventType(DeadlineMissEvent.class);
+  private static final EventType FILE_READ = EventType.getEventType(FileReadEvent.class);
+  private static final EventType ROW_PARSE = EventType.getEventType(RowParseEvent.class);
+  private static final EventType PUBLISH = EventType.getEventType(PublishEvent.class);
+  private static final EventType STATUS_PUBLISH = EventType.getEventType(StatusPublishEvent.class);
+
+  private final String driverName;
+
+  /**
+   * Constructor
+   *
+   * @param driverName The name recorded with each event
+   */
+  public FlightRecorderEvents(String driverName) {
+    this.driverName = driverName;
+  }
+
+  @Override public Object beginTick() {
+    if (!TICK.isEnabled()) {
+      return null;
+    }
+    TickEvent event = new TickEvent();
+    event.begin();
+    return event;
+  }
+
+  @Override public void endTick(Object tick, int sampleId) {
+    end(tick);
+    commit((DriverEvent) tick, sampleId);
+  }
+
+  @Override public void deadlineMiss(int sampleId, long duration, long period) {
+    if (!DEADLINE_MISS.isEnabled()) {
+      return;
+    }
+    DeadlineMissEvent event = new DeadlineMissEvent();
+    if (event.shouldCommit()) {
+      event.driver = driverName;
+      event.sampleId = sampleId;
+      event.tickDuration = duration;
+      event.tickPeriod = period;
+      event.commit();
+    }
+  }
+
+  @Override public Object beginFileRead() {
+    if (!FILE_READ.isEnabled()) {
+      return null;
+    }
+    FileReadEvent event = new FileReadEvent();
+    event.begin();
+    return event;
+  }
+
+  @Override public Object beginRowParse() {
+    if (!ROW_PARSE.isEnabled()) {
+      return null;
+    }
+    RowParseEvent event = new RowParseEvent();
+    event.begin();
+    return event;
+  }
+
+  @Override public void end(Object event) {
+    if (event != null) {
+      ((DriverEvent) event).end();
+    }
+  }
+
+  @Override public void commitRow(Object fileRead, Object rowParse, int sampleId) {
+    commit((DriverEvent) fileRead, sampleId);
+    commit((DriverEvent) rowParse, sampleId);
+  }
+
+  @Override public Object beginPublish() {
+    if (!PUBLISH.isEnabled()) {
+      return null;
+    }
+    PublishEvent event = new PublishEvent();
+    event.begin();
+    return event;
+  }
+
+  @Override public void endPublish(Object publish, Publisher<?> publisher, int sampleId) {
+    if (publish == null) {
+      return;
+    }
+    PublishEvent event = (PublishEvent) publish;
+    event.end();
+    if (event.shouldCommit()) {
+      event.topic = publisher.getTopicName().toString();
+      commit(event, sampleId);
+    }
+  }
+
+  @Override public Object beginStatusPublish() {
+    if (!STATUS_PUBLISH.isEnabled()) {
+      return null;
+    }
+    StatusPublishEvent event = new StatusPublishEvent();
+    event.begin();
+    return event;
+  }
+
+  @Override public void endStatusPublish(Object statusPublish, int sampleId) {
+    end(statusPublish);
+    commit((DriverEvent) statusPublish, sampleId);
+  }
+
+  /**
+   * Commits an ended event if it passes the recording's threshold
+   */
+  private void commit(DriverEvent event, int sampleId) {
+    if (event == null) {
+      return;
+    }
+    if (event.shouldCommit()) {
+      event.driver = driverName;
+      event.sampleId = sampleId;
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,706 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the solution epochs of a GNSS receiver log holding NMEA 0183 sentences, u-blox UBX binary messages or both.
+ * <p>
+ * The NMEA GGA, RMC and VTG sentences of any talker are used. Consecutive sentences with the same UTC time form one
+ * epoch and a VTG sentence belongs to the epoch of the sentences before it. Each UBX NAV-PVT message is an epoch of
+ * its own. UBX messages have the form 0xB5 0x62, class, id, little endian uint16 payload length, payload and two
+ * Fletcher checksum bytes computed over the class, id, length and payload, as documented in the u-blox receiver
+ * protocol description. Sentences and messages failing their checksum, malformed records and other bytes between
+ * records are skipped and counted. Other sentences and message types are ignored.
+ * <p>
+ * Records are parsed in place from a reused read buffer so reading an epoch does not allocate. Epoch times are the
+ * UTC time of day, returned in us, and keep increasing across midnight.
+ */
+public class GnssLogReader implements TimedLogReader {
+  static final int READ_BUFFER_SIZE = 1 << 16;
+  static final int MAX_NMEA_FIELDS = 32;
+  static final long DAY = 86400000; // ms
+  static final int UBX_SYNC_1 = 0xB5;
+  static final int UBX_SYNC_2 = 0x62;
+  static final int UBX_FRAME_SIZE = 8; // Sync, class, id and length before the payload and the checksum after it
+  static final int UBX_CLASS_NAV = 0x01;
+  static final int UBX_ID_PVT = 0x07;
+  static final int UBX_NAV_PVT_LENGTH = 92;
+  static final double KNOTS_TO_MPS = 1852.0 / 3600.0;
+  static final double KMH_TO_MPS = 1.0 / 3.6;
+  private static final double[] POWERS_OF_TEN = {1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12};
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+  private final byte[] bytes = buffer.array();
+  private final int[] fieldStarts = new int[MAX_NMEA_FIELDS + 1];
+  private int fieldCount = 0;
+  private int position = 0;
+  private int limit = 0;
+  private boolean endOfFile = false;
+  private long skippedRecords = 0;
+  private long checksumErrors = 0;
+  private long lastTimeOfDay = -1; // ms
+  private long dayOffset = 0; // ms
+
+  // The current epoch
+  private boolean epochOpen = false;
+  private long timeOfDay; // ms
+  private long time; // ms
+  private byte status;
+  private boolean hasPosition;
+  private double latitude; // deg
+  private double longitude; // deg
+  private double altitude; // m above the WGS 84 ellipsoid. NaN if unknown
+  private int satellites; // -1 if unknown
+  private double hdop; // NaN if unknown
+  private double horizontalAccuracy; // m. NaN if unknown
+  private double verticalAccuracy; // m. NaN if unknown
+  private boolean hasSpeed;
+  private double speed; // m/s
+  private double speedAccuracy; // m/s. NaN if unknown
+  private boolean hasCourse;
+  private double course; // deg clockwise from true north
+  private double courseAccuracy; // deg. NaN if unknown
+
+  /**
+   * Constructor
+   *
+   * @param path The path to the log file
+   * @throws IOException If the file could not be opened
+   */
+  public GnssLogReader(String path) throws IOException {
+    channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+  }
+
+  /**
+   * Moves to the next epoch
+   * @return False at the end of the file
+   * @throws IOException If the file could not be read
+   */
+  @Override public boolean next() throws IOException {
+    epochOpen = false;
+    while (true) {
+      if (!fill(1)) {
+        return epochOpen;
+      }
+      int first = bytes[position] & 0xff;
+      if (first == '$') {
+        int end = findLineEnd();
+        if (end < 0) {
+          position = limit; // Drop a line longer than the buffer
+          skippedRecords++;
+          continue;
+        }
+        int start = position;
+        position = end;
+        if (!readSentence(start, end)) {
+          return true; // The sentence starts a new epoch and is read again by the next call
+        }
+      } else if (first == UBX_SYNC_1) {
+        if (!fill(UBX_FRAME_SIZE)) {
+          position = limit; // Truncated at the end of the file
+          continue;
+        }
+        if ((bytes[position + 1] & 0xff) != UBX_SYNC_2) {
+          position++;
+          continue;
+        }
+        int length = u2(position + 4);
+        if (length > bytes.length - UBX_FRAME_SIZE || !fill(length + UBX_FRAME_SIZE)) {
+          position++; // A false sync or a truncated message
+          skippedRecords++;
+          continue;
+        }
+        if (!isUbxChecksumValid(position, length)) {
+          position++;
+          checksumErrors++;
+          continue;
+        }
+        if (u1(position + 2) == UBX_CLASS_NAV && u1(position + 3) == UBX_ID_PVT && length == UBX_NAV_PVT_LENGTH) {
+          if (epochOpen) {
+            return true; // The message is read by the next call
+          }
+          boolean valid = readNavPvt(position + 6);
+          position += length + UBX_FRAME_SIZE;
+          if (valid) {
+            return true;
+          }
+        } else {
+          position += length + UBX_FRAME_SIZE;
+        }
+      } else {
+        position++; // Line breaks and bytes between records
+      }
+    }
+  }
+
+  /**
+   * Moves back to the start of the file
+   * @throws IOException If the file could not be read
+   */
+  @Override public void rewind() throws IOException {
+    channel.position(0);
+    position = 0;
+    limit = 0;
+    endOfFile = false;
+    epochOpen = false;
+    lastTimeOfDay = -1;
+    dayOffset = 0;
+  }
+
+  /**
+   * @return The UTC time of the current epoch in us since midnight of the first day of the log
+   */
+  @Override public long getTime() {
+    return time * 1000;
+  }
+
+  /**
+   * @return The sensor_msgs/NavSatStatus status of the current epoch
+   */
+  public byte getStatus() {
+    return status;
+  }
+
+  /**
+   * @return True if the current epoch has a position
+   */
+  public boolean hasPosition() {
+    return hasPosition;
+  }
+
+  public double getLatitude() {
+    return latitude;
+  }
+
+  public double getLongitude() {
+    return longitude;
+  }
+
+  /**
+   * @return The height above the WGS 84 ellipsoid in m. NaN if unknown
+   */
+  public double getAltitude() {
+    return altitude;
+  }
+
+  /**
+   * @return The number of satellites used. -1 if unknown
+   */
+  public int getSatellites() {
+    return satellites;
+  }
+
+  /**
+   * @return The horizontal dilution of precision. NaN if unknown
+   */
+  public double getHdop() {
+    return hdop;
+  }
+
+  /**
+   * @return The estimated horizontal accuracy in m. NaN if unknown
+   */
+  public double getHorizontalAccuracy() {
+    return horizontalAccuracy;
+  }
+
+  /**
+   * @return The estimated vertical accuracy in m. NaN if unknown
+   */
+  public double getVerticalAccuracy() {
+    return verticalAccuracy;
+  }
+
+  /**
+   * @return True if the current epoch has a ground speed
+   */
+  public boolean hasSpeed() {
+    return hasSpeed;
+  }
+
+  /**
+   * @return The ground speed in m/s
+   */
+  public double getSpeed() {
+    return speed;
+  }
+
+  /**
+   * @return The estimated speed accuracy in m/s. NaN if unknown
+   */
+  public double getSpeedAccuracy() {
+    return speedAccuracy;
+  }
+
+  /**
+   * @return True if the current epoch has a course over ground
+   */
+  public boolean hasCourse() {
+    return hasCourse;
+  }
+
+  /**
+   * @return The course over ground in deg clockwise from true north
+   */
+  public double getCourse() {
+    return course;
+  }
+
+  /**
+   * @return The estimated course accuracy in deg. NaN if unknown
+   */
+  public double getCourseAccuracy() {
+    return courseAccuracy;
+  }
+
+  /**
+   * @return The number of malformed records
+   */
+  public long getSkippedRecords() {
+    return skippedRecords;
+  }
+
+  /**
+   * @return The number of records which failed their checksum
+   */
+  public long getChecksumErrors() {
+    return checksumErrors;
+  }
+
+  @Override public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Reads more of the file after the unread bytes, which are moved to the start of the buffer
+   * @return False at the end of the file or if the buffer is full
+   */
+  private boolean readMore() throws IOException {
+    if (endOfFile) {
+      return false;
+    }
+    int unread = limit - position;
+    System.arraycopy(bytes, position, bytes, 0, unread);
+    position = 0;
+    limit = unread;
+    if (limit == bytes.length) {
+      return false;
+    }
+    buffer.clear();
+    buffer.position(limit);
+    int read = channel.read(buffer);
+    if (read < 0) {
+      endOfFile = true;
+      return false;
+    }
+    limit += read;
+    return true;
+  }
+
+  /**
+   * Reads until at least count bytes are available after the position
+   * @return False if the file ends first
+   */
+  private boolean fill(int count) throws IOException {
+    while (limit - position < count) {
+      if (!readMore()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Finds the end of the line at the position, reading more of the file when the line is incomplete
+   * @return The index of the line break or of the end of the file. -1 if the line is longer than the buffer
+   */
+  private int findLineEnd() throws IOException {
+    int scanned = 0;
+    while (true) {
+      for (int i = position + scanned; i < limit; i++) {
+        if (bytes[i] == '\n') {
+          return i;
+        }
+      }
+      scanned = limit - position;
+      if (!readMore()) {
+        return endOfFile ? limit : -1;
+      }
+    }
+  }
+
+  /**
+   * Reads an NMEA sentence into the current epoch
+   * @return False if the sentence has a different time than the open epoch. It is left unread
+   */
+  private boolean readSentence(int start, int end) {
+    if (end > start && bytes[end - 1] == '\r') {
+      end--;
+    }
+    int star = end - 3;
+    if (star <= start || bytes[star] != '*') {
+      skippedRecords++;
+      return true;
+    }
+    int checksum = 0;
+    for (int i = start + 1; i < star; i++) {
+      checksum ^= bytes[i];
+    }
+    int high = hexValue(bytes[star + 1]);
+    int low = hexValue(bytes[star + 2]);
+    if (high < 0 || low < 0) {
+      skippedRecords++;
+      return true;
+    }
+    if ((checksum & 0xff) != (high << 4 | low)) {
+      checksumErrors++;
+      return true;
+    }
+    if (!splitFields(start, star) || fieldEnd(0) - start != 6) {
+      skippedRecords++;
+      return true;
+    }
+    byte a = bytes[start + 3];
+    byte b = bytes[start + 4];
+    byte c = bytes[start + 5];
+    if (a == 'V' && b == 'T' && c == 'G') {
+      if (epochOpen) {
+        readVtg();
+      }
+      return true;
+    }
+    boolean gga = a == 'G' && b == 'G' && c == 'A';
+    boolean rmc = a == 'R' && b == 'M' && c == 'C';
+    if (!gga && !rmc) {
+      return true;
+    }
+    long sentenceTime = parseTimeOfDay(1);
+    if (sentenceTime < 0) {
+      skippedRecords++;
+      return true;
+    }
+    if (epochOpen && sentenceTime != timeOfDay) {
+      position = start;
+      return false;
+    }
+    if (!epochOpen) {
+      openEpoch(sentenceTime);
+    }
+    if (gga) {
+      readGga();
+    } else {
+      readRmc();
+    }
+    return true;
+  }
+
+  /**
+   * Starts a new epoch with nothing known
+   */
+  private void openEpoch(long epochTimeOfDay) {
+    if (lastTimeOfDay >= 0 && epochTimeOfDay < lastTimeOfDay - DAY / 2) {
+      dayOffset += DAY;
+    }
+    lastTimeOfDay = epochTimeOfDay;
+    epochOpen = true;
+    timeOfDay = epochTimeOfDay;
+    time = dayOffset + epochTimeOfDay;
+    status = sensor_msgs.NavSatStatus.STATUS_NO_FIX;
+    hasPosition = false;
+    altitude = Double.NaN;
+    satellites = -1;
+    hdop = Double.NaN;
+    horizontalAccuracy = Double.NaN;
+    verticalAccuracy = Double.NaN;
+    hasSpeed = false;
+    speedAccuracy = Double.NaN;
+    hasCourse = false;
+    courseAccuracy = Double.NaN;
+  }
+
+  /**
+   * GGA: time, lat, N/S, lon, E/W, quality, satellites, HDOP, altitude, M, geoid separation, M, age, station
+   */
+  private void readGga() {
+    int quality = (int) parseNumber(6);
+    switch (quality) {
+      case 0:
+        status = sensor_msgs.NavSatStatus.STATUS_NO_FIX;
+        break;
+      case 2:
+        status = sensor_msgs.NavSatStatus.STATUS_SBAS_FIX;
+        break;
+      case 4:
+      case 5:
+        status = sensor_msgs.NavSatStatus.STATUS_GBAS_FIX;
+        break;
+      default:
+        status = quality > 0 ? sensor_msgs.NavSatStatus.STATUS_FIX : sensor_msgs.NavSatStatus.STATUS_NO_FIX;
+        break;
+    }
+    readPosition(2);
+    double count = parseNumber(7);
+    satellites = Double.isNaN(count) ? -1 : (int) count;
+    hdop = parseNumber(8);
+    double separation = parseNumber(11);
+    altitude = parseNumber(9) + (Double.isNaN(separation) ? 0.0 : separation);
+  }
+
+  /**
+   * RMC: time, status, lat, N/S, lon, E/W, speed (knots), course, date, magnetic variation, E/W, mode
+   */
+  private void readRmc() {
+    if (!hasPosition) {
+      boolean active = fieldLength(2) == 1 && bytes[fieldStarts[2]] == 'A';
+      status = active ? sensor_msgs.NavSatStatus.STATUS_FIX : sensor_msgs.NavSatStatus.STATUS_NO_FIX;
+      readPosition(3);
+    }
+    readSpeed(parseNumber(7) * KNOTS_TO_MPS);
+    readCourse(parseNumber(8));
+  }
+
+  /**
+   * VTG: course, T, magnetic course, M, speed (knots), N, speed (km/h), K, mode
+   */
+  private void readVtg() {
+    double kmh = parseNumber(7);
+    readSpeed(Double.isNaN(kmh) ? parseNumber(5) * KNOTS_TO_MPS : kmh * KMH_TO_MPS);
+    readCourse(parseNumber(1));
+  }
+
+  private void readPosition(int latField) {
+    double lat = parseCoordinate(latField);
+    double lon = parseCoordinate(latField + 2);
+    if (Double.isNaN(lat) || Double.isNaN(lon)) {
+      return;
+    }
+    hasPosition = true;
+    latitude = lat;
+    longitude = lon;
+  }
+
+  private void readSpeed(double value) {
+    if (!Double.isNaN(value)) {
+      hasSpeed = true;
+      speed = value;
+    }
+  }
+
+  private void readCourse(double value) {
+    if (!Double.isNaN(value)) {
+      hasCourse = true;
+      course = value;
+    }
+  }
+
+  /**
+   * Reads a UBX NAV-PVT payload into a new epoch
+   * @param p The index of the payload
+   * @return False if the message has no valid UTC time
+   */
+  private boolean readNavPvt(int p) {
+    int valid = u1(p + 11);
+    if ((valid & 0x02) == 0) {
+      return false;
+    }
+    long nanos = i4(p + 16);
+    long epochTimeOfDay = u1(p + 8) * 3600000L + u1(p + 9) * 60000L + u1(p + 10) * 1000L
+      + Math.floorDiv(nanos + 500000, 1000000);
+    openEpoch(Math.floorMod(epochTimeOfDay, DAY));
+    int fixType = u1(p + 20);
+    int flags = u1(p + 21);
+    boolean fixOk = (flags & 0x01) != 0 && fixType >= 1 && fixType <= 4;
+    if (!fixOk) {
+      status = sensor_msgs.NavSatStatus.STATUS_NO_FIX;
+    } else if ((flags >> 6 & 0x03) != 0) {
+      status = sensor_msgs.NavSatStatus.STATUS_GBAS_FIX; // RTK float or fixed
+    } else if ((flags & 0x02) != 0) {
+      status = sensor_msgs.NavSatStatus.STATUS_SBAS_FIX; // Differential corrections applied
+    } else {
+      status = sensor_msgs.NavSatStatus.STATUS_FIX;
+    }
+    satellites = u1(p + 23);
+    hasPosition = true;
+    longitude = i4(p + 24) * 1e-7;
+    latitude = i4(p + 28) * 1e-7;
+    altitude = i4(p + 32) * 1e-3;
+    horizontalAccuracy = u4(p + 40) * 1e-3;
+    verticalAccuracy = u4(p + 44) * 1e-3;
+    hasSpeed = true;
+    speed = i4(p + 60) * 1e-3;
+    hasCourse = fixOk;
+    course = i4(p + 64) * 1e-5;
+    speedAccuracy = u4(p + 68) * 1e-3;
+    courseAccuracy = u4(p + 72) * 1e-5;
+    return true;
+  }
+
+  private boolean isUbxChecksumValid(int start, int length) {
+    int a = 0;
+    int b = 0;
+    int end = start + 6 + length;
+    for (int i = start + 2; i < end; i++) {
+      a = (a + (bytes[i] & 0xff)) & 0xff;
+      b = (b + a) & 0xff;
+    }
+    return a == (bytes[end] & 0xff) && b == (bytes[end + 1] & 0xff);
+  }
+
+  /**
+   * Finds the fields of a sentence. Field 0 is the address
+   * @return False if the sentence has too many fields
+   */
+  private boolean splitFields(int start, int end) {
+    fieldCount = 0;
+    fieldStarts[fieldCount++] = start + 1;
+    for (int i = start + 1; i < end; i++) {
+      if (bytes[i] == ',') {
+        if (fieldCount == MAX_NMEA_FIELDS) {
+          return false;
+        }
+        fieldStarts[fieldCount++] = i + 1;
+      }
+    }
+    fieldStarts[fieldCount] = end + 1; // One past the end of the last field like the other fields' separators
+    return true;
+  }
+
+  private int fieldEnd(int field) {
+    return fieldStarts[field + 1] - 1;
+  }
+
+  private int fieldLength(int field) {
+    return field < fieldCount ? fieldEnd(field) - fieldStarts[field] : 0;
+  }
+
+  /**
+   * Parses a decimal field
+   * @return The value. NaN if the field is empty or not a number
+   */
+  private double parseNumber(int field) {
+    if (fieldLength(field) == 0) {
+      return Double.NaN;
+    }
+    int i = fieldStarts[field];
+    int end = fieldEnd(field);
+    boolean negative = bytes[i] == '-';
+    if (negative || bytes[i] == '+') {
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int decimals = -1;
+    for (; i < end; i++) {
+      byte b = bytes[i];
+      if (b == '.' && decimals < 0) {
+        decimals = 0;
+      } else if (b >= '0' && b <= '9') {
+        if (digits < 18) {
+          mantissa = mantissa * 10 + (b - '0');
+          digits++;
+          if (decimals >= 0) {
+            decimals++;
+          }
+        }
+      } else {
+        return Double.NaN;
+      }
+    }
+    if (digits == 0 || decimals >= POWERS_OF_TEN.length) {
+      return Double.NaN;
+    }
+    double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parses a ddmm.mmmm or dddmm.mmmm field followed by a hemisphere field
+   * @return The coordinate in deg, negative in the south and west. NaN if it is missing
+   */
+  private double parseCoordinate(int field) {
+    double value = parseNumber(field);
+    if (Double.isNaN(value) || fieldLength(field + 1) != 1) {
+      return Double.NaN;
+    }
+    double degrees = Math.floor(value / 100.0);
+    double coordinate = degrees + (value - degrees * 100.0) / 60.0;
+    byte hemisphere = bytes[fieldStarts[field + 1]];
+    return hemisphere == 'S' || hemisphere == 'W' ? -coordinate : coordinate;
+  }
+
+  /**
+   * Parses an hhmmss.sss field
+   * @return The time of day in ms. -1 if the field is malformed
+   */
+  private long parseTimeOfDay(int field) {
+    if (fieldLength(field) < 6) {
+      return -1;
+    }
+    int i = fieldStarts[field];
+    int end = fieldEnd(field);
+    long value = 0;
+    for (int d = 0; d < 6; d++, i++) {
+      if (bytes[i] < '0' || bytes[i] > '9') {
+        return -1;
+      }
+      value = value * 10 + (bytes[i] - '0');
+    }
+    long millis = (value / 10000) * 3600000 + (value / 100 % 100) * 60000 + (value % 100) * 1000;
+    if (i < end && bytes[i] == '.') {
+      int scale = 100;
+      for (i++; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+        millis += (bytes[i] - '0') * scale;
+        scale /= 10;
+      }
+    }
+    return millis;
+  }
+
+  private int u1(int i) {
+    return bytes[i] & 0xff;
+  }
+
+  private int u2(int i) {
+    return (bytes[i] & 0xff) | (bytes[i + 1] & 0xff) << 8;
+  }
+
+  private int i4(int i) {
+    return (bytes[i] & 0xff) | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff) << 16 | bytes[i + 3] << 24;
+  }
+
+  private long u4(int i) {
+    return i4(i) & 0xffffffffL;
+  }
+
+  private static int hexValue(byte b) {
+    if (b >= '0' && b <= '9') {
+      return b - '0';
+    } else if (b >= 'A' && b <= 'F') {
+      return b - 'A' + 10;
+    } else if (b >= 'a' && b <= 'f') {
+      return b - 'a' + 10;
+    }
+    return -1;
+  }
+}
@@ -67,4 +67,55 @@ public interface IMockDriver {
    * Gets the delay in ms between when data should be published from this driver
    */
   long getPublishDelay();
+
+  /**
+   * Gets the delay before the first sample of this driver is published
+   * Offsets the ticks of drivers sharing a scheduler so they do not all publish at the same time
+   * @return The offset in s
+   */
+  double getPhaseOffset();
+
+  /**
+   * Gets the rate at which this driver publishes sample groups
+   * @return The rate in Hz
+   */
+  double getPublishRate();
+
+  /**
+   * Changes the rate at which this driver publishes sample groups
+   * @param rate The new rate in Hz
+   */
+  void setPublishRate(double rate);
+
+  /**
+   * Gets the number of times each data row is published
+   * @return The scale factor
+   */
+  int getSampleScale();
+
+  /**
+   * Changes the number of times each data row is published. Used to increase the size of published messages
+   * @param scale The scale factor. Values less than 1 are treated as 1
+   */
+  void setSampleScale(int scale);
+
+  /**
+   * Gets the hot path metrics of this driver
+   * @return The metrics
+   */
+  DriverMetrics getMetrics();
+
+  /**
+   * Gets the vehicle state source which this driver makes available to other drivers in the same process
+   * @return The state source or null if this driver does not provide one
+   */
+  IVehicleStateSource getProvidedVehicleStateSource();
+
+  /**
+   * Sets a vehicle state source which this driver should publish from instead of its data file
+   * Drivers which cannot publish a vehicle state ignore the source
+   * Must be called before onStart
+   * @param source The state source
+   */
+  void useVehicleStateSource(IVehicleStateSource source);
 }
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.ros.message.Time;
+
+/**
+ * Interface for objects which can provide the kinematic state of the simulated host vehicle.
+ * Drivers which are backed by a state source publish data derived from it instead of reading a data file.
+ */
+public interface IVehicleStateSource {
+
+  /**
+   * Samples the vehicle state at the provided time
+   * @param time The time to sample at
+   * @param state The state object which will be filled out
+   */
+  void sample(Time time, VehicleState state);
+}
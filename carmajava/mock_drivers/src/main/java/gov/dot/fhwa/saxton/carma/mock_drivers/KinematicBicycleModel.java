@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.ros.message.Time;
+
+/**
+ * A kinematic bicycle model of the host vehicle which tracks speed and steering commands.
+ * <p>
+ * Speed follows the commanded speed through a proportional controller limited by the commanded or default
+ * acceleration. The road wheel angle follows the commanded angle at a limited rate.
+ * The model is stepped with a fixed time step by its owner and may be sampled from any thread.
+ */
+public class KinematicBicycleModel implements IVehicleStateSource {
+
+  private final LocalTangentPlane tangentPlane;
+  private final double wheelBase; // m
+  private final double steeringRatio;
+  private final double maxAccel; // m/s^2
+  private final double maxDecel; // m/s^2
+  private final double maxSteeringAngle; // rad
+  private final double maxSteeringRate; // rad/s
+  private final double speedGain; // 1/s
+
+  private final VehicleState state = new VehicleState();
+  private double steeringAngle = 0.0; // rad road wheel angle
+
+  // Latest command
+  private double cmdSpeed = 0.0; // m/s
+  private double cmdAccelLimit = 0.0; // m/s^2 0 means use the model limits
+  private double cmdSteeringAngle = 0.0; // rad
+
+  /**
+   * Constructor
+   *
+   * @param tangentPlane The conversion used to compute the geodetic position
+   * @param wheelBase The vehicle wheel base in m
+   * @param steeringRatio The ratio of steering wheel angle to road wheel angle
+   * @param maxAccel The largest acceleration in m/s^2
+   * @param maxDecel The largest deceleration in m/s^2 as a positive value
+   * @param maxSteeringAngle The largest road wheel angle in rad
+   * @param maxSteeringRate The largest road wheel angle rate in rad/s
+   * @param speedGain The proportional gain of the speed controller in 1/s
+   */
+  public KinematicBicycleModel(LocalTangentPlane tangentPlane, double wheelBase, double steeringRatio,
+    double maxAccel, double maxDecel, double maxSteeringAngle, double maxSteeringRate, double speedGain) {
+    this.tangentPlane = tangentPlane;
+    this.wheelBase = wheelBase;
+    this.steeringRatio = steeringRatio;
+    this.maxAccel = maxAccel;
+    this.maxDecel = maxDecel;
+    this.maxSteeringAngle = maxSteeringAngle;
+    this.maxSteeringRate = maxSteeringRate;
+    this.speedGain = speedGain;
+    tangentPlane.updateGeodetic(state);
+  }
+
+  /**
+   * Places the vehicle at the provided pose at rest
+   * @param x The x position in m
+   * @param y The y position in m
+   * @param heading The ENU heading in rad
+   */
+  public synchronized void reset(double x, double y, double heading) {
+    state.x = x;
+    state.y = y;
+    state.heading = heading;
+    state.speed = 0.0;
+    state.acceleration = 0.0;
+    state.yawRate = 0.0;
+    state.steeringWheelAngle = 0.0;
+    steeringAngle = 0.0;
+    cmdSpeed = 0.0;
+    cmdSteeringAngle = 0.0;
+    tangentPlane.updateGeodetic(state);
+  }
+
+  /**
+   * Sets the command which the model will track from the next step on
+   * @param speed The commanded speed in m/s
+   * @param accelLimit The commanded acceleration magnitude in m/s^2. 0 to use the model limits
+   * @param roadWheelAngle The commanded road wheel angle in rad
+   */
+  public synchronized void setCommand(double speed, double accelLimit, double roadWheelAngle) {
+    cmdSpeed = Math.max(speed, 0.0);
+    cmdAccelLimit = Math.abs(accelLimit);
+    cmdSteeringAngle = clamp(roadWheelAngle, -maxSteeringAngle, maxSteeringAngle);
+  }
+
+  /**
+   * Replaces the command with the current speed and road wheel angle so the model keeps its state
+   */
+  public synchronized void holdCommand() {
+    cmdSpeed = state.speed;
+    cmdAccelLimit = 0.0;
+    cmdSteeringAngle = steeringAngle;
+  }
+
+  /**
+   * Integrates the model forward in time
+   * @param dt The time step in s
+   */
+  public synchronized void step(double dt) {
+    // Longitudinal
+    double accelLimit = cmdAccelLimit > 0.0 ? Math.min(cmdAccelLimit, maxAccel) : maxAccel;
+    double decelLimit = cmdAccelLimit > 0.0 ? Math.min(cmdAccelLimit, maxDecel) : maxDecel;
+    double accel = clamp(speedGain * (cmdSpeed - state.speed), -decelLimit, accelLimit);
+    double prevSpeed = state.speed;
+    state.speed = Math.max(prevSpeed + accel * dt, 0.0);
+    state.acceleration = (state.speed - prevSpeed) / dt;
+
+    // Lateral
+    double maxSteeringStep = maxSteeringRate * dt;
+    steeringAngle += clamp(cmdSteeringAngle - steeringAngle, -maxSteeringStep, maxSteeringStep);
+    state.steeringWheelAngle = steeringAngle * steeringRatio;
+    state.yawRate = state.speed * Math.tan(steeringAngle) / wheelBase;
+
+    // Pose uses the midpoint speed and heading over the step
+    double avgSpeed = (prevSpeed + state.speed) / 2.0;
+    double midHeading = state.heading + state.yawRate * dt / 2.0;
+    state.x += avgSpeed * Math.cos(midHeading) * dt;
+    state.y += avgSpeed * Math.sin(midHeading) * dt;
+    state.heading = RouteTrajectory.wrapAngle(state.heading + state.yawRate * dt);
+    state.odometer += avgSpeed * dt;
+    tangentPlane.updateGeodetic(state);
+  }
+
+  @Override public synchronized void sample(Time time, VehicleState out) {
+    out.set(state);
+  }
+
+  private static double clamp(double value, double min, double max) {
+    return Math.min(Math.max(value, min), max);
+  }
+}
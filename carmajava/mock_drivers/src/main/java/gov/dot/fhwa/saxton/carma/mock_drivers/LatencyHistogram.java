@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed memory, lock free histogram of non negative durations in nanoseconds.
+ * <p>
+ * Buckets are log linear. Each power of two range is split into 32 equal sub buckets so any recorded value is
+ * reported with a relative error of at most about 3%. Values above MAX_VALUE are counted in the last bucket.
+ * Recording may happen from any number of threads while another thread takes snapshots.
+ */
+public class LatencyHistogram {
+  static final int SUB_BUCKET_BITS = 5;
+  static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  static final int MAX_EXPONENT = 40; // 2^40 ns is about 18 minutes
+  static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+  static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records a value
+   * @param value The value in ns. Negative values are recorded as 0
+   */
+  public void record(long value) {
+    long clamped = Math.min(Math.max(value, 0L), MAX_VALUE);
+    counts.incrementAndGet(indexOf(clamped));
+    count.incrementAndGet();
+    sum.addAndGet(clamped);
+    long prevMax = max.get();
+    while (clamped > prevMax && !max.compareAndSet(prevMax, clamped)) {
+      prevMax = max.get();
+    }
+  }
+
+  /**
+   * Takes a copy of the recorded values
+   * @param reset If true the histogram is cleared so the next snapshot only covers values recorded after this one
+   * @return The snapshot
+   */
+  public Snapshot snapshot(boolean reset) {
+    long[] copy = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      copy[i] = reset ? counts.getAndSet(i, 0) : counts.get(i);
+      total += copy[i];
+    }
+    long snapshotSum = reset ? sum.getAndSet(0) : sum.get();
+    long snapshotMax = reset ? max.getAndSet(0) : max.get();
+    if (reset) {
+      count.addAndGet(-total);
+    }
+    return new Snapshot(copy, total, snapshotSum, snapshotMax);
+  }
+
+  /**
+   * Gets the number of values recorded since the last reset
+   * @return The value count
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+  }
+
+  static long upperBoundOf(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    long subBucket = SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  /**
+   * An immutable copy of the histogram contents
+   */
+  public static class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    Snapshot(long[] counts, long count, long sum, long max) {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    public double getMean() {
+      return count == 0 ? 0.0 : (double) sum / count;
+    }
+
+    /**
+     * Gets the value below which the provided fraction of recorded values fall
+     * @param fraction The fraction in the range [0, 1]
+     * @return The percentile value in ns. 0 if nothing was recorded
+     */
+    public long getPercentile(double fraction) {
+      if (count == 0) {
+        return 0;
+      }
+      long target = Math.max((long) Math.ceil(fraction * count), 1L);
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= target) {
+          return Math.min(upperBoundOf(i), max);
+        }
+      }
+      return max;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import cav_msgs.LightBarStatus;
+
+/**
+ * An immutable state of every light of a light bar.
+ * <p>
+ * The lights are held as bits of one int so a state is read and replaced as a whole. All 256 states and their
+ * descriptions are created once, so converting a set_lights request to a state does not allocate and states can be
+ * compared by reference.
+ */
+public final class LightBarState {
+  public static final int GREEN_SOLID = 1;
+  public static final int YELLOW_SOLID = 1 << 1;
+  public static final int RIGHT_ARROW = 1 << 2;
+  public static final int LEFT_ARROW = 1 << 3;
+  public static final int SIDES_SOLID = 1 << 4;
+  public static final int FLASH = 1 << 5;
+  public static final int GREEN_FLASH = 1 << 6;
+  public static final int TAKEDOWN = 1 << 7;
+  private static final String[] NAMES = {
+    "Green Solid", "Yellow Dim", "Right", "Left", "Sides Solid", "Yellow Flash", "Green Flash", "Takedown"};
+
+  private static final LightBarState[] STATES = new LightBarState[1 << NAMES.length];
+  static {
+    for (int lights = 0; lights < STATES.length; lights++) {
+      STATES[lights] = new LightBarState(lights);
+    }
+  }
+
+  public static final LightBarState OFF = STATES[0];
+
+  private final int lights;
+  private final String description;
+
+  private LightBarState(int lights) {
+    this.lights = lights;
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < NAMES.length; i++) {
+      builder.append(i == 0 ? "" : " ").append(NAMES[i]).append(": ").append((lights & (1 << i)) != 0);
+    }
+    this.description = builder.toString();
+  }
+
+  /**
+   * Gets the state with the given lights on
+   * @param lights The lights which are on as a combination of the light bits
+   * @return The state
+   */
+  public static LightBarState of(int lights) {
+    return STATES[lights & (STATES.length - 1)];
+  }
+
+  /**
+   * Gets the state described by a light bar status message
+   * @param status The message. A light is on if its field is 1
+   * @return The state
+   */
+  public static LightBarState fromStatus(LightBarStatus status) {
+    int lights = 0;
+    lights |= status.getGreenSolid() == 1 ? GREEN_SOLID : 0;
+    lights |= status.getYellowSolid() == 1 ? YELLOW_SOLID : 0;
+    lights |= status.getRightArrow() == 1 ? RIGHT_ARROW : 0;
+    lights |= status.getLeftArrow() == 1 ? LEFT_ARROW : 0;
+    lights |= status.getSidesSolid() == 1 ? SIDES_SOLID : 0;
+    lights |= status.getFlash() == 1 ? FLASH : 0;
+    lights |= status.getGreenFlash() == 1 ? GREEN_FLASH : 0;
+    lights |= status.getTakedown() == 1 ? TAKEDOWN : 0;
+    return of(lights);
+  }
+
+  /**
+   * @param light A light bit
+   * @return True if the light is on
+   */
+  public boolean isOn(int light) {
+    return (lights & light) != 0;
+  }
+
+  /**
+   * Sets the fields of a light bar status message to this state
+   * @param status The message
+   */
+  public void copyTo(LightBarStatus status) {
+    status.setGreenSolid(flag(GREEN_SOLID));
+    status.setYellowSolid(flag(YELLOW_SOLID));
+    status.setRightArrow(flag(RIGHT_ARROW));
+    status.setLeftArrow(flag(LEFT_ARROW));
+    status.setSidesSolid(flag(SIDES_SOLID));
+    status.setFlash(flag(FLASH));
+    status.setGreenFlash(flag(GREEN_FLASH));
+    status.setTakedown(flag(TAKEDOWN));
+  }
+
+  private byte flag(int light) {
+    return (byte) (isOn(light) ? 1 : 0);
+  }
+
+  @Override public String toString() {
+    return description;
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+/**
+ * Converts positions in a local east north up frame to WGS-84 geodetic coordinates.
+ * <p>
+ * Uses the radii of curvature at the frame origin which is accurate to well under a meter
+ * over the few kilometers covered by a test route.
+ */
+public class LocalTangentPlane {
+  private static final double SEMI_MAJOR_AXIS = 6378137.0; // m
+  private static final double ECCENTRICITY_SQ = 6.69437999014e-3;
+
+  private final double originLat; // deg
+  private final double originLon; // deg
+  private final double originAlt; // m
+  private final double meridianRadius; // m
+  private final double parallelRadius; // m
+
+  /**
+   * Constructor
+   *
+   * @param originLat The latitude of the frame origin in deg
+   * @param originLon The longitude of the frame origin in deg
+   * @param originAlt The altitude of the frame origin in m
+   */
+  public LocalTangentPlane(double originLat, double originLon, double originAlt) {
+    this.originLat = originLat;
+    this.originLon = originLon;
+    this.originAlt = originAlt;
+    double sinLat = Math.sin(Math.toRadians(originLat));
+    double w = Math.sqrt(1.0 - ECCENTRICITY_SQ * sinLat * sinLat);
+    double normalRadius = SEMI_MAJOR_AXIS / w;
+    meridianRadius = SEMI_MAJOR_AXIS * (1.0 - ECCENTRICITY_SQ) / (w * w * w);
+    parallelRadius = normalRadius * Math.cos(Math.toRadians(originLat));
+  }
+
+  /**
+   * Sets the latitude, longitude and altitude of a state from its x, y and z position
+   * @param state The state to update
+   */
+  public void updateGeodetic(VehicleState state) {
+    state.latitude = originLat + Math.toDegrees(state.y / meridianRadius);
+    state.longitude = originLon + Math.toDegrees(state.x / parallelRadius);
+    state.altitude = originAlt + state.z;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.ros.message.Time;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks how stale received messages are and how regularly they arrive.
+ * <p>
+ * Latency is the difference between the arrival time and the header stamp of a message.
+ * Jitter is the absolute change between consecutive inter-arrival intervals.
+ * All values are kept in fixed memory histograms. record must only be called from one thread,
+ * which is the case for a rosjava message listener. Reports may be taken from any thread.
+ */
+public class MessageLatencyTracker {
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LatencyHistogram interArrival = new LatencyHistogram();
+  private final LatencyHistogram jitter = new LatencyHistogram();
+  private final AtomicLong received = new AtomicLong();
+  private final AtomicLong unstamped = new AtomicLong();
+  private final AtomicLong stampedInFuture = new AtomicLong();
+
+  // Only accessed by the recording thread
+  private long prevArrivalNanos = -1;
+  private long prevInterval = -1;
+
+  /**
+   * Records the arrival of a message
+   * @param stamp The header stamp of the message
+   * @param arrival The ROS time at which the message arrived
+   * @param arrivalNanos The System.nanoTime() at which the message arrived
+   */
+  public void record(Time stamp, Time arrival, long arrivalNanos) {
+    received.incrementAndGet();
+    if (stamp.isZero()) {
+      unstamped.incrementAndGet();
+    } else {
+      long delay = arrival.totalNsecs() - stamp.totalNsecs();
+      if (delay < 0) {
+        stampedInFuture.incrementAndGet(); // Clock offset between hosts
+      }
+      latency.record(delay);
+    }
+
+    if (prevArrivalNanos != -1) {
+      long interval = arrivalNanos - prevArrivalNanos;
+      interArrival.record(interval);
+      if (prevInterval != -1) {
+        jitter.record(Math.abs(interval - prevInterval));
+      }
+      prevInterval = interval;
+    }
+    prevArrivalNanos = arrivalNanos;
+  }
+
+  /**
+   * Adds the tracked values to a diagnostic status
+   * @param builder The status builder
+   * @param reset If true the histograms are cleared so the next report only covers newer messages
+   * @return The latency snapshot which was reported
+   */
+  public LatencyHistogram.Snapshot report(DiagnosticStatusBuilder builder, boolean reset) {
+    LatencyHistogram.Snapshot latencySnapshot = latency.snapshot(reset);
+    builder.add("received", received.get());
+    builder.add("unstamped", unstamped.get());
+    builder.add("stamped in future", stampedInFuture.get());
+    builder.addHistogram("latency", latencySnapshot);
+    builder.addHistogram("inter-arrival", interArrival.snapshot(reset));
+    builder.addHistogram("jitter", jitter.snapshot(reset));
+    return latencySnapshot;
+  }
+}
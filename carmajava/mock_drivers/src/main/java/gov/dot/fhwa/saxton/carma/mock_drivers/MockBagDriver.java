@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.message.MessageDeserializer;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A class which replays the topics of a rosbag file for the CARMA Platform.
+ * <p>
+ * The bag is read with a RosbagReader so no conversion to a csv data file is needed. Messages are published on
+ * their recorded topic below this driver's namespace at their recorded spacing scaled by the playback rate, and the
+ * bag is replayed again from its start once its last message is published. Header stamps are kept as recorded.
+ * ~/topics optionally limits the replay to a comma separated list of bag topics and ~/driver_types lists the driver
+ * types reported in this driver's status.
+ * <p>
+ * ~/reload_data_file reopens the bag off the tick thread and switches to it on the next tick at the same time
+ * after its start, advertising any topics it adds. ~/seek jumps to the recorded time ~/seek_to s after the start of
+ * the bag. Only ~/seek_by time is supported since bag messages have no sample ids. ~/set_playback_rate scales the
+ * recorded spacing of the messages.
+ * <p>
+ * Command line test:
+ * ROSJava does not support rosrun parameter setting so a rosrun is a multi step process
+ * rosparam set /mock_driver/simulated_driver 'bag'
+ * rosparam set /mock_driver/data_file_path '/opt/carma/test_data/drive.bag'
+ * rosparam set /mock_driver/driver_types 'can,gnss'
+ * rosrun carma mock_drivers gov.dot.fhwa.saxton.carma.mock_drivers.MockDriverNode
+ */
+public class MockBagDriver extends AbstractMockDriver {
+
+  private final List<String> topicFilter;
+  private final List<String> driverTypes;
+  private final Map<Integer, Publisher<Object>> publishers = new HashMap<>();
+  private final Map<Integer, MessageDeserializer<Object>> deserializers = new HashMap<>();
+  private final List<String> replayedTopics = new ArrayList<>();
+  private RosbagReader bag = null;
+  private RosbagReader.Cursor cursor = null;
+  private boolean hasPending = false; // True if the cursor holds a message which is not yet due
+  private long bagTime = 0; // ns. The replay position on the bag's clock
+  private long lastTickNanos = 0;
+  private final AtomicReference<RosbagReader> pendingBag = new AtomicReference<>(); // Reopened off the tick thread
+  private final AtomicLong pendingSeekTime = new AtomicLong(-1); // ns after the bag start to seek to on the next tick
+
+  private final short EXPECTED_DATA_COL_COUNT = 0;
+  private final short SAMPLE_ID_IDX = 0;
+
+  public MockBagDriver(ConnectedNode connectedNode) {
+    this(connectedNode, "", "");
+  }
+
+  public MockBagDriver(ConnectedNode connectedNode, String instanceName, String topicNamespace) {
+    super(connectedNode, instanceName, topicNamespace);
+    topicFilter = splitList(params.getString(param("topics"), ""));
+    driverTypes = splitList(params.getString(param("driver_types"), ""));
+  }
+
+  /**
+   * Opens the bag and advertises a publisher for each replayed topic
+   * Topics whose message type is not available to this node are skipped
+   * @param connectedNode The node which is being started
+   */
+  @Override public void onStart(ConnectedNode connectedNode) {
+    startDiagnostics();
+    try {
+      bag = new RosbagReader(dataFilePath);
+    } catch (IOException e) {
+      log.warn(getGraphName() + " could not open bag " + dataFilePath + ". No data published " + e.getMessage());
+      driverStatus = cav_msgs.DriverStatus.DEGRADED;
+      return;
+    }
+    openCursor();
+    bagTime = bag.getStartTime();
+    driverStatus = cav_msgs.DriverStatus.OPERATIONAL;
+    log.info(getGraphName() + " replaying " + replayedTopics.size() + " topics from " + dataFilePath);
+  }
+
+  /**
+   * Creates the cursor over the selected connections of the open bag
+   * Publishers of topics which are already advertised are reused
+   */
+  private void openCursor() {
+    publishers.clear();
+    deserializers.clear();
+    replayedTopics.clear();
+    hasPending = false;
+    List<RosbagReader.Connection> selected = new ArrayList<>();
+    Set<String> topics = new HashSet<>();
+    Map<String, Integer> topicConnections = new HashMap<>();
+    for (RosbagReader.Connection connection : bag.getConnections()) {
+      String topic = connection.getTopic().replaceAll("^/", "");
+      if (!topicFilter.isEmpty() && !topicFilter.contains(topic) && !topicFilter.contains("/" + topic)) {
+        continue;
+      }
+      Integer sameTopic = topicConnections.get(topic);
+      try {
+        if (sameTopic != null) {
+          // Connections of several recorded publishers on one topic share its publisher
+          publishers.put(connection.getId(), publishers.get(sameTopic));
+          deserializers.put(connection.getId(), deserializers.get(sameTopic));
+        } else {
+          deserializers.put(connection.getId(),
+            connectedNode.getMessageSerializationFactory().<Object>newMessageDeserializer(connection.getType()));
+          Publisher<Object> publisher = connectedNode.newPublisher(topicName(topic), connection.getType());
+          publisher.setLatchMode(connection.isLatching());
+          publishers.put(connection.getId(), publisher);
+          topicConnections.put(topic, connection.getId());
+        }
+      } catch (RuntimeException e) {
+        log.warn(getGraphName() + " cannot replay " + topic + " of type " + connection.getType() + " "
+          + e.getMessage());
+        deserializers.remove(connection.getId());
+        continue;
+      }
+      if (topics.add(topic)) {
+        replayedTopics.add(topic);
+      }
+      selected.add(connection);
+    }
+    cursor = bag.newCursor(selected);
+  }
+
+  /**
+   * Reopens the bag on the calling thread
+   * The tick thread switches to it on its next tick
+   * @return The number of messages in the bag, each of which is published as its own sample group
+   * @throws IOException If the bag could not be opened
+   */
+  @Override protected int reloadDataFile() throws IOException {
+    if (dataFilePath.isEmpty()) {
+      throw new FileNotFoundException("~/data_file_path is not set");
+    }
+    RosbagReader reopened = new RosbagReader(dataFilePath);
+    RosbagReader replaced = pendingBag.getAndSet(reopened);
+    if (replaced != null) {
+      replaced.close(); // A newer version arrived before the previous one was used
+    }
+    return (int) Math.min(reopened.getMessageCount(), Integer.MAX_VALUE);
+  }
+
+  /**
+   * Schedules a jump to ~/seek_to s after the start of the bag
+   * @return null on success. The reason otherwise
+   */
+  @Override protected String seek() {
+    if (bag == null) {
+      return "No bag is open";
+    }
+    if (!params.has(param("seek_to"))) {
+      return "Set ~/seek_to before calling seek";
+    }
+    if (!params.getString(param("seek_by"), "time").equals("time")) {
+      return "Bags can only be sought by time";
+    }
+    double seekTo = params.getDouble(param("seek_to"));
+    RosbagReader current = bag;
+    if (seekTo < 0.0 || seekTo * 1e9 > current.getEndTime() - current.getStartTime()) {
+      return "~/seek_to must be between 0 and " + (current.getEndTime() - current.getStartTime()) / 1e9 + " s";
+    }
+    pendingSeekTime.set((long) (seekTo * 1e9));
+    log.info(getGraphName() + " seeking to " + seekTo + " s");
+    return null;
+  }
+
+  /**
+   * Applies a reload or seek requested since the last tick
+   * @throws IOException If the bag could not be read
+   */
+  private void applyPendingChanges() throws IOException {
+    RosbagReader reopened = pendingBag.getAndSet(null);
+    if (reopened != null) {
+      long offset = bag == null ? 0 : bagTime - bag.getStartTime();
+      if (bag != null) {
+        bag.close();
+      }
+      bag = reopened;
+      openCursor();
+      if (pendingSeekTime.get() < 0) {
+        pendingSeekTime.set(offset); // Continue at the same time after the start of the bag
+      }
+      driverStatus = cav_msgs.DriverStatus.OPERATIONAL;
+      log.info(getGraphName() + " switched to the reloaded bag " + dataFilePath);
+    }
+    long seekTime = pendingSeekTime.getAndSet(-1);
+    if (seekTime >= 0 && cursor != null) {
+      long target = bag.getStartTime() + seekTime;
+      hasPending = cursor.seek(target) && cursor.next();
+      bagTime = hasPending ? target : bag.getStartTime();
+      if (!hasPending) {
+        cursor.rewind(); // Past the last message so replay from the start
+      }
+    }
+  }
+
+  /**
+   * Publishes every message whose recorded time has been reached
+   */
+  @Override public void readAndPublishData() {
+    releaseHeldMessages();
+    try {
+      applyPendingChanges();
+    } catch (IOException e) {
+      log.warn(getGraphName() + " failed to read bag. No data will be published " + e.getMessage());
+      cursor = null;
+      driverStatus = cav_msgs.DriverStatus.FAULT;
+    }
+    if (paused || cursor == null) {
+      lastTickNanos = 0; // Continue from the paused position on resume
+      return;
+    }
+    long now = System.nanoTime();
+    if (lastTickNanos != 0) {
+      bagTime += (long) ((now - lastTickNanos) * playbackRate);
+    }
+    lastTickNanos = now;
+
+    Object tick = startTick();
+    try {
+      boolean rewound = false;
+      while (true) {
+        if (!hasPending) {
+          hasPending = cursor.next();
+        }
+        if (!hasPending) {
+          if (rewound) {
+            break; // The bag has no messages to replay
+          }
+          cursor.rewind(); // Replay again from the start of the bag
+          bagTime = bag.getStartTime();
+          rewound = true;
+          continue;
+        }
+        if (cursor.getTime() > bagTime) {
+          break;
+        }
+        hasPending = false;
+        publishCurrent();
+      }
+    } catch (IOException e) {
+      log.warn(getGraphName() + " failed to read bag. No data will be published " + e.getMessage());
+      cursor = null;
+      driverStatus = cav_msgs.DriverStatus.FAULT;
+    } finally {
+      endTick(tick);
+    }
+  }
+
+  /**
+   * Deserializes the current message directly from the mapped bag and publishes it sampleScale times
+   */
+  private void publishCurrent() {
+    RosbagReader.Connection connection = cursor.getConnection();
+    long start = System.nanoTime();
+    Object message = deserializers.get(connection.getId())
+      .deserialize(ChannelBuffers.wrappedBuffer(cursor.getPayload()));
+    metrics.addParseTime(System.nanoTime() - start);
+    Publisher<Object> publisher = publishers.get(connection.getId());
+    for (int i = 0; i < sampleScale; i++) {
+      publish(publisher, message);
+    }
+  }
+
+  /**
+   * Gets the time until the next message is due, limited to the publish period so status is still published
+   * @return The delay in ms
+   */
+  @Override public long getPublishDelay() {
+    long period = (long) (1000 / publishRate);
+    if (paused || cursor == null || !hasPending) {
+      return period;
+    }
+    long untilDue = (long) ((cursor.getTime() - bagTime) / playbackRate / 1000000);
+    return Math.max(Math.min(untilDue, period), 0L);
+  }
+
+  @Override public void onInterruption() {
+    super.onInterruption();
+    RosbagReader reopened = pendingBag.getAndSet(null);
+    if (reopened != null) {
+      try {
+        reopened.close();
+      } catch (IOException e) {
+        log.warn(getGraphName() + " failed to close bag. " + e.getMessage());
+      }
+    }
+    if (bag != null) {
+      try {
+        bag.close();
+      } catch (IOException e) {
+        log.warn(getGraphName() + " failed to close bag. " + e.getMessage());
+      }
+    }
+  }
+
+  @Override protected void publishData(List<String[]> data) {
+    // Messages are published from the bag by readAndPublishData
+  }
+
+  @Override protected short getExpectedColCount() {
+    return EXPECTED_DATA_COL_COUNT;
+  }
+
+  @Override protected short getSampleIdIdx() {
+    return SAMPLE_ID_IDX;
+  }
+
+  @Override protected List<String> getDriverTypesList() {
+    return new ArrayList<>(driverTypes);
+  }
+
+  @Override public List<String> getDriverAPI() {
+    return new ArrayList<>(replayedTopics);
+  }
+
+  private static List<String> splitList(String value) {
+    String trimmed = value.trim();
+    return trimmed.isEmpty() ? new ArrayList<String>() : Arrays.asList(trimmed.split("[,\\s]+"));
+  }
+}
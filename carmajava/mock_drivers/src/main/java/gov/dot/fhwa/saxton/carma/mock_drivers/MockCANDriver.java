@@ -16,15 +16,30 @@
 
 package gov.dot.fhwa.saxton.carma.mock_drivers;
 
+import org.ros.message.MessageListener;
+import org.ros.message.Time;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A class which can be used to simulate a CAN driver for the CarmaPlatform.
  * <p>
+ * If ~/route_file_path is set no data file is used. The driver instead publishes the state of a vehicle
+ * driving that route at ~/publish_rate. See RouteTrajectory for the route file format.
+ * <p>
+ * If ~/candump_file_path is set the frames of that candump -l log are replayed at their recorded spacing instead of
+ * a data file and decoded with the DBC file at ~/dbc_file_path. ~/dbc_signals/topic names the signal published on
+ * can/topic, such as ~/dbc_signals/speed 'VehicleSpeed' or 'ESP_Speed.VehicleSpeed', and the optional
+ * ~/dbc_scales/topic converts its physical value, such as 0.2778 for km/h to m/s. Each tick publishes the latest
+ * value of every signal decoded so far. Topics without a signal are not published.
+ * <p>
  * Command line test:
  * ROSJava does not support rosrun parameter setting so a rosrun is a multi step process
  * rosparam set /mock_driver/simulated_driver 'can'
@@ -52,50 +67,246 @@ public class MockCANDriver extends AbstractMockDriver {
   final Publisher<std_msgs.Bool> stabilityActivePub;
   final Publisher<std_msgs.Bool> stabilityEnabledPub;
 
-  final short EXPECTED_DATA_COL_COUNT = 19;
-
-  private final short SAMPLE_ID_IDX = 0;
-  private final short ACC_IDX = 1;
-  private final short ACCEL_IDX = 2;
-  private final short BRAKE_LIGHTS_IDX = 3;
-  private final short BRAKE_POS_IDX = 4;
-  private final short ENGINE_SPEED_IDX = 5;
-  private final short FUEL_FLOW_IDX = 6;
-  private final short ODOMETRY_IDX = 7;
-  private final short PARKING_BRAKE_IDX = 8;
-  private final short SPEED_IDX = 9;
-  private final short STEERING_IDX = 10;
-  private final short THROTTLE_IDX = 11;
-  private final short TURN_SIGNAL_STATE_IDX = 12;
-  private final short TRANSMISSION_STATE_IDX = 13;
-  private final short TRACTION_ACTIVE_IDX = 14;
-  private final short TRACTION_ENABLED_IDX = 15;
-  private final short ANTILOCK_BRAKE_IDX = 16;
-  private final short STABILITY_ACTIVE_IDX = 17;
-  private final short STABILITY_ENABLED_IDX = 18;
+  static final short EXPECTED_DATA_COL_COUNT = 19;
+
+  private static final short SAMPLE_ID_IDX = 0;
+  private static final short ACC_IDX = 1;
+  private static final short ACCEL_IDX = 2;
+  private static final short BRAKE_LIGHTS_IDX = 3;
+  private static final short BRAKE_POS_IDX = 4;
+  private static final short ENGINE_SPEED_IDX = 5;
+  private static final short FUEL_FLOW_IDX = 6;
+  private static final short ODOMETRY_IDX = 7;
+  private static final short PARKING_BRAKE_IDX = 8;
+  private static final short SPEED_IDX = 9;
+  private static final short STEERING_IDX = 10;
+  private static final short THROTTLE_IDX = 11;
+  private static final short TURN_SIGNAL_STATE_IDX = 12;
+  private static final short TRANSMISSION_STATE_IDX = 13;
+  private static final short TRACTION_ACTIVE_IDX = 14;
+  private static final short TRACTION_ENABLED_IDX = 15;
+  private static final short ANTILOCK_BRAKE_IDX = 16;
+  private static final short STABILITY_ACTIVE_IDX = 17;
+  private static final short STABILITY_ENABLED_IDX = 18;
+
+  // The topic of each data column below can/
+  private static final String[] COLUMN_TOPICS = {null, "acc_engaged", "acceleration", "brake_lights",
+    "brake_position", "engine_speed", "fuel_flow", "odometer", "parking_brake", "speed", "steering_wheel_angle",
+    "throttle_position", "turn_signal_state", "transmission_state", "traction_ctrl_active", "traction_ctrl_enabled",
+    "antilock_brakes_active", "stability_ctrl_active", "stability_ctrl_enabled"};
+
+  // Candump replay
+  protected final String candumpFilePath;
+  protected CandumpReader candump = null;
+  protected DbcDecoder dbc = null;
+  private final double[] signalValues = new double[EXPECTED_DATA_COL_COUNT];
+  private final boolean[] signalDecoded = new boolean[EXPECTED_DATA_COL_COUNT];
+
+  final double BRAKE_LIGHTS_DECEL = 0.5; // m/s^2 Deceleration above which the brake lights are on
+  final double FULL_THROTTLE_ACCEL = 3.0; // m/s^2
+  final double FULL_BRAKE_DECEL = 6.0; // m/s^2
 
   public MockCANDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+    this(connectedNode, "", "");
+  }
+
+  public MockCANDriver(ConnectedNode connectedNode, String instanceName, String topicNamespace) {
+    super(connectedNode, instanceName, topicNamespace);
     // Topics
     // Published
-    accPub = connectedNode.newPublisher("can/acc_engaged", std_msgs.Bool._TYPE);
-    accelPub = connectedNode.newPublisher("can/acceleration", std_msgs.Float64._TYPE);
-    brakeLightsPub = connectedNode.newPublisher("can/brake_lights", std_msgs.Bool._TYPE);
-    brakePositionPub = connectedNode.newPublisher("can/brake_position", std_msgs.Float64._TYPE);
-    engineSpeedPub = connectedNode.newPublisher("can/engine_speed", std_msgs.Float64._TYPE);
-    fuelFlowPub = connectedNode.newPublisher("can/fuel_flow", std_msgs.Float64._TYPE);
-    odometryPub = connectedNode.newPublisher("can/odometer", std_msgs.Float64._TYPE);
-    parkingBrakePub = connectedNode.newPublisher("can/parking_brake", std_msgs.Bool._TYPE);
-    speedPub = connectedNode.newPublisher("can/speed", std_msgs.Float64._TYPE);
-    steeringPub = connectedNode.newPublisher("can/steering_wheel_angle", std_msgs.Float64._TYPE);
-    throttlePub = connectedNode.newPublisher("can/throttle_position", std_msgs.Float64._TYPE);
-    turnSignalPub = connectedNode.newPublisher("can/turn_signal_state", cav_msgs.TurnSignal._TYPE);
-    transmissionPub = connectedNode.newPublisher("can/transmission_state", j2735_msgs.TransmissionState._TYPE);
-    tractionActivePub = connectedNode.newPublisher("can/traction_ctrl_active", std_msgs.Bool._TYPE);
-    tractionEnabledPub = connectedNode.newPublisher("can/traction_ctrl_enabled", std_msgs.Bool._TYPE);
-    antilockBrakePub = connectedNode.newPublisher("can/antilock_brakes_active", std_msgs.Bool._TYPE);
-    stabilityActivePub = connectedNode.newPublisher("can/stability_ctrl_active", std_msgs.Bool._TYPE);
-    stabilityEnabledPub = connectedNode.newPublisher("can/stability_ctrl_enabled", std_msgs.Bool._TYPE);
+    accPub = connectedNode.newPublisher(topicName("can/acc_engaged"), std_msgs.Bool._TYPE);
+    accelPub = connectedNode.newPublisher(topicName("can/acceleration"), std_msgs.Float64._TYPE);
+    brakeLightsPub = connectedNode.newPublisher(topicName("can/brake_lights"), std_msgs.Bool._TYPE);
+    brakePositionPub = connectedNode.newPublisher(topicName("can/brake_position"), std_msgs.Float64._TYPE);
+    engineSpeedPub = connectedNode.newPublisher(topicName("can/engine_speed"), std_msgs.Float64._TYPE);
+    fuelFlowPub = connectedNode.newPublisher(topicName("can/fuel_flow"), std_msgs.Float64._TYPE);
+    odometryPub = connectedNode.newPublisher(topicName("can/odometer"), std_msgs.Float64._TYPE);
+    parkingBrakePub = connectedNode.newPublisher(topicName("can/parking_brake"), std_msgs.Bool._TYPE);
+    speedPub = connectedNode.newPublisher(topicName("can/speed"), std_msgs.Float64._TYPE);
+    steeringPub = connectedNode.newPublisher(topicName("can/steering_wheel_angle"), std_msgs.Float64._TYPE);
+    throttlePub = connectedNode.newPublisher(topicName("can/throttle_position"), std_msgs.Float64._TYPE);
+    turnSignalPub = connectedNode.newPublisher(topicName("can/turn_signal_state"), cav_msgs.TurnSignal._TYPE);
+    transmissionPub = connectedNode.newPublisher(topicName("can/transmission_state"), j2735_msgs.TransmissionState._TYPE);
+    tractionActivePub = connectedNode.newPublisher(topicName("can/traction_ctrl_active"), std_msgs.Bool._TYPE);
+    tractionEnabledPub = connectedNode.newPublisher(topicName("can/traction_ctrl_enabled"), std_msgs.Bool._TYPE);
+    antilockBrakePub = connectedNode.newPublisher(topicName("can/antilock_brakes_active"), std_msgs.Bool._TYPE);
+    stabilityActivePub = connectedNode.newPublisher(topicName("can/stability_ctrl_active"), std_msgs.Bool._TYPE);
+    stabilityEnabledPub = connectedNode.newPublisher(topicName("can/stability_ctrl_enabled"), std_msgs.Bool._TYPE);
+
+    candumpFilePath = params.getString(param("candump_file_path"), "");
+  }
+
+  /**
+   * Opens the candump log and compiles the DBC file if ~/candump_file_path is set
+   * Otherwise the data file is opened as usual
+   * @param connectedNode The node which is being started
+   */
+  @Override public void onStart(ConnectedNode connectedNode) {
+    if (candumpFilePath.isEmpty() || vehicleStateSource != null) {
+      super.onStart(connectedNode);
+      return;
+    }
+    startDiagnostics();
+    Map<String, Integer> signalColumns = new HashMap<>();
+    Map<String, Double> signalScales = new HashMap<>();
+    for (int column = 1; column < COLUMN_TOPICS.length; column++) {
+      String signalParam = param("dbc_signals/" + COLUMN_TOPICS[column]);
+      if (params.has(signalParam)) {
+        String signal = params.getString(signalParam);
+        signalColumns.put(signal, column);
+        signalScales.put(signal, params.getDouble(param("dbc_scales/" + COLUMN_TOPICS[column]), 1.0));
+      }
+    }
+    try {
+      dbc = DbcDecoder.compile(params.getString(param("dbc_file_path")), signalColumns, signalScales);
+      candump = new CandumpReader(candumpFilePath);
+      setTimedLog(candump);
+      log.info(getGraphName() + " replaying " + candumpFilePath + " decoding " + signalColumns.size()
+        + " signals from " + dbc.getMessageCount() + " messages");
+    } catch (IOException | RuntimeException e) {
+      log.warn(getGraphName() + " could not open candump log " + candumpFilePath + ". No data published "
+        + e.getMessage());
+      driverStatus = cav_msgs.DriverStatus.DEGRADED;
+      return;
+    }
+    warmUp();
+    if (candump != null) {
+      driverStatus = cav_msgs.DriverStatus.OPERATIONAL;
+    }
+  }
+
+  @Override protected void rewindAfterWarmUp() throws IOException {
+    super.rewindAfterWarmUp();
+    Arrays.fill(signalDecoded, false);
+  }
+
+  @Override protected void readAndPublishSample() {
+    if (candump == null) {
+      super.readAndPublishSample();
+      return;
+    }
+    try {
+      advanceTimedLog();
+    } catch (IOException e) {
+      log.warn(getGraphName() + " failed to read candump log. No data will be published " + e.getMessage());
+      closeCandump();
+      driverStatus = cav_msgs.DriverStatus.FAULT;
+      return;
+    }
+    publishDecodedSignals();
+  }
+
+  /**
+   * Decodes a frame of the candump log which became due
+   * @param lag The time in us since the frame was due
+   */
+  @Override protected void onLogRecord(long lag) {
+    long start = System.nanoTime();
+    dbc.decode(candump.getId(), candump.getData(), signalValues, signalDecoded);
+    metrics.addParseTime(System.nanoTime() - start);
+  }
+
+  /**
+   * Publishes the latest value of every decoded signal
+   */
+  private void publishDecodedSignals() {
+    for (int column = 1; column < EXPECTED_DATA_COL_COUNT; column++) {
+      if (!signalDecoded[column]) {
+        continue;
+      }
+      double value = signalValues[column];
+      switch (column) {
+        case ACC_IDX:
+          publishBool(accPub, value);
+          break;
+        case ACCEL_IDX:
+          publishFloat(accelPub, value);
+          break;
+        case BRAKE_LIGHTS_IDX:
+          publishBool(brakeLightsPub, value);
+          break;
+        case BRAKE_POS_IDX:
+          publishFloat(brakePositionPub, value);
+          break;
+        case ENGINE_SPEED_IDX:
+          publishFloat(engineSpeedPub, value);
+          break;
+        case FUEL_FLOW_IDX:
+          publishFloat(fuelFlowPub, value);
+          break;
+        case ODOMETRY_IDX:
+          publishFloat(odometryPub, value);
+          break;
+        case PARKING_BRAKE_IDX:
+          publishBool(parkingBrakePub, value);
+          break;
+        case SPEED_IDX:
+          publishFloat(speedPub, value);
+          break;
+        case STEERING_IDX:
+          publishFloat(steeringPub, value);
+          break;
+        case THROTTLE_IDX:
+          publishFloat(throttlePub, value);
+          break;
+        case TURN_SIGNAL_STATE_IDX:
+          cav_msgs.TurnSignal turnSignalState = turnSignalPub.newMessage();
+          turnSignalState.setState((byte) value);
+          publish(turnSignalPub, turnSignalState);
+          break;
+        case TRANSMISSION_STATE_IDX:
+          j2735_msgs.TransmissionState transmissionState = transmissionPub.newMessage();
+          transmissionState.setTransmissionState((byte) value);
+          publish(transmissionPub, transmissionState);
+          break;
+        case TRACTION_ACTIVE_IDX:
+          publishBool(tractionActivePub, value);
+          break;
+        case TRACTION_ENABLED_IDX:
+          publishBool(tractionEnabledPub, value);
+          break;
+        case ANTILOCK_BRAKE_IDX:
+          publishBool(antilockBrakePub, value);
+          break;
+        case STABILITY_ACTIVE_IDX:
+          publishBool(stabilityActivePub, value);
+          break;
+        case STABILITY_ENABLED_IDX:
+          publishBool(stabilityEnabledPub, value);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  private void publishFloat(Publisher<std_msgs.Float64> publisher, double value) {
+    std_msgs.Float64 message = publisher.newMessage();
+    message.setData(value);
+    publish(publisher, message);
+  }
+
+  private void publishBool(Publisher<std_msgs.Bool> publisher, double value) {
+    std_msgs.Bool message = publisher.newMessage();
+    message.setData(value != 0.0);
+    publish(publisher, message);
+  }
+
+  private void closeCandump() {
+    if (candump != null) {
+      try {
+        candump.close();
+      } catch (IOException e) {
+        log.warn(getGraphName() + " failed to close candump log. " + e.getMessage());
+      }
+      candump = null;
+      setTimedLog(null);
+    }
+  }
+
+  @Override public void onInterruption() {
+    super.onInterruption();
+    closeCandump();
   }
 
   @Override protected void publishData(List<String[]> data) {
@@ -142,27 +353,69 @@ public class MockCANDriver extends AbstractMockDriver {
       stabilityEnabledState.setData(Boolean.parseBoolean(elements[STABILITY_ENABLED_IDX]));
       
       // Publish Data
-      accPub.publish(acc);
-      accelPub.publish(accel);
-      brakeLightsPub.publish(brakeLights);
-      brakePositionPub.publish(brakePos);
-      engineSpeedPub.publish(engineSpeed);
-      fuelFlowPub.publish(fuelFlow);
-      odometryPub.publish(odometry);
-      parkingBrakePub.publish(parkingBrake);
-      speedPub.publish(speed);
-      steeringPub.publish(steering);
-      throttlePub.publish(throttle);
-      turnSignalPub.publish(turnSignalState);
-      transmissionPub.publish(transmissionState);
-      tractionActivePub.publish(tractionActiveState);
-      tractionEnabledPub.publish(tractionEnabledState);
-      antilockBrakePub.publish(antilockState);
-      stabilityActivePub.publish(stabilityActiveState);
-      stabilityEnabledPub.publish(stabilityEnabledState);
+      publish(accPub, acc);
+      publish(accelPub, accel);
+      publish(brakeLightsPub, brakeLights);
+      publish(brakePositionPub, brakePos);
+      publish(engineSpeedPub, engineSpeed);
+      publish(fuelFlowPub, fuelFlow);
+      publish(odometryPub, odometry);
+      publish(parkingBrakePub, parkingBrake);
+      publish(speedPub, speed);
+      publish(steeringPub, steering);
+      publish(throttlePub, throttle);
+      publish(turnSignalPub, turnSignalState);
+      publish(transmissionPub, transmissionState);
+      publish(tractionActivePub, tractionActiveState);
+      publish(tractionEnabledPub, tractionEnabledState);
+      publish(antilockBrakePub, antilockState);
+      publish(stabilityActivePub, stabilityActiveState);
+      publish(stabilityEnabledPub, stabilityEnabledState);
     }
   }
 
+  @Override protected boolean publishesVehicleState() {
+    return true;
+  }
+
+  @Override protected void publishVehicleState(Time time, VehicleState state) {
+    std_msgs.Float64 accel = accelPub.newMessage();
+    std_msgs.Bool brakeLights = brakeLightsPub.newMessage();
+    std_msgs.Float64 brakePos = brakePositionPub.newMessage();
+    std_msgs.Float64 odometry = odometryPub.newMessage();
+    std_msgs.Float64 speed = speedPub.newMessage();
+    std_msgs.Float64 steering = steeringPub.newMessage();
+    std_msgs.Float64 throttle = throttlePub.newMessage();
+
+    accel.setData(state.acceleration);
+    brakeLights.setData(state.acceleration < -BRAKE_LIGHTS_DECEL);
+    brakePos.setData(Math.min(Math.max(-state.acceleration / FULL_BRAKE_DECEL, 0.0), 1.0));
+    odometry.setData(state.odometer);
+    speed.setData(state.speed);
+    steering.setData(state.steeringWheelAngle);
+    throttle.setData(Math.min(Math.max(state.acceleration / FULL_THROTTLE_ACCEL, 0.0), 1.0));
+
+    publish(accelPub, accel);
+    publish(brakeLightsPub, brakeLights);
+    publish(brakePositionPub, brakePos);
+    publish(odometryPub, odometry);
+    publish(speedPub, speed);
+    publish(steeringPub, steering);
+    publish(throttlePub, throttle);
+  }
+
+  /**
+   * Booleans, the turn signal and the transmission state hold their last value
+   */
+  @Override protected SampleInterpolator.Kind[] getInterpolationKinds() {
+    SampleInterpolator.Kind[] kinds = SampleInterpolator.holdAll(EXPECTED_DATA_COL_COUNT);
+    for (short idx : new short[] {ACCEL_IDX, BRAKE_POS_IDX, ENGINE_SPEED_IDX, FUEL_FLOW_IDX, ODOMETRY_IDX,
+      SPEED_IDX, STEERING_IDX, THROTTLE_IDX}) {
+      kinds[idx] = SampleInterpolator.Kind.LINEAR;
+    }
+    return kinds;
+  }
+
   @Override protected short getExpectedColCount() {
     return EXPECTED_DATA_COL_COUNT;
   }
@@ -196,4 +449,68 @@ public class MockCANDriver extends AbstractMockDriver {
       "can/stability_ctrl_active",
       "can/stability_ctrl_enabled"));
   }
+
+  /**
+   * Records the topics of a real CAN driver in the layout of this driver's data file
+   * A sample group is written for each can/speed message with the latest value of every other topic
+   */
+  public static class Recorder extends CaptureRecorder {
+    static final String HEADER = "sample id,acc enabled,acceleration (m/s),brake lights enabled,brake position,"
+      + "engine speed,fuel flow,odometry,parking brake enabled,speed (m/s),steering wheel angle (rad),throttle,"
+      + "turn signal state, transmission state, traction active state, traction enabled state, antilock brake state,"
+      + " stability active state, stability enabled state";
+
+    public Recorder(ConnectedNode connectedNode, String namespace, CaptureWriter writer) {
+      super(connectedNode, namespace, writer, EXPECTED_DATA_COL_COUNT, SAMPLE_ID_IDX);
+    }
+
+    @Override public void start() {
+      recordBool("can/acc_engaged", ACC_IDX);
+      recordFloat("can/acceleration", ACCEL_IDX, false);
+      recordBool("can/brake_lights", BRAKE_LIGHTS_IDX);
+      recordFloat("can/brake_position", BRAKE_POS_IDX, false);
+      recordFloat("can/engine_speed", ENGINE_SPEED_IDX, false);
+      recordFloat("can/fuel_flow", FUEL_FLOW_IDX, false);
+      recordFloat("can/odometer", ODOMETRY_IDX, false);
+      recordBool("can/parking_brake", PARKING_BRAKE_IDX);
+      recordFloat("can/speed", SPEED_IDX, true);
+      recordFloat("can/steering_wheel_angle", STEERING_IDX, false);
+      recordFloat("can/throttle_position", THROTTLE_IDX, false);
+      subscribe("can/turn_signal_state", cav_msgs.TurnSignal._TYPE, new MessageListener<cav_msgs.TurnSignal>() {
+        @Override public void onNewMessage(cav_msgs.TurnSignal message) {
+          set(TURN_SIGNAL_STATE_IDX, message.getState());
+        }
+      });
+      subscribe("can/transmission_state", j2735_msgs.TransmissionState._TYPE,
+        new MessageListener<j2735_msgs.TransmissionState>() {
+          @Override public void onNewMessage(j2735_msgs.TransmissionState message) {
+            set(TRANSMISSION_STATE_IDX, message.getTransmissionState());
+          }
+        });
+      recordBool("can/traction_ctrl_active", TRACTION_ACTIVE_IDX);
+      recordBool("can/traction_ctrl_enabled", TRACTION_ENABLED_IDX);
+      recordBool("can/antilock_brakes_active", ANTILOCK_BRAKE_IDX);
+      recordBool("can/stability_ctrl_active", STABILITY_ACTIVE_IDX);
+      recordBool("can/stability_ctrl_enabled", STABILITY_ENABLED_IDX);
+    }
+
+    private void recordBool(String topic, final int column) {
+      subscribe(topic, std_msgs.Bool._TYPE, new MessageListener<std_msgs.Bool>() {
+        @Override public void onNewMessage(std_msgs.Bool message) {
+          set(column, message.getData());
+        }
+      });
+    }
+
+    private void recordFloat(String topic, final int column, final boolean trigger) {
+      subscribe(topic, std_msgs.Float64._TYPE, new MessageListener<std_msgs.Float64>() {
+        @Override public void onNewMessage(std_msgs.Float64 message) {
+          set(column, message.getData());
+          if (trigger) {
+            writeRow();
+          }
+        }
+      });
+    }
+  }
 }
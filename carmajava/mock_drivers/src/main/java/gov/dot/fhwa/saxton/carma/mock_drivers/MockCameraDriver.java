@@ -46,13 +46,17 @@ public class MockCameraDriver extends AbstractMockDriver {
   private final short SAMPLE_ID_IDX = 1;
 
   public MockCameraDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+    this(connectedNode, "", "");
+  }
+
+  public MockCameraDriver(ConnectedNode connectedNode, String instanceName, String topicNamespace) {
+    super(connectedNode, instanceName, topicNamespace);
     // Topics
     // Published
     imagePub =
-      connectedNode.newPublisher(imageTopic, sensor_msgs.Image._TYPE);
+      connectedNode.newPublisher(topicName(imageTopic), sensor_msgs.Image._TYPE);
     infoPub =
-      connectedNode.newPublisher(infoTopic, sensor_msgs.CameraInfo._TYPE);
+      connectedNode.newPublisher(topicName(infoTopic), sensor_msgs.CameraInfo._TYPE);
   }
 
   @Override protected void publishData(List<String[]> data) throws IllegalArgumentException {
@@ -60,12 +64,12 @@ public class MockCameraDriver extends AbstractMockDriver {
     sensor_msgs.Image image = imagePub.newMessage();
     // Set Header Data
     image.getHeader().setFrameId("camera");
-    image.getHeader().setStamp(connectedNode.getCurrentTime());
-    imagePub.publish(image);
+    image.getHeader().setStamp(getSampleTime());
+    publish(imagePub, image);
 
     sensor_msgs.CameraInfo info = infoPub.newMessage();
     info.setHeader(image.getHeader()); // Match headers
-    infoPub.publish(info);
+    publish(infoPub, info);
   }
 
   @Override protected short getExpectedColCount() {
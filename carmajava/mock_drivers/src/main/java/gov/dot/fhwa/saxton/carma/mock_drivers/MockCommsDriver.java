@@ -16,14 +16,14 @@
 
 package gov.dot.fhwa.saxton.carma.mock_drivers;
 
-import cav_msgs.ByteArray;
 import org.jboss.netty.buffer.ChannelBuffers;
-import org.ros.message.MessageListener;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 import org.ros.node.topic.Subscriber;
 
 import javax.xml.bind.DatatypeConverter;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -37,6 +37,17 @@ import java.util.List;
  * rosparam set /mock_driver/simulated_driver 'arada'
  * rosparam set /mock_driver/data_file_path '/home/username/temp.csv'
  * rosrun carmajava mock_drivers gov.dot.fhwa.saxton.carma.mock_drivers.MockDriverNode
+ * <p>
+ * Outbound messages are counted by a CommsOutboundSink. Setting ~/loopback to true also publishes them on the
+ * inbound topic after ~/loopback/delay_ms plus up to ~/loopback/delay_jitter_ms of jitter, losing
+ * ~/loopback/loss_percent of them.
+ * <p>
+ * Setting ~/udp/listen_port publishes every datagram received on ~/udp/listen_address as an inbound message
+ * through a UdpCommsBridge, and setting ~/udp/remote_port sends outbound messages to ~/udp/remote_address.
+ * The inbound message type is detected from the J2735 message id unless ~/udp/message_type is set.
+ * The data file is then optional.
+ * <p>
+ * Messages are published at ~/publish_rate, which defaults to one message per recorded vehicle each second.
  */
 public class MockCommsDriver extends AbstractMockDriver {
 
@@ -48,6 +59,8 @@ public class MockCommsDriver extends AbstractMockDriver {
   // Subscribed
   Subscriber<cav_msgs.ByteArray> outboundSub;
   final String outboundTopic = "comms/outbound_binary_msg";
+  protected final CommsOutboundSink outboundSink;
+  protected final UdpCommsBridge udpBridge; // Null unless ~/udp/listen_port is set
 
   private final int EXPECTED_DATA_COL_COUNT = 3;
 
@@ -62,18 +75,103 @@ public class MockCommsDriver extends AbstractMockDriver {
   int message_counter = 0; // Let driver send different inbound binary bytes
 
   public MockCommsDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+    this(connectedNode, "", "");
+  }
+
+  public MockCommsDriver(ConnectedNode connectedNode, String instanceName, String topicNamespace) {
+    super(connectedNode, instanceName, topicNamespace);
+    if (!params.has(param("publish_rate"))) {
+      // Without a configured rate each of the recorded vehicles sends one message every pulishDelay ms
+      publishRate = vehicle_number * 1000.0 / pulishDelay;
+      nominalPublishRate = publishRate;
+      metrics.setTargetRate(getTickRate());
+    }
     // Topics
     // Published
-    recvPub = connectedNode.newPublisher(recvTopic, cav_msgs.ByteArray._TYPE);
+    recvPub = connectedNode.newPublisher(topicName(recvTopic), cav_msgs.ByteArray._TYPE);
 
     // Subscribed
-    outboundSub = connectedNode.newSubscriber(outboundTopic, cav_msgs.ByteArray._TYPE);
-    outboundSub.addMessageListener(new MessageListener<ByteArray>() {
-      @Override public void onNewMessage(ByteArray byteArray) {
-        log.debug("Outbound " + byteArray.getMessageType() + " message received by " + getGraphName());
-      }
-    });
+    // Outbound messages may be looped back onto the inbound topic with their own latency and loss
+    outboundSink = new CommsOutboundSink(connectedNode);
+    if (params.getBoolean(param("loopback"), false)) {
+      TrafficProfile loopbackProfile = new TrafficProfile(params.getInteger(param("loopback/seed"), 0),
+        connectedNode.getScheduledExecutorService())
+        .setLoss(params.getDouble(param("loopback/loss_percent"), 0.0))
+        .setDelay(params.getDouble(param("loopback/delay_ms"), 0.0),
+          params.getDouble(param("loopback/delay_jitter_ms"), 0.0));
+      outboundSink.setLoopback(recvPub, loopbackProfile, new TrafficProfile.Sink() {
+        @Override public <T> void deliver(Publisher<T> publisher, T message) {
+          publishNow(publisher, message);
+        }
+      });
+    }
+    outboundSub = connectedNode.newSubscriber(topicName(outboundTopic), cav_msgs.ByteArray._TYPE);
+    outboundSub.addMessageListener(outboundSink);
+
+    // Datagrams of an external radio or stand-in process
+    int listenPort = params.getInteger(param("udp/listen_port"), 0);
+    if (listenPort > 0) {
+      int remotePort = params.getInteger(param("udp/remote_port"), 0);
+      udpBridge = new UdpCommsBridge(connectedNode, recvPub, new TrafficProfile.Sink() {
+        @Override public <T> void deliver(Publisher<T> publisher, T message) {
+          publish(publisher, message);
+        }
+      },
+        new InetSocketAddress(params.getString(param("udp/listen_address"), "127.0.0.1"), listenPort),
+        remotePort > 0 ?
+          new InetSocketAddress(params.getString(param("udp/remote_address"), "127.0.0.1"), remotePort) : null,
+        params.getString(param("udp/message_type"), ""));
+      outboundSub.addMessageListener(udpBridge);
+    } else {
+      udpBridge = null;
+    }
+  }
+
+  /**
+   * Starts the UDP bridge if it is configured
+   * The data file is only replayed alongside the bridge when ~/data_file_path is set
+   * @param connectedNode The node which is being started
+   */
+  @Override public void onStart(ConnectedNode connectedNode) {
+    if (udpBridge == null) {
+      super.onStart(connectedNode);
+      return;
+    }
+    if (!dataFilePath.isEmpty()) {
+      super.onStart(connectedNode);
+    } else {
+      startDiagnostics();
+      driverStatus = cav_msgs.DriverStatus.OPERATIONAL;
+    }
+    try {
+      udpBridge.start();
+      log.info(getGraphName() + " receiving comms datagrams on port " + params.getInteger(param("udp/listen_port")));
+    } catch (IOException e) {
+      log.warn(getGraphName() + " could not open the UDP comms bridge " + e.getMessage());
+      driverStatus = cav_msgs.DriverStatus.DEGRADED;
+    }
+  }
+
+  @Override public void onInterruption() {
+    super.onInterruption();
+    if (udpBridge != null) {
+      udpBridge.close();
+    }
+  }
+
+  /**
+   * Adds the outbound message counts and queueing delay to the driver diagnostics
+   */
+  @Override
+  protected void addDiagnostics(List<diagnostic_msgs.DiagnosticStatus> statuses, boolean reset) {
+    super.addDiagnostics(statuses, reset);
+    DiagnosticStatusBuilder builder = new DiagnosticStatusBuilder(messageFactory,
+      getGraphName() + ": " + outboundTopic, getGraphName().toString());
+    outboundSink.report(builder, reset);
+    if (udpBridge != null) {
+      udpBridge.report(builder);
+    }
+    statuses.add(builder.build());
   }
 
   @Override protected void publishData(List<String[]> data) {
@@ -84,7 +182,7 @@ public class MockCommsDriver extends AbstractMockDriver {
       // Set Data
       std_msgs.Header hdr = messageFactory.newFromType(std_msgs.Header._TYPE);
       hdr.setFrameId("0");
-      hdr.setStamp(connectedNode.getCurrentTime());
+      hdr.setStamp(getSampleTime());
 
       recvMsg.setHeader(hdr);
       recvMsg.setMessageType(elements[MSG_TYPE_IDX]);
@@ -131,11 +229,20 @@ public class MockCommsDriver extends AbstractMockDriver {
       
       // Publish Data
       if(!publish_control || (publish_control && ((System.currentTimeMillis() % (pause_length * 2)) < pause_length))) {
-    	  recvPub.publish(recvMsg);
+    	  publish(recvPub, recvMsg);
       }
     }
   }
 
+  /**
+   * Restarts the recorded vehicle and SPAT cycles advanced by the warm-up
+   */
+  @Override protected void rewindAfterWarmUp() throws IOException {
+    super.rewindAfterWarmUp();
+    current_vehicle = 0;
+    message_counter = 0;
+  }
+
   @Override protected short getExpectedColCount() {
     return EXPECTED_DATA_COL_COUNT;
   }
@@ -151,9 +258,4 @@ public class MockCommsDriver extends AbstractMockDriver {
   @Override public List<String> getDriverAPI() {
     return new ArrayList<>(Arrays.asList(recvTopic, outboundTopic));
   }
-  
-  @Override public long getPublishDelay() {
-	  
-	  return pulishDelay / vehicle_number; //Set delay here
-  }
 }
@@ -23,6 +23,7 @@ import cav_srvs.SetEnableRoboticResponse;
 import cav_srvs.SetLightsRequest;
 import cav_srvs.SetLightsResponse;
 import org.ros.exception.ServiceException;
+import org.ros.message.MessageListener;
 import org.ros.node.ConnectedNode;
 import org.ros.node.service.ServiceResponseBuilder;
 import org.ros.node.service.ServiceServer;
@@ -35,10 +36,21 @@ import cav_msgs.LightBarStatus; //MF 02/2019 Added Light Bar Status Topic
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A class which can be used to simulate a controller driver for the CARMA Platform.
  * <p>
+ * If ~/closed_loop is true the robot status is not read from a data file. Instead incoming vehicle commands drive
+ * a kinematic bicycle model stepped at ~/closed_loop_rate. Drivers which share the node, such as can and gnss,
+ * publish the state of that model. Commands are ignored until robotic control is enabled through
+ * controller/enable_robotic. Disabling it holds the speed and steering angle the model had at that moment.
+ * <p>
+ * The latency from header stamp to arrival and the inter-arrival jitter of every vehicle command are tracked.
+ * Percentiles over each ~/diagnostics_period are published on /diagnostics.
+ * <p>
  * Command line test:
  * ROSJava does not support rosrun parameter setting so a rosrun is a multi step process
  * rosparam set /mock_driver/simulated_driver 'controller'
@@ -59,58 +71,163 @@ public class MockControllerDriver extends AbstractMockDriver {
   protected final ServiceServer<SetEnableRoboticRequest, SetEnableRoboticResponse> enabledSrv;
   protected final ServiceServer<cav_srvs.SetLightsRequest, cav_srvs.SetLightsResponse> setLightsService;
 
-  private final int EXPECTED_DATA_COL_COUNT = 9;
-  private final short SAMPLE_ID_IDX = 0;
-  private final short BRAKE_DECEL_IDX = 1;
-  private final short ROBOT_ENABLED_IDX = 2;
-  private final short TORQUE_IDX = 3;
-  private final short HARDWARE_ID_IDX = 4;
-  private final short DIAG_LEVEL_IDX = 5;
-  private final short DIAG_MSG_IDX = 6;
-  private final short DIAG_KEY_MSG = 7;
-  private final short DIAG_VALUE_IDX = 8;
+  private static final int EXPECTED_DATA_COL_COUNT = 9;
+  private static final short SAMPLE_ID_IDX = 0;
+  private static final short BRAKE_DECEL_IDX = 1;
+  private static final short ROBOT_ENABLED_IDX = 2;
+  private static final short TORQUE_IDX = 3;
+  private static final short HARDWARE_ID_IDX = 4;
+  private static final short DIAG_LEVEL_IDX = 5;
+  private static final short DIAG_MSG_IDX = 6;
+  private static final short DIAG_KEY_MSG = 7;
+  private static final short DIAG_VALUE_IDX = 8;
+
+  // Closed loop vehicle model
+  protected final KinematicBicycleModel vehicleModel;
+  protected final double modelStepPeriod; // s
+  protected ScheduledFuture<?> modelStepTask = null;
+  protected volatile boolean robotEnabled = false;
+
+  // Command latency
+  protected final MessageLatencyTracker cmdLatencyTracker = new MessageLatencyTracker();
+  protected final double cmdLatencyWarn; // ms
 
   // Light bar states
-  protected boolean lightBarFlash = false;
-  protected boolean leftArrow = false;
-  protected boolean rightArrow = false;
-  protected boolean takedown = false;
+  protected final AtomicReference<LightBarState> lights = new AtomicReference<>(LightBarState.OFF);
 
   public MockControllerDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+    this(connectedNode, "", "");
+  }
+
+  public MockControllerDriver(ConnectedNode connectedNode, String instanceName, String topicNamespace) {
+    super(connectedNode, instanceName, topicNamespace);
+    // Parameters
+    if (params.getBoolean(param("closed_loop"), false)) {
+      LocalTangentPlane tangentPlane = new LocalTangentPlane(
+        params.getDouble(param("origin_latitude"), DEFAULT_ORIGIN_LAT),
+        params.getDouble(param("origin_longitude"), DEFAULT_ORIGIN_LON),
+        params.getDouble(param("origin_altitude"), 0.0));
+      vehicleModel = new KinematicBicycleModel(tangentPlane,
+        params.getDouble(param("wheel_base"), DEFAULT_WHEEL_BASE),
+        params.getDouble(param("steering_ratio"), DEFAULT_STEERING_RATIO),
+        params.getDouble(param("max_accel"), 3.0),
+        params.getDouble(param("max_decel"), 6.0),
+        params.getDouble(param("max_steering_angle"), 0.6),
+        params.getDouble(param("max_steering_rate"), 0.5),
+        params.getDouble(param("speed_gain"), 1.5));
+      vehicleModel.reset(
+        params.getDouble(param("initial_x"), 0.0),
+        params.getDouble(param("initial_y"), 0.0),
+        params.getDouble(param("initial_heading"), 0.0));
+      modelStepPeriod = 1.0 / params.getDouble(param("closed_loop_rate"), 100.0);
+    } else {
+      vehicleModel = null;
+      modelStepPeriod = 0.0;
+    }
+    cmdLatencyWarn = params.getDouble(param("cmd_latency_warn_ms"), 50.0);
+
     // Topics
     // Published
-    statusPub = connectedNode.newPublisher("controller/robot_status", RobotEnabled._TYPE);
+    statusPub = connectedNode.newPublisher(topicName("controller/robot_status"), RobotEnabled._TYPE);
 
     // Subscribed
-    cmdSub = connectedNode.newSubscriber("controller/vehicle_cmd", autoware_msgs.VehicleCmd._TYPE);
+    cmdSub = connectedNode.newSubscriber(topicName("controller/vehicle_cmd"), autoware_msgs.VehicleCmd._TYPE);
+    cmdSub.addMessageListener(new MessageListener<autoware_msgs.VehicleCmd>() {
+      @Override public void onNewMessage(autoware_msgs.VehicleCmd cmd) {
+        cmdLatencyTracker.record(cmd.getHeader().getStamp(), connectedNode.getCurrentTime(), System.nanoTime());
+        if (vehicleModel != null && robotEnabled) {
+          autoware_msgs.ControlCommand ctrl = cmd.getCtrlCmd();
+          vehicleModel.setCommand(ctrl.getLinearVelocity(), ctrl.getLinearAcceleration(), ctrl.getSteeringAngle());
+        }
+      }
+    });
 
-    enabledSrv = connectedNode.newServiceServer("controller/enable_robotic", cav_srvs.SetEnableRobotic._TYPE,
+    enabledSrv = connectedNode.newServiceServer(topicName("controller/enable_robotic"), cav_srvs.SetEnableRobotic._TYPE,
         new ServiceResponseBuilder<SetEnableRoboticRequest, SetEnableRoboticResponse>() {
           @Override
-          public void build(SetEnableRoboticRequest arg0, SetEnableRoboticResponse arg1) throws ServiceException {
-            // NO-OP
+          public void build(SetEnableRoboticRequest request, SetEnableRoboticResponse response) throws ServiceException {
+            boolean enabled = request.getSet() != 0;
+            if (vehicleModel != null && robotEnabled && !enabled) {
+              vehicleModel.holdCommand(); // Commands are ignored until robotic control is enabled again
+            }
+            robotEnabled = enabled;
           }
         });
 
     // Services
     // Server
-    setLightsService = connectedNode.newServiceServer("controller/set_lights", cav_srvs.SetLights._TYPE,
+    setLightsService = connectedNode.newServiceServer(topicName("controller/set_lights"), cav_srvs.SetLights._TYPE,
         new ServiceResponseBuilder<SetLightsRequest, SetLightsResponse>() {
           @Override
           public void build(cav_srvs.SetLightsRequest request, cav_srvs.SetLightsResponse response) {
 
-            cav_msgs.LightBarStatus lightStatus = request.getSetState();
-            lightBarFlash = lightStatus.getFlash() == 1;
-            leftArrow = lightStatus.getLeftArrow() == 1;
-            rightArrow = lightStatus.getRightArrow() == 1;
-            takedown = lightStatus.getTakedown() == 1;
-            log.info("Lights have been set to Flash: " + lightBarFlash + " Left: " + leftArrow + " Right: " + rightArrow
-                + " Takedown: " + takedown);
+            LightBarState state = LightBarState.fromStatus(request.getSetState());
+            if (lights.getAndSet(state) != state && log.isDebugEnabled()) {
+              log.debug("Lights have been set to " + state);
+            }
           }
         });
   }
   
+  @Override
+  public void onStart(ConnectedNode connectedNode) {
+    if (vehicleModel == null) {
+      super.onStart(connectedNode);
+      return;
+    }
+    startDiagnostics();
+    long periodNanos = (long) (modelStepPeriod * 1e9);
+    modelStepTask = connectedNode.getScheduledExecutorService().scheduleAtFixedRate(new Runnable() {
+      @Override public void run() {
+        vehicleModel.step(modelStepPeriod);
+      }
+    }, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    driverStatus = cav_msgs.DriverStatus.OPERATIONAL;
+  }
+
+  @Override
+  public void onInterruption() {
+    if (modelStepTask != null) {
+      modelStepTask.cancel(false);
+    }
+    super.onInterruption();
+  }
+
+  @Override
+  protected void readAndPublishSample() {
+    if (vehicleModel == null) {
+      super.readAndPublishSample();
+      return;
+    }
+    vehicleModel.sample(connectedNode.getCurrentTime(), vehicleState);
+    RobotEnabled statusMsg = statusPub.newMessage();
+    statusMsg.setRobotEnabled(robotEnabled);
+    statusMsg.setRobotActive(robotEnabled);
+    statusMsg.setBrakeDecel(Math.max(-vehicleState.acceleration, 0.0));
+    statusMsg.setTorque(0.0);
+    publish(statusPub, statusMsg);
+  }
+
+  /**
+   * Adds the vehicle command latency percentiles to the driver diagnostics
+   */
+  @Override
+  protected void addDiagnostics(List<diagnostic_msgs.DiagnosticStatus> statuses, boolean reset) {
+    super.addDiagnostics(statuses, reset);
+    DiagnosticStatusBuilder builder = new DiagnosticStatusBuilder(messageFactory,
+      getGraphName() + ": controller/vehicle_cmd", getGraphName().toString());
+    LatencyHistogram.Snapshot latency = cmdLatencyTracker.report(builder, reset);
+    if (latency.getPercentile(0.99) > cmdLatencyWarn * DiagnosticStatusBuilder.NS_PER_MS) {
+      builder.setLevel(diagnostic_msgs.DiagnosticStatus.WARN, "vehicle_cmd p99 latency above " + cmdLatencyWarn + " ms");
+    }
+    statuses.add(builder.build());
+  }
+
+  @Override
+  public IVehicleStateSource getProvidedVehicleStateSource() {
+    return vehicleModel;
+  }
+
   @Override
   protected void publishData(List<String[]> data) throws IllegalArgumentException {
 
@@ -124,10 +241,18 @@ public class MockControllerDriver extends AbstractMockDriver {
       statusMsg.setTorque(Double.parseDouble(elements[TORQUE_IDX]));
 
       // Publish Data
-      statusPub.publish(statusMsg);
+      publish(statusPub, statusMsg);
     }
   }
 
+  /**
+   * The hardware and diagnostic columns are not published so they may be empty, as in captured files
+   */
+  @Override
+  protected boolean isValidRow(String[] elements) {
+    return elements.length == EXPECTED_DATA_COL_COUNT && allSet(elements, 0, HARDWARE_ID_IDX);
+  }
+
   @Override
   protected short getExpectedColCount() {
     return EXPECTED_DATA_COL_COUNT;
@@ -149,4 +274,29 @@ public class MockControllerDriver extends AbstractMockDriver {
         Arrays.asList("controller/enable_robotic", "controller/vehicle_cmd",
             "controller/set_lights", "controller/robot_status"));
   }
+
+  /**
+   * Records the topics of a real controller driver in the layout of this driver's data file
+   * A sample group is written for each controller/robot_status message
+   * The hardware and diagnostic columns have no source topic and are left empty
+   */
+  public static class Recorder extends CaptureRecorder {
+    static final String HEADER = "sample id,brake deceleration (m/s^2),robot enabled,torque (Nm),hardware id,"
+      + "diagnostic level,diagnostic message,diagnostic key,diagnostic value";
+
+    public Recorder(ConnectedNode connectedNode, String namespace, CaptureWriter writer) {
+      super(connectedNode, namespace, writer, EXPECTED_DATA_COL_COUNT, SAMPLE_ID_IDX);
+    }
+
+    @Override public void start() {
+      subscribe("controller/robot_status", RobotEnabled._TYPE, new MessageListener<RobotEnabled>() {
+        @Override public void onNewMessage(RobotEnabled message) {
+          set(BRAKE_DECEL_IDX, message.getBrakeDecel());
+          set(ROBOT_ENABLED_IDX, message.getRobotEnabled());
+          set(TORQUE_IDX, message.getTorque());
+          writeRow();
+        }
+      });
+    }
+  }
 }
@@ -18,11 +18,22 @@ package gov.dot.fhwa.saxton.carma.mock_drivers;
 
 import gov.dot.fhwa.saxton.carma.rosjava_utils.SaxtonBaseNode;
 import org.apache.commons.logging.Log;
-import org.ros.concurrent.CancellableLoop;
 import org.ros.node.ConnectedNode;
+import org.ros.node.Node;
 import org.ros.node.parameter.ParameterTree;
 import org.ros.namespace.GraphName;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
 /**
  * A class which can be used to mimick different drivers for the CarmaPlatform.
  * For specific types of drivers this class should be extended.
@@ -32,9 +43,35 @@ import org.ros.namespace.GraphName;
  * rosparam set /mock_driver/simulated_driver 'can'
  * rosparam set /mock_driver/data_file_path '/home/username/temp.csv'
  * rosrun carmajava mock_drivers gov.dot.fhwa.saxton.carma.mock_drivers.MockDriverNode
+ * <p>
+ * Several drivers can share one node by setting simulated_driver to a list such as 'controller,can,gnss'.
+ * Each driver then advertises its private services under ~/driver_type/ and may override any private parameter there.
+ * <p>
+ * Several instances of one driver type are created with type:name entries such as
+ * 'radar:front_radar,radar:left_radar,camera:front_camera'. Each instance uses ~/name/ for its private services
+ * and parameters, so it can have its own ~/name/data_file_path and ~/name/phase_offset in s. Its topics and public
+ * services are placed under ~/name/namespace, which defaults to the instance name, so the front radar publishes
+ * front_radar/radar/tracks_raw. Instance names must be unique within the node, so a type listed twice needs a name
+ * in at least one entry. Entries which repeat an instance name are logged and skipped.
+ * The bag driver type replays the topics of the rosbag file at its data_file_path instead of a csv data file.
+ * Drivers normally run on their own threads. When the node hosts several instances of one type, or
+ * ~/shared_scheduler is true, all drivers of the node run on one DriverScheduler thread instead.
+ * <p>
+ * Setting ~/stress_profile to true ramps every driver in the node to find where publishing saturates.
+ * Every ~/stress_step_duration seconds the publish rate is multiplied by ~/stress_rate_factor and the number of
+ * times each data row is published by ~/stress_scale_factor until ~/stress_max_rate and ~/stress_max_scale are
+ * reached or the achieved rate drops below ~/stress_saturation_ratio of the target.
+ * The saturation curve of each driver is logged and written to ~/stress_output_dir if it is set.
+ * <p>
+ * Setting ~/record_dir switches the node to recording. No drivers are created. Instead the topics of the real can,
+ * gnss, controller and roadway_sensor drivers named in simulated_driver are recorded into name.csv in that
+ * directory, in the layout the mock driver replays. Entries use the same type:name form and ~/name/namespace as above.
+ * Lines are written in the background and at most ~/record_queue_capacity of them may wait, beyond which they are
+ * dropped rather than slowing the subscribers.
  */
 public class MockDriverNode extends SaxtonBaseNode {
   private String defaultName =  "mock_driver";
+  private final List<CaptureRecorder> recorders = new ArrayList<>();
 
   @Override public GraphName getDefaultNodeName() {
     return GraphName.of(defaultName);
@@ -43,64 +80,227 @@ public class MockDriverNode extends SaxtonBaseNode {
   @Override public void onSaxtonStart(final ConnectedNode connectedNode) {
     final Log log = connectedNode.getLog();
     final ParameterTree params = connectedNode.getParameterTree();
-    final IMockDriver simulatedDriver;
-    String switchValue = params.getString("~/simulated_driver");
+
+    // A list of driver types creates one driver of each type in this node
+    String[] driverEntries = params.getString("~/simulated_driver").trim().split("[,\\s]+");
+    String recordDir = params.getString("~/record_dir", "");
+    if (!recordDir.isEmpty()) {
+      startRecorders(driverEntries, recordDir, connectedNode);
+      return;
+    }
+    final List<IMockDriver> simulatedDrivers = new LinkedList<>();
+    Set<String> driverTypes = new HashSet<>();
+    Set<String> instanceNames = new HashSet<>();
+    boolean repeatedType = false;
+    for (String driverEntry : driverEntries) {
+      String[] typeAndName = driverEntry.split(":", 2);
+      String driverType = typeAndName[0];
+      String instanceName = typeAndName.length > 1 ? typeAndName[1] : driverEntries.length > 1 ? driverType : "";
+      if (!instanceNames.add(instanceName)) {
+        log.error("Driver entry " + driverEntry + " repeats the instance name " + instanceName
+          + ". It will not be created. Use type:name entries to run several drivers of one type");
+        continue;
+      }
+      repeatedType |= !driverTypes.add(driverType);
+      simulatedDrivers.add(newDriver(driverType, instanceName, namespaceOf(typeAndName, params), connectedNode, log));
+    }
+
+    // Share the vehicle state of a closed loop driver with the other drivers in this node
+    IVehicleStateSource sharedStateSource = null;
+    for (IMockDriver simulatedDriver : simulatedDrivers) {
+      if (simulatedDriver.getProvidedVehicleStateSource() != null) {
+        sharedStateSource = simulatedDriver.getProvidedVehicleStateSource();
+      }
+    }
+    for (IMockDriver simulatedDriver : simulatedDrivers) {
+      if (sharedStateSource != null && simulatedDriver.getProvidedVehicleStateSource() == null) {
+        simulatedDriver.useVehicleStateSource(sharedStateSource);
+      }
+    }
+
+    for (IMockDriver simulatedDriver : simulatedDrivers) {
+      simulatedDriver.onStart(connectedNode);
+    }
+    // These loops will be canceled automatically when the node shuts down.
+    if (params.getBoolean("~/shared_scheduler", repeatedType)) {
+      connectedNode.executeCancellableLoop(new DriverScheduler(simulatedDrivers));
+    } else {
+      for (IMockDriver simulatedDriver : simulatedDrivers) {
+        connectedNode.executeCancellableLoop(new DriverScheduler(Collections.singletonList(simulatedDriver)));
+      }
+    }
+
+    if (params.getBoolean("~/stress_profile", false)) {
+      for (IMockDriver simulatedDriver : simulatedDrivers) {
+        startStressProfile(simulatedDriver, connectedNode);
+      }
+    }
+  }//onStart
+
+  /**
+   * Starts recording the topics of the real drivers named by simulated_driver
+   * @param driverEntries The type or type:name entries of simulated_driver
+   * @param recordDir The directory of the capture files
+   * @param connectedNode The node used to subscribe
+   */
+  private void startRecorders(String[] driverEntries, String recordDir, ConnectedNode connectedNode) {
+    Log log = connectedNode.getLog();
+    ParameterTree params = connectedNode.getParameterTree();
+    int capacity = params.getInteger("~/record_queue_capacity", 65536);
+    for (String driverEntry : driverEntries) {
+      String[] typeAndName = driverEntry.split(":", 2);
+      String driverType = typeAndName[0];
+      String instanceName = typeAndName.length > 1 ? typeAndName[1] : driverType;
+      String namespace = namespaceOf(typeAndName, params);
+      String header = getRecorderHeader(driverType);
+      if (header == null) {
+        log.warn("Recording is not supported for driver type " + driverType + ". It will not be recorded");
+        continue;
+      }
+      try {
+        CaptureWriter writer = new CaptureWriter(Paths.get(recordDir, instanceName + ".csv"), header, capacity, log);
+        CaptureRecorder recorder = newRecorder(driverType, connectedNode, namespace, writer);
+        recorder.start();
+        recorders.add(recorder);
+        log.info("Recording " + driverType + " topics into " + Paths.get(recordDir, instanceName + ".csv"));
+      } catch (IOException e) {
+        log.error("Could not open the capture file of " + instanceName + " in " + recordDir, e);
+      }
+    }
+  }
+
+  /**
+   * Gets the topic namespace of a simulated_driver entry
+   * @param typeAndName The entry split into its type and, if it has one, its name
+   * @param params The parameters of the node
+   * @return ~/name/namespace, defaulting to the name, for a type:name entry. Empty for a type entry
+   */
+  static String namespaceOf(String[] typeAndName, ParameterTree params) {
+    if (typeAndName.length < 2) {
+      return "";
+    }
+    return params.getString("~/" + typeAndName[1] + "/namespace", typeAndName[1]);
+  }
+
+  /**
+   * @param driverType The driver type
+   * @return The data file header of the driver type. Null if the type cannot be recorded
+   */
+  static String getRecorderHeader(String driverType) {
+    switch (driverType) {
+      case "can":
+        return MockCANDriver.Recorder.HEADER;
+      case "gnss":
+        return MockGnssDriver.Recorder.HEADER;
+      case "controller":
+        return MockControllerDriver.Recorder.HEADER;
+      case "roadway_sensor":
+        return MockRoadwaySensorDriver.Recorder.HEADER;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Creates the recorder of a driver type
+   * @param driverType The driver type. Must have a header from getRecorderHeader
+   * @param connectedNode The node used to subscribe
+   * @param namespace The namespace of the real driver's topics. Empty for none
+   * @param writer The writer of the capture file
+   * @return The new recorder
+   */
+  static CaptureRecorder newRecorder(String driverType, ConnectedNode connectedNode, String namespace,
+    CaptureWriter writer) {
+    switch (driverType) {
+      case "can":
+        return new MockCANDriver.Recorder(connectedNode, namespace, writer);
+      case "gnss":
+        return new MockGnssDriver.Recorder(connectedNode, namespace, writer);
+      case "controller":
+        return new MockControllerDriver.Recorder(connectedNode, namespace, writer);
+      case "roadway_sensor":
+        return new MockRoadwaySensorDriver.Recorder(connectedNode, namespace, writer);
+      default:
+        throw new IllegalArgumentException("Recording is not supported for driver type " + driverType);
+    }
+  }
+
+  @Override public void onShutdown(Node node) {
+    for (CaptureRecorder recorder : recorders) {
+      try {
+        recorder.shutdown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      CaptureWriter writer = recorder.getWriter();
+      node.getLog().info("Capture " + writer.getPath() + " finished with " + writer.getWrittenLines()
+        + " lines written and " + writer.getDroppedLines() + " dropped");
+    }
+    recorders.clear();
+  }
+
+  /**
+   * Starts ramping the publish rate and sample scale of a driver
+   * @param driver The driver to ramp
+   * @param connectedNode The node hosting the driver
+   */
+  private void startStressProfile(IMockDriver driver, ConnectedNode connectedNode) {
+    ParameterTree params = connectedNode.getParameterTree();
+    String outputDir = params.getString("~/stress_output_dir", "");
+    String outputFile = outputDir.isEmpty() ? "" :
+      new File(outputDir, driver.getGraphName().toString().replaceAll("^/", "").replace('/', '_')
+        + "_saturation.csv").getPath();
+    StressProfile profile = new StressProfile(driver, connectedNode.getLog(),
+      params.getDouble("~/stress_rate_factor", 2.0),
+      params.getInteger("~/stress_scale_factor", 2),
+      params.getDouble("~/stress_max_rate", 1000.0),
+      params.getInteger("~/stress_max_scale", 64),
+      params.getDouble("~/stress_saturation_ratio", 0.9),
+      outputFile);
+    long stepMillis = (long) (params.getDouble("~/stress_step_duration", 5.0) * 1000);
+    connectedNode.getScheduledExecutorService()
+      .scheduleAtFixedRate(profile, stepMillis, stepMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Creates the driver matching a simulated_driver value
+   * @param switchValue The driver type
+   * @param instanceName The name of the driver within this node. Empty if it is the only driver
+   * @param topicNamespace The prefix of the driver's topics and public services. Empty for none
+   * @param connectedNode The node hosting the driver
+   * @param log The log of the node
+   * @return The new driver. A CAN driver if the type is not recognized
+   */
+  static IMockDriver newDriver(String switchValue, String instanceName, String topicNamespace,
+    ConnectedNode connectedNode, Log log) {
     switch (switchValue) {
       case "can":
-        simulatedDriver = new MockCANDriver(connectedNode);
-        break;
+        return new MockCANDriver(connectedNode, instanceName, topicNamespace);
       case "comms":
-        simulatedDriver = new MockCommsDriver(connectedNode);
-        break;
+        return new MockCommsDriver(connectedNode, instanceName, topicNamespace);
       case "controller":
-        simulatedDriver = new MockControllerDriver(connectedNode);
-        break;
+        return new MockControllerDriver(connectedNode, instanceName, topicNamespace);
       case "radar":
-        simulatedDriver = new MockRadarDriver(connectedNode);
-        break;
+        return new MockRadarDriver(connectedNode, instanceName, topicNamespace);
       case "imu":
-        simulatedDriver = new MockImuDriver(connectedNode);
-        break;
+        return new MockImuDriver(connectedNode, instanceName, topicNamespace);
       case "gnss":
-        simulatedDriver = new MockGnssDriver(connectedNode);
-        break;
+        return new MockGnssDriver(connectedNode, instanceName, topicNamespace);
       case "lidar":
-        simulatedDriver = new MockLidarDriver(connectedNode);
-        break;
+        return new MockLidarDriver(connectedNode, instanceName, topicNamespace);
       case "roadway_sensor":
-        simulatedDriver = new MockRoadwaySensorDriver(connectedNode);
-        break;
+        return new MockRoadwaySensorDriver(connectedNode, instanceName, topicNamespace);
       case "camera":
-        simulatedDriver = new MockCameraDriver(connectedNode);
-        break;
+        return new MockCameraDriver(connectedNode, instanceName, topicNamespace);
       case "lightbar":
-        simulatedDriver = new MockLightBarDriver(connectedNode);
-        break;
+        return new MockLightBarDriver(connectedNode, instanceName, topicNamespace);
+      case "bag":
+        return new MockBagDriver(connectedNode, instanceName, topicNamespace);
       default:
         log.warn("==== No valid driver name specified on the simulated_driver parameter. Defaulting to CAN driver \n The simulated_driver value received is: " + switchValue +  " ...");
-        simulatedDriver = new MockCANDriver(connectedNode);
-        break;
+        return new MockCANDriver(connectedNode, instanceName, topicNamespace);
     }
-
-    simulatedDriver.onStart(connectedNode);
-    // This CancellableLoop will be canceled automatically when the node shuts
-    // down.
-    connectedNode.executeCancellableLoop(new CancellableLoop() {
-
-      @Override protected void loop() throws InterruptedException {
-        simulatedDriver.publishDriverStatus();
-        simulatedDriver.readAndPublishData();
-
-        Thread.sleep(simulatedDriver.getPublishDelay());
-      }//loop
-
-      @Override protected void handleInterruptedException(InterruptedException e) {
-        simulatedDriver.onInterruption();
-        super.handleInterruptedException(e);
-      }
-    });//executeCancellableLoop
-
-  }//onStart
+  }
 
   @Override protected void handleException(Throwable e) {
 
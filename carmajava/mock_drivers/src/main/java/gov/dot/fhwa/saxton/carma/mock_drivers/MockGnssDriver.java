@@ -16,10 +16,12 @@
 
 package gov.dot.fhwa.saxton.carma.mock_drivers;
 
+import org.ros.message.MessageListener;
 import org.ros.message.Time;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -27,6 +29,15 @@ import java.util.List;
 /**
  * A class which can be used to simulate a GNSS driver for the CARMA Platform.
  * <p>
+ * If ~/route_file_path is set no data file is used. The driver instead publishes the state of a vehicle
+ * driving that route at ~/publish_rate. See RouteTrajectory for the route file format.
+ * <p>
+ * If ~/gnss_log_file_path is set the epochs of that receiver log are replayed at their recorded spacing instead of a
+ * data file. The log may hold NMEA GGA, RMC and VTG sentences and u-blox UBX NAV-PVT messages. See GnssLogReader.
+ * Every epoch which became due is published on each tick with its stamp offset by its recorded lag, so ~/publish_rate
+ * should be at least the receiver rate, such as 100 for a 100 Hz receiver, to publish each epoch on its own tick.
+ * The position covariance is the diagonal of the reported accuracies or, for NMEA, approximated from the HDOP.
+ * <p>
  * Command line test:
  * ROSJava does not support rosrun parameter setting so a rosrun is a multi step process
  * rosparam set /mock_driver/simulated_driver 'gnss'
@@ -43,50 +54,224 @@ public class MockGnssDriver extends AbstractMockDriver {
 
   // CONSTANTS
   // TODO update for different message spec
-  final short SAMPLE_ID_IDX = 0;
-  final short HEADING_IDX = 1;
-  final short NAV_SRV_IDX = 2;
-  final short NAV_STATUS_IDX = 3;
-  final short NAV_LAT_IDX = 4;
-  final short NAV_LON_IDX = 5;
-  final short NAV_ALT_IDX = 6;
-  final short NAV_POS_COVR_TYPE_IDX = 7;
-  final short ODOM_TWIST_ANG_X_IDX = 8;
-  final short ODOM_TWIST_ANG_Y_IDX = 9;
-  final short ODOM_TWIST_ANG_Z_IDX = 10;
-  final short ODOM_TWIST_LIN_X_IDX = 11;
-  final short ODOM_TWIST_LIN_Y_IDX = 12;
-  final short ODOM_TWIST_LIN_Z_IDX = 13;
-  final short POINT_X_IDX = 14;
-  final short POINT_Y_IDX = 15;
-  final short POINT_Z_IDX = 16;
-  final short QUAT_W_IDX = 17;
-  final short QUAT_X_IDX = 18;
-  final short QUAT_Y_IDX = 19;
-  final short QUAT_Z_IDX = 20;
-  final short VEL_ANG_X_IDX = 21;
-  final short VEL_ANG_Y_IDX = 22;
-  final short VEL_ANG_Z_IDX = 23;
-  final short VEL_LIN_X_IDX = 24;
-  final short VEL_LIN_Y_IDX = 25;
-  final short VEL_LIN_Z_IDX = 26;
-  final short COVARINCE_ELEMENT_COUNT = 36;
-  final short POS_COVARINCE_ELEMENT_COUNT = 9;
-  final short MIN_POSE_COVAR_IDX = 27;
-  final short MIN_ODOM_TWIST_COVAR_IDX = MIN_POSE_COVAR_IDX + POS_COVARINCE_ELEMENT_COUNT;
-  final short MIN_ODOM_POSE_COVAR_IDX = MIN_ODOM_TWIST_COVAR_IDX + COVARINCE_ELEMENT_COUNT;
-  private final short EXPECTED_DATA_COL_COUNT = MIN_ODOM_POSE_COVAR_IDX + COVARINCE_ELEMENT_COUNT;
+  static final short SAMPLE_ID_IDX = 0;
+  static final short HEADING_IDX = 1;
+  static final short NAV_SRV_IDX = 2;
+  static final short NAV_STATUS_IDX = 3;
+  static final short NAV_LAT_IDX = 4;
+  static final short NAV_LON_IDX = 5;
+  static final short NAV_ALT_IDX = 6;
+  static final short NAV_POS_COVR_TYPE_IDX = 7;
+  static final short ODOM_TWIST_ANG_X_IDX = 8;
+  static final short ODOM_TWIST_ANG_Y_IDX = 9;
+  static final short ODOM_TWIST_ANG_Z_IDX = 10;
+  static final short ODOM_TWIST_LIN_X_IDX = 11;
+  static final short ODOM_TWIST_LIN_Y_IDX = 12;
+  static final short ODOM_TWIST_LIN_Z_IDX = 13;
+  static final short POINT_X_IDX = 14;
+  static final short POINT_Y_IDX = 15;
+  static final short POINT_Z_IDX = 16;
+  static final short QUAT_W_IDX = 17;
+  static final short QUAT_X_IDX = 18;
+  static final short QUAT_Y_IDX = 19;
+  static final short QUAT_Z_IDX = 20;
+  static final short VEL_ANG_X_IDX = 21;
+  static final short VEL_ANG_Y_IDX = 22;
+  static final short VEL_ANG_Z_IDX = 23;
+  static final short VEL_LIN_X_IDX = 24;
+  static final short VEL_LIN_Y_IDX = 25;
+  static final short VEL_LIN_Z_IDX = 26;
+  static final short COVARINCE_ELEMENT_COUNT = 36;
+  static final short POS_COVARINCE_ELEMENT_COUNT = 9;
+  static final short MIN_POSE_COVAR_IDX = 27;
+  static final short MIN_ODOM_TWIST_COVAR_IDX = MIN_POSE_COVAR_IDX + POS_COVARINCE_ELEMENT_COUNT;
+  static final short MIN_ODOM_POSE_COVAR_IDX = MIN_ODOM_TWIST_COVAR_IDX + COVARINCE_ELEMENT_COUNT;
+  private static final short EXPECTED_DATA_COL_COUNT = MIN_ODOM_POSE_COVAR_IDX + COVARINCE_ELEMENT_COUNT;
+  final double ROUTE_POSITION_VARIANCE = 0.01; // m^2
+  static final double NMEA_RANGE_ERROR = 3.0; // m. The range error scaled by the HDOP to approximate the accuracy
+  static final int YAW_COVAR_IDX = 35;
+
+  private int stateSeq = 0;
+
+  // Receiver log replay
+  protected final String gnssLogFilePath;
+  protected GnssLogReader gnssLog = null;
+  private Time tickTime = null; // The time of the current tick, used to stamp due epochs
 
   public MockGnssDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+    this(connectedNode, "", "");
+  }
+
+  public MockGnssDriver(ConnectedNode connectedNode, String instanceName, String topicNamespace) {
+    super(connectedNode, instanceName, topicNamespace);
     // Topics
     // Published
     headingPub =
-      connectedNode.newPublisher("gnss/heading_raw", geometry_msgs.PoseWithCovarianceStamped._TYPE);
+      connectedNode.newPublisher(topicName("gnss/heading_raw"), geometry_msgs.PoseWithCovarianceStamped._TYPE);
     navSatFixPub =
-      connectedNode.newPublisher("gnss/fix_raw", sensor_msgs.NavSatFix._TYPE);
+      connectedNode.newPublisher(topicName("gnss/fix_raw"), sensor_msgs.NavSatFix._TYPE);
     velocityPub =
-      connectedNode.newPublisher("gnss/vel_raw", geometry_msgs.TwistWithCovarianceStamped._TYPE);
+      connectedNode.newPublisher(topicName("gnss/vel_raw"), geometry_msgs.TwistWithCovarianceStamped._TYPE);
+
+    gnssLogFilePath = params.getString(param("gnss_log_file_path"), "");
+  }
+
+  /**
+   * Opens the receiver log if ~/gnss_log_file_path is set
+   * Otherwise the data file is opened as usual
+   * @param connectedNode The node which is being started
+   */
+  @Override public void onStart(ConnectedNode connectedNode) {
+    if (gnssLogFilePath.isEmpty() || vehicleStateSource != null) {
+      super.onStart(connectedNode);
+      return;
+    }
+    startDiagnostics();
+    try {
+      gnssLog = new GnssLogReader(gnssLogFilePath);
+      setTimedLog(gnssLog);
+      log.info(getGraphName() + " replaying " + gnssLogFilePath);
+    } catch (IOException e) {
+      log.warn(getGraphName() + " could not open GNSS log " + gnssLogFilePath + ". No data published "
+        + e.getMessage());
+      driverStatus = cav_msgs.DriverStatus.DEGRADED;
+      return;
+    }
+    warmUp();
+    if (gnssLog != null) {
+      driverStatus = cav_msgs.DriverStatus.OPERATIONAL;
+    }
+  }
+
+  @Override protected void rewindAfterWarmUp() throws IOException {
+    super.rewindAfterWarmUp();
+    stateSeq = 0;
+  }
+
+  @Override protected void readAndPublishSample() {
+    if (gnssLog == null) {
+      super.readAndPublishSample();
+      return;
+    }
+    try {
+      tickTime = connectedNode.getCurrentTime();
+      advanceTimedLog();
+    } catch (IOException e) {
+      log.warn(getGraphName() + " failed to read GNSS log. No data will be published " + e.getMessage());
+      closeGnssLog();
+      driverStatus = cav_msgs.DriverStatus.FAULT;
+    }
+  }
+
+  /**
+   * Publishes an epoch of the receiver log which became due, stamped with the time it was due
+   * @param lag The time in us on the log's clock since the epoch was due
+   */
+  @Override protected void onLogRecord(long lag) {
+    publishEpoch(Time.fromNano(tickTime.totalNsecs() - (long) (lag * 1000 / playbackRate)));
+  }
+
+  /**
+   * Publishes the current epoch of the log on the topics it has data for
+   * @param time The header stamp
+   */
+  private void publishEpoch(Time time) {
+    int seq = stateSeq++;
+    if (gnssLog.hasPosition()) {
+      sensor_msgs.NavSatFix navMsg = navSatFixPub.newMessage();
+      navMsg.getHeader().setFrameId("pinpoint");
+      navMsg.getHeader().setSeq(seq);
+      navMsg.getHeader().setStamp(time);
+      navMsg.getStatus().setService(sensor_msgs.NavSatStatus.SERVICE_GPS);
+      navMsg.getStatus().setStatus(gnssLog.getStatus());
+      navMsg.setLatitude(gnssLog.getLatitude());
+      navMsg.setLongitude(gnssLog.getLongitude());
+      navMsg.setAltitude(gnssLog.getAltitude());
+      double[] posCovariance = new double[POS_COVARINCE_ELEMENT_COUNT];
+      double horizontal = gnssLog.getHorizontalAccuracy();
+      double vertical = gnssLog.getVerticalAccuracy();
+      if (!Double.isNaN(horizontal) && !Double.isNaN(vertical)) {
+        navMsg.setPositionCovarianceType(sensor_msgs.NavSatFix.COVARIANCE_TYPE_DIAGONAL_KNOWN);
+      } else if (!Double.isNaN(gnssLog.getHdop())) {
+        horizontal = gnssLog.getHdop() * NMEA_RANGE_ERROR;
+        vertical = 2.0 * horizontal; // Vertical errors are typically about twice the horizontal errors
+        navMsg.setPositionCovarianceType(sensor_msgs.NavSatFix.COVARIANCE_TYPE_APPROXIMATED);
+      } else {
+        horizontal = 0.0;
+        vertical = 0.0;
+        navMsg.setPositionCovarianceType(sensor_msgs.NavSatFix.COVARIANCE_TYPE_UNKNOWN);
+      }
+      posCovariance[0] = horizontal * horizontal;
+      posCovariance[4] = horizontal * horizontal;
+      posCovariance[8] = vertical * vertical;
+      navMsg.setPositionCovariance(posCovariance);
+      publish(navSatFixPub, navMsg);
+    }
+
+    if (gnssLog.hasCourse()) {
+      geometry_msgs.PoseWithCovarianceStamped headingMsg = headingPub.newMessage();
+      headingMsg.getHeader().setFrameId("0");
+      headingMsg.getHeader().setStamp(time);
+      headingMsg.getHeader().setSeq(seq);
+      double heading = Math.PI / 2.0 - Math.toRadians(gnssLog.getCourse()); // ENU yaw from the course over ground
+      geometry_msgs.Quaternion orientation = headingMsg.getPose().getPose().getOrientation();
+      orientation.setW(Math.cos(heading / 2.0));
+      orientation.setZ(Math.sin(heading / 2.0));
+      if (!Double.isNaN(gnssLog.getCourseAccuracy())) {
+        double[] poseCovariance = new double[COVARINCE_ELEMENT_COUNT];
+        double courseAccuracy = Math.toRadians(gnssLog.getCourseAccuracy());
+        poseCovariance[YAW_COVAR_IDX] = courseAccuracy * courseAccuracy;
+        headingMsg.getPose().setCovariance(poseCovariance);
+      }
+      publish(headingPub, headingMsg);
+    }
+
+    if (gnssLog.hasSpeed()) {
+      geometry_msgs.TwistWithCovarianceStamped velocityMsg = velocityPub.newMessage();
+      velocityMsg.getHeader().setFrameId("base_link");
+      velocityMsg.getHeader().setSeq(seq);
+      velocityMsg.getHeader().setStamp(time);
+      velocityMsg.getTwist().getTwist().getLinear().setX(gnssLog.getSpeed());
+      if (!Double.isNaN(gnssLog.getSpeedAccuracy())) {
+        double[] twistCovariance = new double[COVARINCE_ELEMENT_COUNT];
+        twistCovariance[0] = gnssLog.getSpeedAccuracy() * gnssLog.getSpeedAccuracy();
+        velocityMsg.getTwist().setCovariance(twistCovariance);
+      }
+      publish(velocityPub, velocityMsg);
+    }
+  }
+
+  /**
+   * Adds the rejected record counts of the receiver log to the driver diagnostics
+   */
+  @Override
+  protected void addDiagnostics(List<diagnostic_msgs.DiagnosticStatus> statuses, boolean reset) {
+    super.addDiagnostics(statuses, reset);
+    GnssLogReader reader = gnssLog;
+    if (reader != null) {
+      DiagnosticStatusBuilder builder = new DiagnosticStatusBuilder(messageFactory,
+        getGraphName() + ": " + gnssLogFilePath, getGraphName().toString());
+      builder.add("skipped records", reader.getSkippedRecords());
+      builder.add("checksum errors", reader.getChecksumErrors());
+      statuses.add(builder.build());
+    }
+  }
+
+  private void closeGnssLog() {
+    if (gnssLog != null) {
+      try {
+        gnssLog.close();
+      } catch (IOException e) {
+        log.warn(getGraphName() + " failed to close GNSS log. " + e.getMessage());
+      }
+      gnssLog = null;
+      setTimedLog(null);
+    }
+  }
+
+  @Override public void onInterruption() {
+    super.onInterruption();
+    closeGnssLog();
   }
 
   @Override protected void publishData(List<String[]> data) throws IllegalArgumentException {
@@ -99,7 +284,7 @@ public class MockGnssDriver extends AbstractMockDriver {
 
       // Get data for headers
       int seq = Integer.parseInt(elements[SAMPLE_ID_IDX]);
-      Time time = connectedNode.getCurrentTime();
+      Time time = getSampleTime();
 
       // Set Data
       // Build Heading Message
@@ -149,12 +334,78 @@ public class MockGnssDriver extends AbstractMockDriver {
       velocityMsg.getTwist().setTwist(twist);
 
       // Publish Data
-      headingPub.publish(headingMsg);
-      navSatFixPub.publish(navMsg);
-      velocityPub.publish(velocityMsg);
+      publish(headingPub, headingMsg);
+      publish(navSatFixPub, navMsg);
+      publish(velocityPub, velocityMsg);
     }
   }
 
+  @Override protected boolean publishesVehicleState() {
+    return true;
+  }
+
+  @Override protected void publishVehicleState(Time time, VehicleState state) {
+    geometry_msgs.PoseWithCovarianceStamped headingMsg = headingPub.newMessage();
+    sensor_msgs.NavSatFix navMsg = navSatFixPub.newMessage();
+    geometry_msgs.TwistWithCovarianceStamped velocityMsg = velocityPub.newMessage();
+    int seq = stateSeq++;
+
+    // Build Heading Message
+    headingMsg.getHeader().setFrameId("0");
+    headingMsg.getHeader().setStamp(time);
+    headingMsg.getHeader().setSeq(seq);
+    geometry_msgs.Quaternion orientation = headingMsg.getPose().getPose().getOrientation();
+    orientation.setW(Math.cos(state.heading / 2.0));
+    orientation.setZ(Math.sin(state.heading / 2.0));
+
+    // Build NavSatFix Message
+    navMsg.getHeader().setFrameId("pinpoint");
+    navMsg.getHeader().setSeq(seq);
+    navMsg.getHeader().setStamp(time);
+    navMsg.getStatus().setService(sensor_msgs.NavSatStatus.SERVICE_GPS);
+    navMsg.getStatus().setStatus(sensor_msgs.NavSatStatus.STATUS_FIX);
+    navMsg.setLatitude(state.latitude);
+    navMsg.setLongitude(state.longitude);
+    navMsg.setAltitude(state.altitude);
+    navMsg.setPositionCovarianceType(sensor_msgs.NavSatFix.COVARIANCE_TYPE_APPROXIMATED);
+    double[] posCovariance = new double[POS_COVARINCE_ELEMENT_COUNT];
+    posCovariance[0] = ROUTE_POSITION_VARIANCE;
+    posCovariance[4] = ROUTE_POSITION_VARIANCE;
+    posCovariance[8] = ROUTE_POSITION_VARIANCE;
+    navMsg.setPositionCovariance(posCovariance);
+
+    // Build Velocity Message
+    velocityMsg.getHeader().setFrameId("base_link");
+    velocityMsg.getHeader().setSeq(seq);
+    velocityMsg.getHeader().setStamp(time);
+    geometry_msgs.Twist twist = velocityMsg.getTwist().getTwist();
+    twist.getLinear().setX(state.speed);
+    twist.getAngular().setZ(state.yawRate);
+
+    // Publish Data
+    publish(headingPub, headingMsg);
+    publish(navSatFixPub, navMsg);
+    publish(velocityPub, velocityMsg);
+  }
+
+  /**
+   * Interpolates the position, position covariance and velocity columns read by publishData
+   * The heading, point, quaternion, odometry and odometry covariance columns are not published so they are held
+   */
+  @Override protected SampleInterpolator.Kind[] getInterpolationKinds() {
+    SampleInterpolator.Kind[] kinds = SampleInterpolator.holdAll(EXPECTED_DATA_COL_COUNT);
+    kinds[NAV_LAT_IDX] = SampleInterpolator.Kind.LINEAR;
+    kinds[NAV_LON_IDX] = SampleInterpolator.Kind.LINEAR;
+    kinds[NAV_ALT_IDX] = SampleInterpolator.Kind.LINEAR;
+    for (int i = 0; i < POS_COVARINCE_ELEMENT_COUNT; i++) {
+      kinds[MIN_POSE_COVAR_IDX + i] = SampleInterpolator.Kind.LINEAR;
+    }
+    for (int i = VEL_ANG_X_IDX; i <= VEL_LIN_Z_IDX; i++) {
+      kinds[i] = SampleInterpolator.Kind.LINEAR;
+    }
+    return kinds;
+  }
+
   @Override protected short getExpectedColCount() {
     return EXPECTED_DATA_COL_COUNT;
   }
@@ -173,4 +424,78 @@ public class MockGnssDriver extends AbstractMockDriver {
       "gnss/fix_raw",
       "gnss/vel_raw"));
   }
+
+  /**
+   * Records the topics of a real GNSS driver in the layout of this driver's data file
+   * A sample group is written for each gnss/fix_raw message with the latest heading and velocity
+   */
+  public static class Recorder extends CaptureRecorder {
+    static final String HEADER = "sample id,heading,navigation service,navigation state,latitude (deg),longitude (deg),"
+      + "altitude (m),position covariance type,odometry angular velocity x (rad/s),"
+      + "odometry angular velocity y (rad/s),odometry angular velocity z (rad/s),"
+      + "odometry linear velocity x (m/s),odometry linear velocity y (m/s),"
+      + "odometry linear velocity z (m/s),point x (m),point y (m),point z (m),quaternion w,quaternion x,"
+      + "quaternion y,quaternion z,velocity angular x (rad/s),velocity angular y (rad/s),"
+      + "velocity angular z (rad/s),velocity linear x (m/s),velocity linear y (m/s),"
+      + "velocity linear z (m/s),Pose covariance 9 element start,,,,,,,,,"
+      + "Odom Twist covariance 36 element start,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,"
+      + "Odom pose covariance 36 element start,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,,";
+
+    public Recorder(ConnectedNode connectedNode, String namespace, CaptureWriter writer) {
+      super(connectedNode, namespace, writer, EXPECTED_DATA_COL_COUNT, SAMPLE_ID_IDX);
+    }
+
+    @Override public void start() {
+      subscribe("gnss/heading_raw", geometry_msgs.PoseWithCovarianceStamped._TYPE,
+        new MessageListener<geometry_msgs.PoseWithCovarianceStamped>() {
+          @Override public void onNewMessage(geometry_msgs.PoseWithCovarianceStamped message) {
+            geometry_msgs.Pose pose = message.getPose().getPose();
+            geometry_msgs.Quaternion orientation = pose.getOrientation();
+            // The data file heading is in degrees east of north while the pose yaw is in radians from east
+            double yaw = 2.0 * Math.atan2(orientation.getZ(), orientation.getW());
+            double course = (90.0 - Math.toDegrees(yaw)) % 360.0;
+            set(HEADING_IDX, course < 0 ? course + 360.0 : course);
+            set(POINT_X_IDX, pose.getPosition().getX());
+            set(POINT_Y_IDX, pose.getPosition().getY());
+            set(POINT_Z_IDX, pose.getPosition().getZ());
+            set(QUAT_W_IDX, orientation.getW());
+            set(QUAT_X_IDX, orientation.getX());
+            set(QUAT_Y_IDX, orientation.getY());
+            set(QUAT_Z_IDX, orientation.getZ());
+            set(MIN_ODOM_POSE_COVAR_IDX, message.getPose().getCovariance());
+          }
+        });
+      subscribe("gnss/vel_raw", geometry_msgs.TwistWithCovarianceStamped._TYPE,
+        new MessageListener<geometry_msgs.TwistWithCovarianceStamped>() {
+          @Override public void onNewMessage(geometry_msgs.TwistWithCovarianceStamped message) {
+            geometry_msgs.Twist twist = message.getTwist().getTwist();
+            set(VEL_ANG_X_IDX, twist.getAngular().getX());
+            set(VEL_ANG_Y_IDX, twist.getAngular().getY());
+            set(VEL_ANG_Z_IDX, twist.getAngular().getZ());
+            set(VEL_LIN_X_IDX, twist.getLinear().getX());
+            set(VEL_LIN_Y_IDX, twist.getLinear().getY());
+            set(VEL_LIN_Z_IDX, twist.getLinear().getZ());
+            set(ODOM_TWIST_ANG_X_IDX, twist.getAngular().getX());
+            set(ODOM_TWIST_ANG_Y_IDX, twist.getAngular().getY());
+            set(ODOM_TWIST_ANG_Z_IDX, twist.getAngular().getZ());
+            set(ODOM_TWIST_LIN_X_IDX, twist.getLinear().getX());
+            set(ODOM_TWIST_LIN_Y_IDX, twist.getLinear().getY());
+            set(ODOM_TWIST_LIN_Z_IDX, twist.getLinear().getZ());
+            set(MIN_ODOM_TWIST_COVAR_IDX, message.getTwist().getCovariance());
+          }
+        });
+      subscribe("gnss/fix_raw", sensor_msgs.NavSatFix._TYPE, new MessageListener<sensor_msgs.NavSatFix>() {
+        @Override public void onNewMessage(sensor_msgs.NavSatFix message) {
+          set(NAV_SRV_IDX, message.getStatus().getService());
+          set(NAV_STATUS_IDX, message.getStatus().getStatus());
+          set(NAV_LAT_IDX, message.getLatitude());
+          set(NAV_LON_IDX, message.getLongitude());
+          set(NAV_ALT_IDX, message.getAltitude());
+          set(NAV_POS_COVR_TYPE_IDX, message.getPositionCovarianceType());
+          set(MIN_POSE_COVAR_IDX, message.getPositionCovariance());
+          writeRow();
+        }
+      });
+    }
+  }
 }
@@ -27,6 +27,9 @@ import java.util.List;
 /**
  * A class which can be used to simulate a IMU driver for the CARMA Platform.
  * <p>
+ * If ~/route_file_path is set no data file is used. The driver instead publishes the state of a vehicle
+ * driving that route at ~/publish_rate. See RouteTrajectory for the route file format.
+ * <p>
  * Command line test:
  * ROSJava does not support rosrun parameter setting so a rosrun is a multi step process
  * rosparam set /mock_driver/simulated_driver 'pinpoint'
@@ -44,11 +47,15 @@ public class MockImuDriver extends AbstractMockDriver {
   private final short SAMPLE_ID_IDX = 1;
 
   public MockImuDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+    this(connectedNode, "", "");
+  }
+
+  public MockImuDriver(ConnectedNode connectedNode, String instanceName, String topicNamespace) {
+    super(connectedNode, instanceName, topicNamespace);
     // Topics
     // Published
     imuPub =
-      connectedNode.newPublisher(imuTopic, sensor_msgs.Imu._TYPE);
+      connectedNode.newPublisher(topicName(imuTopic), sensor_msgs.Imu._TYPE);
   }
 
   @Override protected void publishData(List<String[]> data) throws IllegalArgumentException {
@@ -56,8 +63,25 @@ public class MockImuDriver extends AbstractMockDriver {
     sensor_msgs.Imu imu = imuPub.newMessage();
     // Set Header Data
     imu.getHeader().setFrameId("imu");
-    imu.getHeader().setStamp(connectedNode.getCurrentTime());
-    imuPub.publish(imu);
+    imu.getHeader().setStamp(getSampleTime());
+    publish(imuPub, imu);
+  }
+
+  @Override protected boolean publishesVehicleState() {
+    return true;
+  }
+
+  @Override protected void publishVehicleState(Time time, VehicleState state) {
+    sensor_msgs.Imu imu = imuPub.newMessage();
+    imu.getHeader().setFrameId("imu");
+    imu.getHeader().setStamp(time);
+    imu.getOrientation().setW(Math.cos(state.heading / 2.0));
+    imu.getOrientation().setZ(Math.sin(state.heading / 2.0));
+    imu.getAngularVelocity().setZ(state.yawRate);
+    imu.getLinearAcceleration().setX(state.acceleration);
+    imu.getLinearAcceleration().setY(state.getLateralAcceleration());
+    imu.getLinearAcceleration().setZ(VehicleState.GRAVITY);
+    publish(imuPub, imu);
   }
 
   @Override protected short getExpectedColCount() {
@@ -49,13 +49,17 @@ public class MockLidarDriver extends AbstractMockDriver {
   private final short EXPECTED_DATA_COL_COUNT = 132;
 
   public MockLidarDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+    this(connectedNode, "", "");
+  }
+
+  public MockLidarDriver(ConnectedNode connectedNode, String instanceName, String topicNamespace) {
+    super(connectedNode, instanceName, topicNamespace);
     // Topics
     // Published
     pointsPub =
-      connectedNode.newPublisher(pointsTopic, sensor_msgs.PointCloud2._TYPE);
+      connectedNode.newPublisher(topicName(pointsTopic), sensor_msgs.PointCloud2._TYPE);
       scanPub =
-      connectedNode.newPublisher(scanTopic, sensor_msgs.LaserScan._TYPE);
+      connectedNode.newPublisher(topicName(scanTopic), sensor_msgs.LaserScan._TYPE);
   }
 
   @Override protected void publishData(List<String[]> data) throws IllegalArgumentException {
@@ -63,12 +67,12 @@ public class MockLidarDriver extends AbstractMockDriver {
     sensor_msgs.PointCloud2 cloud = pointsPub.newMessage();
     // Set Header Data
     cloud.getHeader().setFrameId("velodyne");
-    cloud.getHeader().setStamp(connectedNode.getCurrentTime());
-    pointsPub.publish(cloud);
+    cloud.getHeader().setStamp(getSampleTime());
+    publish(pointsPub, cloud);
 
     sensor_msgs.LaserScan scan = scanPub.newMessage();
     scan.setHeader(cloud.getHeader()); // Match headers
-    scanPub.publish(scan);
+    publish(scanPub, scan);
   }
 
   @Override protected short getExpectedColCount() {
@@ -26,6 +26,7 @@ import org.ros.node.service.ServiceServer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import cav_msgs.LightBarStatus;
 import cav_srvs.GetLightsRequest;
@@ -37,6 +38,9 @@ import cav_srvs.SetLightsResponse;
 /**
  * A class which can be used to simulate a LightBar driver for the CARMA Platform.
  * <p>
+ * The light state is one immutable LightBarState replaced atomically by set_lights, so service threads and the
+ * publishing thread never see a partially applied request. The status message is only rebuilt when the state changes.
+ * <p>
  * Command line test:
  * ROSJava does not support rosrun parameter setting so a rosrun is a multi step process
  * rosparam set /mock_driver/simulated_driver 'pinpoint'
@@ -61,53 +65,49 @@ public class MockLightBarDriver extends AbstractMockDriver {
   private final short SAMPLE_ID_IDX = 1;
 
   // LightBar States
-  protected boolean greenFlash = false;
-  protected boolean yellowFlash = false;
-  protected boolean leftArrow = false;
-  protected boolean rightArrow = false;
-  protected boolean sidesSolid = false;
-  protected boolean greenSolid = false;
-  protected boolean yellowDim = false;
-  protected boolean takedown = false;
-
-
-  public MockLightBarDriver (ConnectedNode connectedNode) {
-    super(connectedNode);
+  protected final AtomicReference<LightBarState> lights = new AtomicReference<>(LightBarState.OFF);
+  private volatile StatusSnapshot statusSnapshot = null;
+
+  /**
+   * A status message built for a light state. The message is not modified once built
+   */
+  private static class StatusSnapshot {
+    final LightBarState state;
+    final LightBarStatus message;
+
+    StatusSnapshot(LightBarState state, LightBarStatus message) {
+      this.state = state;
+      this.message = message;
+    }
+  }
+
+
+  public MockLightBarDriver(ConnectedNode connectedNode) {
+    this(connectedNode, "", "");
+  }
+
+  public MockLightBarDriver(ConnectedNode connectedNode, String instanceName, String topicNamespace) {
+    super(connectedNode, instanceName, topicNamespace);
     // Topics
     // Published
     lbPub =
-      connectedNode.newPublisher(lbStatusTopic, cav_msgs.LightBarStatus._TYPE);
+      connectedNode.newPublisher(topicName(lbStatusTopic), cav_msgs.LightBarStatus._TYPE);
 
     // Services
     // Server
-    setLightsService = connectedNode.newServiceServer(lbSetLightsService, cav_srvs.SetLights._TYPE,
+    setLightsService = connectedNode.newServiceServer(topicName(lbSetLightsService), cav_srvs.SetLights._TYPE,
         new ServiceResponseBuilder<SetLightsRequest, SetLightsResponse>() {
           @Override
           public void build(cav_srvs.SetLightsRequest request, cav_srvs.SetLightsResponse response) {
 
-            cav_msgs.LightBarStatus lightStatus = request.getSetState();
-            greenFlash = lightStatus.getGreenFlash() == 1;
-            yellowFlash = lightStatus.getFlash() == 1;
-            leftArrow = lightStatus.getLeftArrow() == 1;
-            rightArrow = lightStatus.getRightArrow() == 1;
-            sidesSolid = lightStatus.getSidesSolid() == 1;
-            greenSolid = lightStatus.getGreenSolid() == 1;
-            yellowDim = lightStatus.getYellowSolid() == 1;
-            takedown = lightStatus.getTakedown() == 1;
-  
-            log.info("Lights have been set to: " + 
-            "\nGreen Flash: " + greenFlash + 
-            "\nYellow Flash: " + yellowFlash + 
-            "\nLeft: " + leftArrow + 
-            "\nRight: " + rightArrow + 
-            "\nSides Solid: " + sidesSolid + 
-            "\nGreen Solid: " + greenSolid + 
-            "\nYellow Dim: " + yellowDim + 
-            "\nTakedown: " + takedown);
+            LightBarState state = LightBarState.fromStatus(request.getSetState());
+            if (lights.getAndSet(state) != state && log.isDebugEnabled()) {
+              log.debug("Lights have been set to " + state);
+            }
           }
         });
 
-    getLightsService = connectedNode.newServiceServer(lbGetLightsService, cav_srvs.GetLights._TYPE,
+    getLightsService = connectedNode.newServiceServer(topicName(lbGetLightsService), cav_srvs.GetLights._TYPE,
         new ServiceResponseBuilder<GetLightsRequest, GetLightsResponse>() {
           @Override
           public void build(cav_srvs.GetLightsRequest request, cav_srvs.GetLightsResponse response) {
@@ -119,29 +119,27 @@ public class MockLightBarDriver extends AbstractMockDriver {
   }
 
   /**
-   * Helper function to build the lightbar status message
+   * Helper function to get the lightbar status message of the current light state
+   * The message is shared until the state changes and must not be modified
    * @return The lightbar status message
    */
   protected LightBarStatus getLightBarStatus() {
-    cav_msgs.LightBarStatus lightStatus = lbPub.newMessage();
-
-    lightStatus.setGreenSolid((byte)(greenSolid?1:0));
-    lightStatus.setYellowSolid((byte)(yellowDim?1:0));
-    lightStatus.setRightArrow((byte)(rightArrow?1:0));
-    lightStatus.setLeftArrow((byte)(leftArrow?1:0));
-    lightStatus.setSidesSolid((byte)(sidesSolid?1:0));
-    lightStatus.setFlash((byte)(yellowFlash?1:0));
-    lightStatus.setGreenFlash((byte)(greenFlash?1:0));
-    lightStatus.setTakedown((byte)(takedown?1:0));
-
-    return lightStatus;
+    LightBarState state = lights.get();
+    StatusSnapshot snapshot = statusSnapshot;
+    if (snapshot == null || snapshot.state != state) {
+      cav_msgs.LightBarStatus lightStatus = lbPub.newMessage();
+      state.copyTo(lightStatus);
+      snapshot = new StatusSnapshot(state, lightStatus);
+      statusSnapshot = snapshot;
+    }
+    return snapshot.message;
   }
   
   @Override protected void publishData(List<String[]> data) throws IllegalArgumentException {
     // TODO use actual data from file
     cav_msgs.LightBarStatus lightStatus = getLightBarStatus();
   
-    lbPub.publish(lightStatus);
+    publish(lbPub, lightStatus);
   }
 
   @Override protected short getExpectedColCount() {
@@ -78,17 +78,28 @@ public class MockRadarDriver extends AbstractMockDriver {
    * @param connectedNode The ROS node which will be used to simulate a Radar Driver
    */
   public MockRadarDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+    this(connectedNode, "", "");
+  }
+
+  /**
+   *  Constructor sets up ROS publishers and subscribers
+   *
+   * @param connectedNode The ROS node which will be used to simulate a Radar Driver
+   * @param instanceName The name of this driver within the node. Empty if the driver is alone in the node
+   * @param topicNamespace The prefix of this driver's topics and public services. Empty for none
+   */
+  public MockRadarDriver(ConnectedNode connectedNode, String instanceName, String topicNamespace) {
+    super(connectedNode, instanceName, topicNamespace);
     // Topics
     // Published
-    tracksPub = connectedNode.newPublisher("radar/tracks_raw", radar_msgs.RadarTrackArray._TYPE);
-    statusPub = connectedNode.newPublisher("radar/status", radar_msgs.RadarStatus._TYPE);
+    tracksPub = connectedNode.newPublisher(topicName("radar/tracks_raw"), radar_msgs.RadarTrackArray._TYPE);
+    statusPub = connectedNode.newPublisher(topicName("radar/status"), radar_msgs.RadarStatus._TYPE);
   }
 
   @Override protected void publishData(List<String[]> data) {
 
     String frameId = "f_lrr_frame";
-    Time currentTime = connectedNode.getCurrentTime();
+    Time currentTime = getSampleTime();
     radar_msgs.RadarTrackArray trackMsg = tracksPub.newMessage();
     radar_msgs.RadarStatus statusMsg = statusPub.newMessage();
 
@@ -99,8 +110,8 @@ public class MockRadarDriver extends AbstractMockDriver {
 
     statusMsg.setHeader(hdr);
 
-    tracksPub.publish(trackMsg);
-    statusPub.publish(statusMsg);
+    publish(tracksPub, trackMsg);
+    publish(statusPub, statusMsg);
   }
 
   @Override protected short getExpectedColCount() {
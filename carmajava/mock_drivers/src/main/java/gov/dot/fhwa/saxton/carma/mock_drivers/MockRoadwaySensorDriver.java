@@ -16,6 +16,7 @@
 
 package gov.dot.fhwa.saxton.carma.mock_drivers;
 
+import org.ros.message.MessageListener;
 import org.ros.message.Time;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
@@ -27,10 +28,17 @@ import java.util.List;
 /**
  * A class which can be used to simulate a roadway sensor driver for the CARMA Platform.
  * <p>
+ * Data files contain two kinds of rows identified by the row type column.
+ * "object" rows describe one detected object and "lane" rows describe one lane marker.
+ * All rows which share a sample id are published together in one ObjectWithCovarianceArray and one LaneModels message.
+ * <p>
+ * If the ~/synthetic_object_count parameter is greater than 0 no data file is used.
+ * Instead a crowded scene with that many tracked objects is generated. Object ids are stable over time.
+ * <p>
  * Command line test:
  * ROSJava does not support rosrun parameter setting so a rosrun is a multi step process
  * rosparam set /mock_driver/simulated_driver 'roadway_sensor'
- * rosparam set /mock_driver/data_file_path '/opt/carma/test_data/pinpoint_stationary.csv'
+ * rosparam set /mock_driver/data_file_path '/opt/carma/test_data/roadway_sensor.csv'
  * rosrun carma mock_drivers gov.dot.fhwa.saxton.carma.mock_drivers.MockDriverNode
  */
 public class MockRoadwaySensorDriver extends AbstractMockDriver {
@@ -40,36 +48,308 @@ public class MockRoadwaySensorDriver extends AbstractMockDriver {
   final Publisher<derived_object_msgs.LaneModels> lanesPub;
   final Publisher<derived_object_msgs.ObjectWithCovarianceArray> objectsPub;
 
+  // Parameters
+  final int syntheticObjectCount;
+  final SyntheticTrafficScene syntheticScene;
+
   // CONSTANTS
-  final short SAMPLE_ID_IDX = 0;
-  private final short EXPECTED_DATA_COL_COUNT = 132;
+  static final String FRAME_ID = "mobile_eye";
+  static final String OBJECT_ROW = "object";
+  static final String LANE_ROW = "lane";
+  static final String LEFT_LANE = "left";
+  static final String RIGHT_LANE = "right";
+  static final String ADDITIONAL_LANE = "additional";
+  static final byte DETECTION_LEVEL_TRACKED = 1; // derived_object_msgs OBJECT_TRACKED
+  static final byte CLASSIFICATION_CAR = 6; // derived_object_msgs CLASSIFICATION_CAR
+  static final byte CLASSIFICATION_TRUCK = 7; // derived_object_msgs CLASSIFICATION_TRUCK
+  static final byte SHAPE_BOX = 1; // shape_msgs SolidPrimitive BOX
+  static final byte LANE_QUALITY_HIGH = 3;
+  static final byte LANE_MARKER_DASHED = 1;
+  static final byte LANE_CURVE_MODEL_CLOTHOID = 1;
+  static final float LANE_MARKER_WIDTH = 0.15f; // m
+  static final float LANE_VIEW_RANGE = 80.0f; // m
+
+  // Shared columns
+  static final short SAMPLE_ID_IDX = 0;
+  static final short ROW_TYPE_IDX = 1;
+
+  // Object row columns
+  static final short OBJ_ID_IDX = 2;
+  static final short OBJ_CLASSIFICATION_IDX = 3;
+  static final short OBJ_CLASSIFICATION_CERTAINTY_IDX = 4;
+  static final short OBJ_DETECTION_LEVEL_IDX = 5;
+  static final short OBJ_SIZE_X_IDX = 6;
+  static final short OBJ_SIZE_Y_IDX = 7;
+  static final short OBJ_SIZE_Z_IDX = 8;
+  static final short OBJ_POINT_X_IDX = 9;
+  static final short OBJ_POINT_Y_IDX = 10;
+  static final short OBJ_POINT_Z_IDX = 11;
+  static final short OBJ_QUAT_W_IDX = 12;
+  static final short OBJ_QUAT_X_IDX = 13;
+  static final short OBJ_QUAT_Y_IDX = 14;
+  static final short OBJ_QUAT_Z_IDX = 15;
+  static final short OBJ_VEL_LIN_X_IDX = 16;
+  static final short OBJ_VEL_LIN_Y_IDX = 17;
+  static final short OBJ_VEL_LIN_Z_IDX = 18;
+  static final short OBJ_VEL_ANG_X_IDX = 19;
+  static final short OBJ_VEL_ANG_Y_IDX = 20;
+  static final short OBJ_VEL_ANG_Z_IDX = 21;
+  static final short OBJ_ACCEL_LIN_X_IDX = 22;
+  static final short OBJ_ACCEL_LIN_Y_IDX = 23;
+  static final short OBJ_ACCEL_LIN_Z_IDX = 24;
+  static final short COVARINCE_ELEMENT_COUNT = 36;
+  static final short MIN_POSE_COVAR_IDX = 25;
+  static final short MIN_TWIST_COVAR_IDX = MIN_POSE_COVAR_IDX + COVARINCE_ELEMENT_COUNT;
+  private static final short EXPECTED_DATA_COL_COUNT = MIN_TWIST_COVAR_IDX + COVARINCE_ELEMENT_COUNT;
+
+  // Lane row columns
+  static final short LANE_POSITION_IDX = 2;
+  static final short LANE_QUALITY_IDX = 3;
+  static final short LANE_MARKER_KIND_IDX = 4;
+  static final short LANE_CURVE_MODEL_KIND_IDX = 5;
+  static final short LANE_MARKER_OFFSET_IDX = 6;
+  static final short LANE_HEADING_ANGLE_IDX = 7;
+  static final short LANE_CURVATURE_IDX = 8;
+  static final short LANE_CURVATURE_DERIVATIVE_IDX = 9;
+  static final short LANE_MARKER_WIDTH_IDX = 10;
+  static final short LANE_VIEW_RANGE_IDX = 11;
+  private static final short EXPECTED_LANE_COL_COUNT = 12;
+
+  private long prevSceneStepNanos = -1;
 
   public MockRoadwaySensorDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
-    // Topics TODO this whole node
+    this(connectedNode, "", "");
+  }
+
+  public MockRoadwaySensorDriver(ConnectedNode connectedNode, String instanceName, String topicNamespace) {
+    super(connectedNode, instanceName, topicNamespace);
+    // Parameters
+    syntheticObjectCount = params.getInteger(param("synthetic_object_count"), 0);
+    if (syntheticObjectCount > 0) {
+      syntheticScene = new SyntheticTrafficScene(syntheticObjectCount, params.getInteger(param("synthetic_seed"), 0));
+    } else {
+      syntheticScene = null;
+    }
+
+    // Topics
     // Published
     lanesPub =
-      connectedNode.newPublisher("roadway_sensor/lane_models", derived_object_msgs.LaneModels._TYPE);
+      connectedNode.newPublisher(topicName("roadway_sensor/lane_models"), derived_object_msgs.LaneModels._TYPE);
     objectsPub =
-      connectedNode.newPublisher("roadway_sensor/detected_objects", derived_object_msgs.ObjectWithCovarianceArray._TYPE);
+      connectedNode.newPublisher(topicName("roadway_sensor/detected_objects"), derived_object_msgs.ObjectWithCovarianceArray._TYPE);
+  }
+
+  @Override public void onStart(ConnectedNode connectedNode) {
+    if (syntheticScene == null) {
+      super.onStart(connectedNode);
+      return;
+    }
+    startDiagnostics();
+    log.info(getGraphName() + " generating a synthetic scene of " + syntheticObjectCount + " objects");
+    driverStatus = cav_msgs.DriverStatus.OPERATIONAL;
+  }
+
+  @Override protected void readAndPublishSample() {
+    if (syntheticScene == null) {
+      super.readAndPublishSample();
+      return;
+    }
+    // Step the scene by the real elapsed time so object motion is independent of the publish rate
+    long now = System.nanoTime();
+    if (prevSceneStepNanos != -1) {
+      syntheticScene.step((now - prevSceneStepNanos) * 1e-9);
+    }
+    prevSceneStepNanos = now;
+    publishSyntheticScene();
+  }
+
+  @Override protected boolean isValidRow(String[] elements) {
+    if (elements.length <= ROW_TYPE_IDX) {
+      return false;
+    }
+    switch (elements[ROW_TYPE_IDX]) {
+      case OBJECT_ROW:
+        return elements.length == EXPECTED_DATA_COL_COUNT;
+      case LANE_ROW:
+        return elements.length == EXPECTED_LANE_COL_COUNT;
+      default:
+        return false;
+    }
   }
 
   @Override protected void publishData(List<String[]> data) throws IllegalArgumentException {
 
-    String frameId = "mobile_eye";
-    Time currentTime = connectedNode.getCurrentTime();
+    Time currentTime = getSampleTime();
     derived_object_msgs.LaneModels laneMsg = lanesPub.newMessage();
     derived_object_msgs.ObjectWithCovarianceArray objMsg = objectsPub.newMessage();
 
     // Build Header
     std_msgs.Header hdr = laneMsg.getHeader();
-    hdr.setFrameId(frameId);
+    hdr.setFrameId(FRAME_ID);
     hdr.setStamp(currentTime);
 
     objMsg.setHeader(hdr);
 
-    lanesPub.publish(laneMsg);
-    objectsPub.publish(objMsg);
+    List<derived_object_msgs.ObjectWithCovariance> objects = new ArrayList<>(data.size());
+    List<derived_object_msgs.Lane> additionalLanes = new ArrayList<>();
+    for (String[] elements : data) {
+      if (elements[ROW_TYPE_IDX].equals(OBJECT_ROW)) {
+        objects.add(buildObject(elements, hdr));
+        continue;
+      }
+      derived_object_msgs.Lane lane = buildLane(elements);
+      switch (elements[LANE_POSITION_IDX]) {
+        case LEFT_LANE:
+          laneMsg.setLeftLane(lane);
+          break;
+        case RIGHT_LANE:
+          laneMsg.setRightLane(lane);
+          break;
+        default:
+          additionalLanes.add(lane);
+          break;
+      }
+    }
+    objMsg.setObjects(objects);
+    laneMsg.setAdditionalLanes(additionalLanes);
+
+    publish(lanesPub, laneMsg);
+    publish(objectsPub, objMsg);
+  }
+
+  /**
+   * Helper function to build an object message from an object data row
+   * @param elements The object data row
+   * @param hdr The header shared by all objects in the sample
+   * @return The object message
+   */
+  protected derived_object_msgs.ObjectWithCovariance buildObject(String[] elements, std_msgs.Header hdr) {
+    derived_object_msgs.ObjectWithCovariance obj =
+      messageFactory.newFromType(derived_object_msgs.ObjectWithCovariance._TYPE);
+    obj.setHeader(hdr);
+    obj.setId(Integer.parseInt(elements[OBJ_ID_IDX]));
+    obj.setObjectClassified(true);
+    obj.setClassification(Byte.parseByte(elements[OBJ_CLASSIFICATION_IDX]));
+    obj.setClassificationCertainty(Byte.parseByte(elements[OBJ_CLASSIFICATION_CERTAINTY_IDX]));
+    obj.setDetectionLevel(Byte.parseByte(elements[OBJ_DETECTION_LEVEL_IDX]));
+
+    obj.getShape().setType(SHAPE_BOX);
+    obj.getShape().setDimensions(new double[] {
+      Double.parseDouble(elements[OBJ_SIZE_X_IDX]),
+      Double.parseDouble(elements[OBJ_SIZE_Y_IDX]),
+      Double.parseDouble(elements[OBJ_SIZE_Z_IDX])});
+
+    geometry_msgs.Pose pose = obj.getPose().getPose();
+    pose.getPosition().setX(Double.parseDouble(elements[OBJ_POINT_X_IDX]));
+    pose.getPosition().setY(Double.parseDouble(elements[OBJ_POINT_Y_IDX]));
+    pose.getPosition().setZ(Double.parseDouble(elements[OBJ_POINT_Z_IDX]));
+    pose.getOrientation().setW(Double.parseDouble(elements[OBJ_QUAT_W_IDX]));
+    pose.getOrientation().setX(Double.parseDouble(elements[OBJ_QUAT_X_IDX]));
+    pose.getOrientation().setY(Double.parseDouble(elements[OBJ_QUAT_Y_IDX]));
+    pose.getOrientation().setZ(Double.parseDouble(elements[OBJ_QUAT_Z_IDX]));
+
+    geometry_msgs.Twist twist = obj.getTwist().getTwist();
+    twist.getLinear().setX(Double.parseDouble(elements[OBJ_VEL_LIN_X_IDX]));
+    twist.getLinear().setY(Double.parseDouble(elements[OBJ_VEL_LIN_Y_IDX]));
+    twist.getLinear().setZ(Double.parseDouble(elements[OBJ_VEL_LIN_Z_IDX]));
+    twist.getAngular().setX(Double.parseDouble(elements[OBJ_VEL_ANG_X_IDX]));
+    twist.getAngular().setY(Double.parseDouble(elements[OBJ_VEL_ANG_Y_IDX]));
+    twist.getAngular().setZ(Double.parseDouble(elements[OBJ_VEL_ANG_Z_IDX]));
+
+    geometry_msgs.Vector3 accel = obj.getAccel().getAccel().getLinear();
+    accel.setX(Double.parseDouble(elements[OBJ_ACCEL_LIN_X_IDX]));
+    accel.setY(Double.parseDouble(elements[OBJ_ACCEL_LIN_Y_IDX]));
+    accel.setZ(Double.parseDouble(elements[OBJ_ACCEL_LIN_Z_IDX]));
+
+    double[] poseCovariance = new double[COVARINCE_ELEMENT_COUNT];
+    double[] twistCovariance = new double[COVARINCE_ELEMENT_COUNT];
+    for (int i = 0; i < COVARINCE_ELEMENT_COUNT; i++) {
+      poseCovariance[i] = Double.parseDouble(elements[MIN_POSE_COVAR_IDX + i]);
+      twistCovariance[i] = Double.parseDouble(elements[MIN_TWIST_COVAR_IDX + i]);
+    }
+    obj.getPose().setCovariance(poseCovariance);
+    obj.getTwist().setCovariance(twistCovariance);
+
+    return obj;
+  }
+
+  /**
+   * Helper function to build a lane message from a lane data row
+   * @param elements The lane data row
+   * @return The lane message
+   */
+  protected derived_object_msgs.Lane buildLane(String[] elements) {
+    derived_object_msgs.Lane lane = messageFactory.newFromType(derived_object_msgs.Lane._TYPE);
+    lane.setQuality(Byte.parseByte(elements[LANE_QUALITY_IDX]));
+    lane.setMarkerKind(Byte.parseByte(elements[LANE_MARKER_KIND_IDX]));
+    lane.setCurveModelKind(Byte.parseByte(elements[LANE_CURVE_MODEL_KIND_IDX]));
+    lane.setMarkerOffset(Float.parseFloat(elements[LANE_MARKER_OFFSET_IDX]));
+    lane.setHeadingAngle(Float.parseFloat(elements[LANE_HEADING_ANGLE_IDX]));
+    lane.setCurvature(Float.parseFloat(elements[LANE_CURVATURE_IDX]));
+    lane.setCurvatureDerivative(Float.parseFloat(elements[LANE_CURVATURE_DERIVATIVE_IDX]));
+    lane.setMarkerWidth(Float.parseFloat(elements[LANE_MARKER_WIDTH_IDX]));
+    lane.setViewRange(Float.parseFloat(elements[LANE_VIEW_RANGE_IDX]));
+    return lane;
+  }
+
+  /**
+   * Publishes the current state of the synthetic scene as one object array and one lane model
+   */
+  protected void publishSyntheticScene() {
+    Time currentTime = connectedNode.getCurrentTime();
+    derived_object_msgs.LaneModels laneMsg = lanesPub.newMessage();
+    derived_object_msgs.ObjectWithCovarianceArray objMsg = objectsPub.newMessage();
+
+    std_msgs.Header hdr = laneMsg.getHeader();
+    hdr.setFrameId(FRAME_ID);
+    hdr.setStamp(currentTime);
+    objMsg.setHeader(hdr);
+
+    List<derived_object_msgs.ObjectWithCovariance> objects = new ArrayList<>(syntheticScene.size());
+    for (int i = 0; i < syntheticScene.size(); i++) {
+      derived_object_msgs.ObjectWithCovariance obj =
+        messageFactory.newFromType(derived_object_msgs.ObjectWithCovariance._TYPE);
+      obj.setHeader(hdr);
+      obj.setId(syntheticScene.getId(i));
+      obj.setDetectionLevel(DETECTION_LEVEL_TRACKED);
+      obj.setObjectClassified(true);
+      obj.setClassification(syntheticScene.isTruck(i) ? CLASSIFICATION_TRUCK : CLASSIFICATION_CAR);
+      obj.setClassificationCertainty((byte) 100);
+
+      obj.getShape().setType(SHAPE_BOX);
+      obj.getShape().setDimensions(new double[] {
+        syntheticScene.getLength(i), syntheticScene.getWidth(i), syntheticScene.getHeight(i)});
+
+      geometry_msgs.Pose pose = obj.getPose().getPose();
+      pose.getPosition().setX(syntheticScene.getX(i));
+      pose.getPosition().setY(syntheticScene.getY(i));
+      pose.getOrientation().setW(1.0);
+      obj.getTwist().getTwist().getLinear().setX(syntheticScene.getVelocityX(i));
+      objects.add(obj);
+    }
+    objMsg.setObjects(objects);
+
+    laneMsg.setLeftLane(buildSyntheticLane(SyntheticTrafficScene.LANE_WIDTH / 2.0));
+    laneMsg.setRightLane(buildSyntheticLane(-SyntheticTrafficScene.LANE_WIDTH / 2.0));
+
+    publish(lanesPub, laneMsg);
+    publish(objectsPub, objMsg);
+  }
+
+  /**
+   * Helper function to build a straight lane marker at the provided lateral offset
+   * @param offset The lateral offset of the marker from the host vehicle in m
+   * @return The lane message
+   */
+  private derived_object_msgs.Lane buildSyntheticLane(double offset) {
+    derived_object_msgs.Lane lane = messageFactory.newFromType(derived_object_msgs.Lane._TYPE);
+    lane.setQuality(LANE_QUALITY_HIGH);
+    lane.setMarkerKind(LANE_MARKER_DASHED);
+    lane.setCurveModelKind(LANE_CURVE_MODEL_CLOTHOID);
+    lane.setMarkerOffset((float) offset);
+    lane.setMarkerWidth(LANE_MARKER_WIDTH);
+    lane.setViewRange(LANE_VIEW_RANGE);
+    return lane;
   }
 
   @Override protected short getExpectedColCount() {
@@ -90,4 +370,142 @@ public class MockRoadwaySensorDriver extends AbstractMockDriver {
       "roadway_sensor/detected_objects"
     ));
   }
+
+  /**
+   * Records the topics of a real roadway sensor driver in the layout of this driver's data file
+   * A sample group is written for each roadway_sensor/detected_objects message with one object row per object
+   * followed by the lane rows of the latest roadway_sensor/lane_models message
+   */
+  public static class Recorder extends CaptureRecorder {
+    static final String HEADER = "sample id,row type (object|lane),object id / lane position (left|right|additional),"
+      + "classification / quality,classification certainty / marker kind,detection level / curve model kind,"
+      + "size x (m) / marker offset (m),size y (m) / heading angle (rad),size z (m) / curvature (1/m),"
+      + "center point x (m) / curvature derivative (1/m^2),center point y (m) / marker width (m),"
+      + "center point z (m) / view range (m),quaternion w,quaternion x,quaternion y,quaternion z,"
+      + "velocity linear x (m/s),velocity linear y (m/s),velocity linear z (m/s),velocity angular x (rad/s),"
+      + "velocity angular y (rad/s),velocity angular z (rad/s),acceleration linear x (m/s^2),"
+      + "acceleration linear y (m/s^2),acceleration linear z (m/s^2),"
+      + covarianceColumns("pose covariance") + "," + covarianceColumns("twist covariance");
+
+    private volatile List<String[]> laneRows = new ArrayList<>();
+
+    public Recorder(ConnectedNode connectedNode, String namespace, CaptureWriter writer) {
+      super(connectedNode, namespace, writer, EXPECTED_DATA_COL_COUNT, SAMPLE_ID_IDX);
+    }
+
+    @Override public void start() {
+      subscribe("roadway_sensor/lane_models", derived_object_msgs.LaneModels._TYPE,
+        new MessageListener<derived_object_msgs.LaneModels>() {
+          @Override public void onNewMessage(derived_object_msgs.LaneModels message) {
+            List<String[]> rows = new ArrayList<>(2 + message.getAdditionalLanes().size());
+            rows.add(laneRow(LEFT_LANE, message.getLeftLane()));
+            rows.add(laneRow(RIGHT_LANE, message.getRightLane()));
+            for (derived_object_msgs.Lane lane : message.getAdditionalLanes()) {
+              rows.add(laneRow(ADDITIONAL_LANE, lane));
+            }
+            laneRows = rows;
+          }
+        });
+      subscribe("roadway_sensor/detected_objects", derived_object_msgs.ObjectWithCovarianceArray._TYPE,
+        new MessageListener<derived_object_msgs.ObjectWithCovarianceArray>() {
+          @Override public void onNewMessage(derived_object_msgs.ObjectWithCovarianceArray message) {
+            List<String[]> lanes = laneRows;
+            List<String[]> rows = new ArrayList<>(message.getObjects().size() + lanes.size());
+            for (derived_object_msgs.ObjectWithCovariance obj : message.getObjects()) {
+              rows.add(objectRow(obj));
+            }
+            for (String[] lane : lanes) {
+              rows.add(lane.clone());
+            }
+            writeGroup(rows);
+          }
+        });
+    }
+
+    /**
+     * Builds an object data row from an object message
+     * @param obj The object message
+     * @return The object data row without its sample id
+     */
+    private static String[] objectRow(derived_object_msgs.ObjectWithCovariance obj) {
+      String[] row = new String[EXPECTED_DATA_COL_COUNT];
+      row[ROW_TYPE_IDX] = OBJECT_ROW;
+      row[OBJ_ID_IDX] = Integer.toString(obj.getId());
+      row[OBJ_CLASSIFICATION_IDX] = Byte.toString(obj.getClassification());
+      row[OBJ_CLASSIFICATION_CERTAINTY_IDX] = Byte.toString(obj.getClassificationCertainty());
+      row[OBJ_DETECTION_LEVEL_IDX] = Byte.toString(obj.getDetectionLevel());
+
+      double[] dimensions = obj.getShape().getDimensions();
+      for (int i = 0; i < 3; i++) {
+        row[OBJ_SIZE_X_IDX + i] = i < dimensions.length ? Double.toString(dimensions[i]) : "";
+      }
+
+      geometry_msgs.Pose pose = obj.getPose().getPose();
+      row[OBJ_POINT_X_IDX] = Double.toString(pose.getPosition().getX());
+      row[OBJ_POINT_Y_IDX] = Double.toString(pose.getPosition().getY());
+      row[OBJ_POINT_Z_IDX] = Double.toString(pose.getPosition().getZ());
+      row[OBJ_QUAT_W_IDX] = Double.toString(pose.getOrientation().getW());
+      row[OBJ_QUAT_X_IDX] = Double.toString(pose.getOrientation().getX());
+      row[OBJ_QUAT_Y_IDX] = Double.toString(pose.getOrientation().getY());
+      row[OBJ_QUAT_Z_IDX] = Double.toString(pose.getOrientation().getZ());
+
+      geometry_msgs.Twist twist = obj.getTwist().getTwist();
+      row[OBJ_VEL_LIN_X_IDX] = Double.toString(twist.getLinear().getX());
+      row[OBJ_VEL_LIN_Y_IDX] = Double.toString(twist.getLinear().getY());
+      row[OBJ_VEL_LIN_Z_IDX] = Double.toString(twist.getLinear().getZ());
+      row[OBJ_VEL_ANG_X_IDX] = Double.toString(twist.getAngular().getX());
+      row[OBJ_VEL_ANG_Y_IDX] = Double.toString(twist.getAngular().getY());
+      row[OBJ_VEL_ANG_Z_IDX] = Double.toString(twist.getAngular().getZ());
+
+      geometry_msgs.Vector3 accel = obj.getAccel().getAccel().getLinear();
+      row[OBJ_ACCEL_LIN_X_IDX] = Double.toString(accel.getX());
+      row[OBJ_ACCEL_LIN_Y_IDX] = Double.toString(accel.getY());
+      row[OBJ_ACCEL_LIN_Z_IDX] = Double.toString(accel.getZ());
+
+      double[] poseCovariance = obj.getPose().getCovariance();
+      double[] twistCovariance = obj.getTwist().getCovariance();
+      for (int i = 0; i < COVARINCE_ELEMENT_COUNT; i++) {
+        row[MIN_POSE_COVAR_IDX + i] = Double.toString(poseCovariance[i]);
+        row[MIN_TWIST_COVAR_IDX + i] = Double.toString(twistCovariance[i]);
+      }
+      return row;
+    }
+
+    /**
+     * Builds a lane data row from a lane message
+     * @param position The lane position column
+     * @param lane The lane message
+     * @return The lane data row without its sample id
+     */
+    private static String[] laneRow(String position, derived_object_msgs.Lane lane) {
+      String[] row = new String[EXPECTED_LANE_COL_COUNT];
+      row[ROW_TYPE_IDX] = LANE_ROW;
+      row[LANE_POSITION_IDX] = position;
+      row[LANE_QUALITY_IDX] = Byte.toString(lane.getQuality());
+      row[LANE_MARKER_KIND_IDX] = Byte.toString(lane.getMarkerKind());
+      row[LANE_CURVE_MODEL_KIND_IDX] = Byte.toString(lane.getCurveModelKind());
+      row[LANE_MARKER_OFFSET_IDX] = Float.toString(lane.getMarkerOffset());
+      row[LANE_HEADING_ANGLE_IDX] = Float.toString(lane.getHeadingAngle());
+      row[LANE_CURVATURE_IDX] = Float.toString(lane.getCurvature());
+      row[LANE_CURVATURE_DERIVATIVE_IDX] = Float.toString(lane.getCurvatureDerivative());
+      row[LANE_MARKER_WIDTH_IDX] = Float.toString(lane.getMarkerWidth());
+      row[LANE_VIEW_RANGE_IDX] = Float.toString(lane.getViewRange());
+      return row;
+    }
+
+    /**
+     * @param name The name of the covariance
+     * @return The header columns of a 36 element covariance
+     */
+    private static String covarianceColumns(String name) {
+      StringBuilder columns = new StringBuilder();
+      for (int i = 0; i < COVARINCE_ELEMENT_COUNT; i++) {
+        if (i > 0) {
+          columns.append(',');
+        }
+        columns.append(name).append(' ').append(i);
+      }
+      return columns.toString();
+    }
+  }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+/**
+ * Detects sustained tick overruns of a driver loop.
+ * <p>
+ * A single late tick is normal jitter. Only overrunLimit consecutive late ticks mean the driver cannot keep up,
+ * and only recoveryTicks consecutive on time ticks mean it can again.
+ * While degraded, another run of overrunLimit late ticks is reported again so the caller can degrade further.
+ * A caller which recovers in steps calls stayDegraded after each step that is not yet complete.
+ */
+public class OverrunDetector {
+
+  /**
+   * The change in state caused by a tick
+   */
+  public enum Event {
+    NONE, DEGRADE, RECOVER
+  }
+
+  private final int overrunLimit;
+  private final int recoveryTicks;
+  private int consecutiveOverruns = 0;
+  private int consecutiveOnTime = 0;
+  private boolean degraded = false;
+
+  /**
+   * Constructor
+   *
+   * @param overrunLimit The number of consecutive late ticks which trigger degradation
+   * @param recoveryTicks The number of consecutive on time ticks which end degradation
+   */
+  public OverrunDetector(int overrunLimit, int recoveryTicks) {
+    this.overrunLimit = Math.max(overrunLimit, 1);
+    this.recoveryTicks = Math.max(recoveryTicks, 1);
+  }
+
+  /**
+   * Records the outcome of a tick
+   * @param overrun True if the tick finished after the start of the next period
+   * @return The resulting event
+   */
+  public Event update(boolean overrun) {
+    if (overrun) {
+      consecutiveOnTime = 0;
+      consecutiveOverruns++;
+      if (consecutiveOverruns >= overrunLimit) {
+        consecutiveOverruns = 0;
+        degraded = true;
+        return Event.DEGRADE;
+      }
+      return Event.NONE;
+    }
+    consecutiveOverruns = 0;
+    consecutiveOnTime++;
+    if (degraded && consecutiveOnTime >= recoveryTicks) {
+      degraded = false;
+      return Event.RECOVER;
+    }
+    return Event.NONE;
+  }
+
+  /**
+   * Stays degraded after a RECOVER event so another recoveryTicks on time ticks are needed for the next one
+   */
+  public void stayDegraded() {
+    degraded = true;
+    consecutiveOnTime = 0;
+  }
+
+  public boolean isDegraded() {
+    return degraded;
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.apache.commons.logging.Log;
+import org.ros.message.Time;
+import org.ros.node.ConnectedNode;
+import org.ros.node.parameter.ParameterTree;
+
+/**
+ * A replay clock shared by every mock driver in a process.
+ * <p>
+ * Sample ids are treated as recorded time. The sample group with replay index i is released at
+ * epoch + i / sampleRate and every message built from it is stamped with exactly that time, so drivers replaying
+ * groups with the same sample id publish them together with identical header stamps.
+ * <p>
+ * Time is read from the ROS node, which follows /clock when /use_sim_time is set. The epoch is taken from
+ * /mock_replay/start_time if it is set. Otherwise the first process to start sets it to its current time
+ * plus /mock_replay/start_delay so drivers in other processes, started within that delay, join the same epoch.
+ * A process which set the epoch deletes it again when its last driver releases the clock, so the next launch
+ * against the same master starts a new epoch instead of catching up from the old one.
+ * The sample rate is read from /mock_replay/sample_rate.
+ */
+public class ReplayClock {
+  static final String START_TIME_PARAM = "/mock_replay/start_time";
+  static final String START_DELAY_PARAM = "/mock_replay/start_delay";
+  static final String SAMPLE_RATE_PARAM = "/mock_replay/sample_rate";
+  static final long MAX_SLEEP = 10; // ms. Bounds the error when sim time runs faster than the wall clock
+
+  private static ReplayClock shared = null;
+  private static int users = 0; // Drivers which got the shared clock and have not released it
+  private static double setStartTime = Double.NaN; // s. The epoch this process set. NaN if it was read
+
+  private final ConnectedNode connectedNode;
+  private final long epochNanos;
+  private final double samplePeriodNanos;
+
+  /**
+   * Gets the replay clock of this process, creating it from the parameters of the first node to ask
+   * Every call must be matched by a call to release
+   * @param connectedNode The node asking for the clock
+   * @return The shared clock
+   */
+  public static synchronized ReplayClock getShared(ConnectedNode connectedNode) {
+    users++;
+    if (shared == null) {
+      ParameterTree params = connectedNode.getParameterTree();
+      Log log = connectedNode.getLog();
+      double sampleRate = params.getDouble(SAMPLE_RATE_PARAM, AbstractMockDriver.DEFAULT_PUBLISH_RATE);
+      double startTime;
+      if (params.has(START_TIME_PARAM)) {
+        startTime = params.getDouble(START_TIME_PARAM);
+      } else {
+        startTime = connectedNode.getCurrentTime().toSeconds() + params.getDouble(START_DELAY_PARAM, 1.0);
+        params.set(START_TIME_PARAM, startTime);
+        setStartTime = startTime;
+      }
+      shared = new ReplayClock(connectedNode, (long) (startTime * 1e9), sampleRate);
+      log.info("Replay clock started at " + startTime + " s with " + sampleRate + " samples per s");
+    }
+    return shared;
+  }
+
+  /**
+   * Releases the shared clock of a driver which stops replaying
+   * When the last driver releases it the clock is discarded and an epoch set by this process is deleted
+   * @param connectedNode The node of the driver
+   */
+  public static synchronized void release(ConnectedNode connectedNode) {
+    if (users == 0 || --users > 0) {
+      return;
+    }
+    shared = null;
+    if (Double.isNaN(setStartTime)) {
+      return;
+    }
+    try {
+      ParameterTree params = connectedNode.getParameterTree();
+      if (params.has(START_TIME_PARAM) && params.getDouble(START_TIME_PARAM) == setStartTime) {
+        params.delete(START_TIME_PARAM); // Not replaced by another process since this one set it
+      }
+    } catch (RuntimeException e) {
+      connectedNode.getLog().warn("Could not delete " + START_TIME_PARAM + " " + e.getMessage());
+    } finally {
+      setStartTime = Double.NaN;
+    }
+  }
+
+  /**
+   * Constructor
+   *
+   * @param connectedNode The node whose time is followed
+   * @param epochNanos The time at which replay index 0 is released in ns
+   * @param sampleRate The number of sample ids per second of recorded time
+   */
+  ReplayClock(ConnectedNode connectedNode, long epochNanos, double sampleRate) {
+    this.connectedNode = connectedNode;
+    this.epochNanos = epochNanos;
+    this.samplePeriodNanos = 1e9 / sampleRate;
+  }
+
+  /**
+   * Gets the release time of a sample group. This is also the header stamp of its messages
+   * @param replayIndex The replay index of the group
+   * @return The release time
+   */
+  public Time getReleaseTime(long replayIndex) {
+    return Time.fromNano(epochNanos + (long) (replayIndex * samplePeriodNanos));
+  }
+
+  /**
+   * Gets the replay index due at the current time
+   * @return The index of the latest released group. Negative before the epoch
+   */
+  public long getCurrentIndex() {
+    return (long) Math.floor((connectedNode.getCurrentTime().totalNsecs() - epochNanos) / samplePeriodNanos);
+  }
+
+  /**
+   * Blocks until a sample group is due
+   * @param replayIndex The replay index of the group
+   * @return The release time of the group
+   * @throws InterruptedException If interrupted while waiting
+   */
+  public Time awaitRelease(long replayIndex) throws InterruptedException {
+    Time release = getReleaseTime(replayIndex);
+    long remaining;
+    while ((remaining = release.totalNsecs() - connectedNode.getCurrentTime().totalNsecs()) > 0) {
+      long millis = Math.min(remaining / 1000000, MAX_SLEEP);
+      Thread.sleep(millis, millis == MAX_SLEEP ? 0 : (int) (remaining % 1000000));
+    }
+    return release;
+  }
+}
@@ -0,0 +1,547 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads the messages of a rosbag version 2.0 file in time order without deserializing them.
+ * <p>
+ * The connection and chunk info records at the end of the bag are read when it is opened. Each chunk is memory
+ * mapped when a cursor reaches it and the index data records which follow the chunk give the time and position of
+ * every message inside it, so a cursor only touches the chunks and messages of the topics it selects.
+ * Payloads are returned as views of the mapped file in the little endian ROS serialization.
+ * Only uncompressed chunks are supported. Bags recorded with compression can be converted with rosbag decompress
+ * and bags whose recording was interrupted must first be indexed with rosbag reindex.
+ */
+public class RosbagReader implements Closeable {
+  static final String MAGIC = "#ROSBAG V2.0\n";
+  static final byte OP_BAG_HEADER = 0x03;
+  static final byte OP_INDEX_DATA = 0x04;
+  static final byte OP_CHUNK = 0x05;
+  static final byte OP_CHUNK_INFO = 0x06;
+  static final byte OP_CONNECTION = 0x07;
+
+  /**
+   * A topic recorded in the bag
+   */
+  public static class Connection {
+    private final int id;
+    private final String topic;
+    private final String type;
+    private final String md5sum;
+    private final boolean latching;
+
+    Connection(int id, String topic, String type, String md5sum, boolean latching) {
+      this.id = id;
+      this.topic = topic;
+      this.type = type;
+      this.md5sum = md5sum;
+      this.latching = latching;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public String getTopic() {
+      return topic;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public String getMd5sum() {
+      return md5sum;
+    }
+
+    public boolean isLatching() {
+      return latching;
+    }
+  }
+
+  private final String path;
+  private final FileChannel channel;
+  private final long indexPos;
+  private final Map<Integer, Connection> connections = new LinkedHashMap<>();
+  private final long[] chunkPositions; // In time order
+  private final long[] chunkEnds; // The end of each chunk's index data records
+  private final int[][] chunkConnections; // The connections with messages in each chunk
+  private final long[] chunkLatestEnds; // The latest end time of each chunk and the chunks before it in ns
+  private final long startTime; // ns
+  private final long endTime; // ns
+  private final long messageCount;
+
+  /**
+   * Opens a bag and reads its connections and chunk infos
+   * @param path The path to the bag
+   * @throws IOException If the file could not be read or is not an indexed rosbag 2.0 file
+   */
+  public RosbagReader(String path) throws IOException {
+    this.path = path;
+    this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+    try {
+      ByteBuffer head = map(0, Math.min(channel.size(), 4096));
+      byte[] magic = new byte[MAGIC.length()];
+      if (head.remaining() < magic.length) {
+        throw new IOException(path + " is not a rosbag 2.0 file");
+      }
+      head.get(magic);
+      if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+        throw new IOException(path + " is not a rosbag 2.0 file");
+      }
+      Map<String, ByteBuffer> bagHeader = readHeader(head);
+      if (op(bagHeader) != OP_BAG_HEADER) {
+        throw new IOException(path + " does not start with a bag header record");
+      }
+      indexPos = bagHeader.get("index_pos").getLong();
+      int connectionCount = bagHeader.get("conn_count").getInt();
+      int chunkCount = bagHeader.get("chunk_count").getInt();
+      if (indexPos == 0) {
+        throw new IOException(path + " is not indexed. Run rosbag reindex on it");
+      }
+
+      ByteBuffer index = map(indexPos, channel.size() - indexPos);
+      for (int i = 0; i < connectionCount; i++) {
+        Map<String, ByteBuffer> header = readHeader(index);
+        if (op(header) != OP_CONNECTION) {
+          throw new IOException(path + " has an invalid connection record");
+        }
+        int id = header.get("conn").getInt();
+        Map<String, ByteBuffer> data = readHeader(index);
+        connections.put(id, new Connection(id, string(header.get("topic")), string(data.get("type")),
+          string(data.get("md5sum")), data.containsKey("latching") && "1".equals(string(data.get("latching")))));
+      }
+
+      long[] positions = new long[chunkCount];
+      final long[] startTimes = new long[chunkCount];
+      long[] endTimes = new long[chunkCount];
+      int[][] chunkConns = new int[chunkCount][];
+      long messages = 0;
+      for (int i = 0; i < chunkCount; i++) {
+        Map<String, ByteBuffer> header = readHeader(index);
+        if (op(header) != OP_CHUNK_INFO) {
+          throw new IOException(path + " has an invalid chunk info record");
+        }
+        positions[i] = header.get("chunk_pos").getLong();
+        startTimes[i] = time(header.get("start_time"));
+        endTimes[i] = time(header.get("end_time"));
+        int count = header.get("count").getInt();
+        int dataLength = index.getInt();
+        chunkConns[i] = new int[count];
+        for (int j = 0; j < count; j++) {
+          chunkConns[i][j] = index.getInt();
+          messages += index.getInt();
+        }
+        if (dataLength != count * 8) {
+          throw new IOException(path + " has an invalid chunk info record");
+        }
+      }
+
+      // The index data records of a chunk end where the next chunk in the file starts
+      long[] byPosition = positions.clone();
+      Arrays.sort(byPosition);
+      Integer[] order = new Integer[chunkCount];
+      for (int i = 0; i < chunkCount; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override public int compare(Integer a, Integer b) {
+          return Long.compare(startTimes[a], startTimes[b]);
+        }
+      });
+      chunkPositions = new long[chunkCount];
+      chunkEnds = new long[chunkCount];
+      chunkConnections = new int[chunkCount][];
+      chunkLatestEnds = new long[chunkCount];
+      for (int i = 0; i < chunkCount; i++) {
+        int chunk = order[i];
+        int next = Arrays.binarySearch(byPosition, positions[chunk]) + 1;
+        chunkPositions[i] = positions[chunk];
+        chunkEnds[i] = next < chunkCount ? byPosition[next] : indexPos;
+        chunkConnections[i] = chunkConns[chunk];
+        chunkLatestEnds[i] = i > 0 ? Math.max(chunkLatestEnds[i - 1], endTimes[chunk]) : endTimes[chunk];
+      }
+
+      long start = Long.MAX_VALUE;
+      long end = 0;
+      for (int i = 0; i < chunkCount; i++) {
+        start = Math.min(start, startTimes[i]);
+        end = Math.max(end, endTimes[i]);
+      }
+      startTime = chunkCount > 0 ? start : 0;
+      endTime = end;
+      messageCount = messages;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      if (e instanceof RuntimeException) {
+        throw new IOException(path + " is not a valid rosbag 2.0 file " + e, e);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * @return The connections of the bag
+   */
+  public Collection<Connection> getConnections() {
+    return Collections.unmodifiableCollection(connections.values());
+  }
+
+  /**
+   * @return The time of the first message in ns
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * @return The time of the last message in ns
+   */
+  public long getEndTime() {
+    return endTime;
+  }
+
+  /**
+   * @return The number of messages of every connection
+   */
+  public long getMessageCount() {
+    return messageCount;
+  }
+
+  /**
+   * Creates a cursor over the messages of some connections
+   * @param selected The connections to read
+   * @return A cursor positioned before the first message
+   */
+  public Cursor newCursor(Collection<Connection> selected) {
+    return new Cursor(selected);
+  }
+
+  @Override public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Iterates the messages of selected connections in time order.
+   * Messages of different chunks are returned chunk by chunk so overlapping chunks may be slightly out of order.
+   * A cursor is used by one thread and reuses its arrays for every chunk.
+   */
+  public class Cursor {
+    private final boolean[] selected;
+    private int chunk = -1;
+    private ByteBuffer chunkData = null;
+    private long[] times = new long[1024];
+    private long[] offsets = new long[1024];
+    private int[] connectionIds = new int[1024];
+    private int count = 0;
+    private int next = 0;
+    private Connection connection = null;
+    private long time = 0;
+    private ByteBuffer payload = null;
+
+    private Cursor(Collection<Connection> connectionsToRead) {
+      int maxId = 0;
+      for (Connection c : connectionsToRead) {
+        maxId = Math.max(maxId, c.getId());
+      }
+      selected = new boolean[maxId + 1];
+      for (Connection c : connectionsToRead) {
+        selected[c.getId()] = true;
+      }
+    }
+
+    /**
+     * Moves to the next message
+     * @return False if there are no more messages
+     * @throws IOException If the bag could not be read
+     */
+    public boolean next() throws IOException {
+      while (next >= count) {
+        if (!loadChunk(chunk + 1)) {
+          return false;
+        }
+      }
+      int offset = (int) offsets[next];
+      connection = connections.get(connectionIds[next]);
+      time = times[next];
+      next++;
+      int headerLength = chunkData.getInt(offset);
+      int dataStart = offset + 4 + headerLength + 4;
+      int dataLength = chunkData.getInt(offset + 4 + headerLength);
+      ByteBuffer view = chunkData.duplicate();
+      view.limit(dataStart + dataLength).position(dataStart);
+      payload = view.slice().order(ByteOrder.LITTLE_ENDIAN);
+      return true;
+    }
+
+    /**
+     * Moves before the first message received at or after a time without reading the chunks before it.
+     * The chunk is found by a binary search of the chunk info end times and the message by a binary search of the
+     * chunk's index entries.
+     * @param target The time in ns
+     * @return False if no message is received at or after the time. The cursor is then past the last message
+     * @throws IOException If the bag could not be read
+     */
+    public boolean seek(long target) throws IOException {
+      // Every message of the chunks before the first whose latest end time reaches the target is earlier
+      int first = 0;
+      int last = chunkLatestEnds.length;
+      while (first < last) {
+        int mid = (first + last) >>> 1;
+        if (chunkLatestEnds[mid] < target) {
+          first = mid + 1;
+        } else {
+          last = mid;
+        }
+      }
+      // Overlapping chunks may leave the selected messages of the found chunk before the target
+      while (loadChunk(first)) {
+        next = firstAtOrAfter(target);
+        if (next < count) {
+          return true;
+        }
+        first = chunk + 1;
+      }
+      return false;
+    }
+
+    /**
+     * Moves back before the first message
+     */
+    public void rewind() {
+      chunk = -1;
+      chunkData = null;
+      count = 0;
+      next = 0;
+    }
+
+    public Connection getConnection() {
+      return connection;
+    }
+
+    /**
+     * @return The receive time of the current message in ns
+     */
+    public long getTime() {
+      return time;
+    }
+
+    /**
+     * @return The serialized current message. A read only view of the mapped bag
+     */
+    public ByteBuffer getPayload() {
+      return payload;
+    }
+
+    /**
+     * Maps the next chunk holding a selected connection and reads the positions of its selected messages
+     * @param first The first chunk to consider
+     * @return False if no chunk is left
+     */
+    private boolean loadChunk(int first) throws IOException {
+      for (chunk = first; chunk < chunkPositions.length; chunk++) {
+        if (hasSelected(chunkConnections[chunk])) {
+          break;
+        }
+      }
+      count = 0;
+      next = 0;
+      if (chunk >= chunkPositions.length) {
+        chunkData = null;
+        return false;
+      }
+      ByteBuffer region = map(chunkPositions[chunk], chunkEnds[chunk] - chunkPositions[chunk]);
+      Map<String, ByteBuffer> header = readHeader(region);
+      if (op(header) != OP_CHUNK) {
+        throw new IOException(path + " has an invalid chunk record at " + chunkPositions[chunk]);
+      }
+      String compression = string(header.get("compression"));
+      if (!compression.equals("none")) {
+        throw new IOException(path + " uses " + compression + " chunk compression. Run rosbag decompress on it");
+      }
+      int dataLength = region.getInt();
+      ByteBuffer data = region.duplicate();
+      data.limit(region.position() + dataLength);
+      chunkData = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+      region.position(region.position() + dataLength);
+
+      for (int i = 0; i < chunkConnections[chunk].length && region.hasRemaining(); i++) {
+        Map<String, ByteBuffer> indexHeader = readHeader(region);
+        int indexLength = region.getInt();
+        if (op(indexHeader) != OP_INDEX_DATA) {
+          region.position(region.position() + indexLength);
+          continue;
+        }
+        int id = indexHeader.get("conn").getInt();
+        int entries = indexHeader.get("count").getInt();
+        if (id >= selected.length || !selected[id]) {
+          region.position(region.position() + indexLength);
+          continue;
+        }
+        ensureCapacity(count + entries);
+        for (int j = 0; j < entries; j++) {
+          times[count] = readTime(region);
+          offsets[count] = region.getInt() & 0xffffffffL;
+          connectionIds[count] = id;
+          count++;
+        }
+      }
+      sortByTime(times, offsets, connectionIds, count);
+      return true;
+    }
+
+    /**
+     * @param target The time in ns
+     * @return The index of the first message of the loaded chunk received at or after the time. count if none is
+     */
+    private int firstAtOrAfter(long target) {
+      int first = 0;
+      int last = count;
+      while (first < last) {
+        int mid = (first + last) >>> 1;
+        if (times[mid] < target) {
+          first = mid + 1;
+        } else {
+          last = mid;
+        }
+      }
+      return first;
+    }
+
+    private boolean hasSelected(int[] chunkConnectionIds) {
+      for (int id : chunkConnectionIds) {
+        if (id < selected.length && selected[id]) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > times.length) {
+        int size = Math.max(capacity, times.length * 2);
+        times = Arrays.copyOf(times, size);
+        offsets = Arrays.copyOf(offsets, size);
+        connectionIds = Arrays.copyOf(connectionIds, size);
+      }
+    }
+  }
+
+  /**
+   * Maps a region of the bag
+   */
+  private ByteBuffer map(long position, long size) throws IOException {
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException(path + " has a region larger than 2 GB at " + position);
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Reads a record header and leaves the buffer at the record's data length
+   * @param buffer The buffer positioned at the record
+   * @return The fields of the header as little endian views of their values
+   */
+  static Map<String, ByteBuffer> readHeader(ByteBuffer buffer) {
+    int headerLength = buffer.getInt();
+    int end = buffer.position() + headerLength;
+    Map<String, ByteBuffer> fields = new HashMap<>();
+    while (buffer.position() < end) {
+      int fieldLength = buffer.getInt();
+      int fieldStart = buffer.position();
+      int separator = fieldStart;
+      while (buffer.get(separator) != '=') {
+        separator++;
+      }
+      byte[] name = new byte[separator - fieldStart];
+      buffer.get(name);
+      ByteBuffer value = buffer.duplicate();
+      value.limit(fieldStart + fieldLength).position(separator + 1);
+      fields.put(new String(name, StandardCharsets.US_ASCII), value.slice().order(ByteOrder.LITTLE_ENDIAN));
+      buffer.position(fieldStart + fieldLength);
+    }
+    return fields;
+  }
+
+  /**
+   * Reads a ROS time of two unsigned 32 bit values
+   * @return The time in ns
+   */
+  static long readTime(ByteBuffer buffer) {
+    long secs = buffer.getInt() & 0xffffffffL;
+    long nsecs = buffer.getInt() & 0xffffffffL;
+    return secs * 1000000000L + nsecs;
+  }
+
+  private static long time(ByteBuffer value) {
+    return readTime(value.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+  }
+
+  private static byte op(Map<String, ByteBuffer> header) {
+    ByteBuffer op = header.get("op");
+    return op == null ? -1 : op.get(0);
+  }
+
+  private static String string(ByteBuffer value) {
+    if (value == null) {
+      return "";
+    }
+    byte[] bytes = new byte[value.remaining()];
+    value.duplicate().get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Sorts the message positions of a chunk by time with a shell sort which does not allocate
+   * Messages with equal times may change order
+   */
+  private static void sortByTime(long[] times, long[] offsets, int[] connectionIds, int count) {
+    for (int gap = count / 2; gap > 0; gap /= 2) {
+      for (int i = gap; i < count; i++) {
+        long time = times[i];
+        long offset = offsets[i];
+        int connectionId = connectionIds[i];
+        int j = i;
+        while (j >= gap && times[j - gap] > time) {
+          times[j] = times[j - gap];
+          offsets[j] = offsets[j - gap];
+          connectionIds[j] = connectionIds[j - gap];
+          j -= gap;
+        }
+        times[j] = time;
+        offsets[j] = offset;
+        connectionIds[j] = connectionId;
+      }
+    }
+  }
+}
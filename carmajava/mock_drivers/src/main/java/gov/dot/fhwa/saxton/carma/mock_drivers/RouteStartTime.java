@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.ros.node.ConnectedNode;
+import org.ros.node.parameter.ParameterTree;
+
+/**
+ * The time at which every mock driver following a route is at its first waypoint.
+ * <p>
+ * The time is read from /mock_route/start_time if it is set. Otherwise the first driver to load a route sets it to
+ * its current time, so drivers in other nodes and processes which load the route later publish the states of the
+ * same vehicle. Like the epoch of the ReplayClock, a process which set the time deletes it again when its last
+ * route driver releases it, so the next launch against the same master starts the route again.
+ */
+public class RouteStartTime {
+  static final String START_TIME_PARAM = "/mock_route/start_time";
+
+  private static int users = 0; // Drivers which got the start time and have not released it
+  private static double setStartTime = Double.NaN; // s. The time this process set. NaN if it was read
+
+  /**
+   * Gets the shared route start time, setting it if no driver has yet
+   * Every call must be matched by a call to release
+   * @param connectedNode The node of the driver loading a route
+   * @return The start time in s
+   */
+  public static synchronized double acquire(ConnectedNode connectedNode) {
+    users++;
+    ParameterTree params = connectedNode.getParameterTree();
+    if (params.has(START_TIME_PARAM)) {
+      return params.getDouble(START_TIME_PARAM);
+    }
+    double startTime = connectedNode.getCurrentTime().toSeconds();
+    params.set(START_TIME_PARAM, startTime);
+    setStartTime = startTime;
+    connectedNode.getLog().info("Route start time set to " + startTime + " s");
+    return startTime;
+  }
+
+  /**
+   * Releases the start time of a driver which stops following its route
+   * When the last driver releases it a start time set by this process is deleted
+   * @param connectedNode The node of the driver
+   */
+  public static synchronized void release(ConnectedNode connectedNode) {
+    if (users == 0 || --users > 0 || Double.isNaN(setStartTime)) {
+      return;
+    }
+    try {
+      ParameterTree params = connectedNode.getParameterTree();
+      if (params.has(START_TIME_PARAM) && params.getDouble(START_TIME_PARAM) == setStartTime) {
+        params.delete(START_TIME_PARAM); // Not replaced by another process since this one set it
+      }
+    } catch (RuntimeException e) {
+      connectedNode.getLog().warn("Could not delete " + START_TIME_PARAM + " " + e.getMessage());
+    } finally {
+      setStartTime = Double.NaN;
+    }
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.ros.message.Time;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A vehicle state source which drives a kinematic vehicle along a waypoint route file such as
+ * those found in carmajava/routes.
+ * <p>
+ * The route file must have a header line containing at least the columns x, y, z and velocity.
+ * Speed changes linearly with distance between waypoints and heading is taken from the route geometry.
+ * The route is closed back to its first waypoint and driven repeatedly.
+ * <p>
+ * The state is a pure function of time measured from a start epoch. Mock drivers in different processes
+ * which load the same route with the same epoch therefore publish mutually consistent data.
+ */
+public class RouteTrajectory implements IVehicleStateSource {
+  static final double MIN_SPEED = 0.5; // m/s Keeps segment traversal times finite
+  static final double MIN_WAYPOINT_SPACING = 1e-3; // m Waypoints closer than this are merged
+
+  private final LocalTangentPlane tangentPlane;
+  private final double startTime; // s
+  private final double wheelBase; // m
+  private final double steeringRatio;
+
+  // Per waypoint values. The segment i runs from waypoint i to waypoint (i + 1) % count
+  private final double[] x;
+  private final double[] y;
+  private final double[] z;
+  private final double[] speed;
+  private final double[] heading;
+  private final double[] segLength;
+  private final double[] segAccel;
+  private final double[] segYawRate;
+  private final double[] segStartTime;
+  private final double[] segStartDist;
+  private final double duration; // s
+  private final double length; // m
+
+  /**
+   * Constructor
+   *
+   * @param waypoints The route waypoints as {x, y, z, speed} rows
+   * @param tangentPlane The conversion used to compute the geodetic position
+   * @param startTime The time in seconds at which the vehicle is at the first waypoint
+   * @param wheelBase The vehicle wheel base in m used to compute the steering angle
+   * @param steeringRatio The ratio of steering wheel angle to road wheel angle
+   * @throws IllegalArgumentException If the route has fewer than two distinct waypoints
+   */
+  public RouteTrajectory(List<double[]> waypoints, LocalTangentPlane tangentPlane, double startTime,
+    double wheelBase, double steeringRatio) throws IllegalArgumentException {
+    this.tangentPlane = tangentPlane;
+    this.startTime = startTime;
+    this.wheelBase = wheelBase;
+    this.steeringRatio = steeringRatio;
+
+    List<double[]> distinct = new ArrayList<>(waypoints.size());
+    for (double[] wp : waypoints) {
+      if (distinct.isEmpty() || distance(distinct.get(distinct.size() - 1), wp) >= MIN_WAYPOINT_SPACING) {
+        distinct.add(wp);
+      }
+    }
+    if (distinct.size() > 2 && distance(distinct.get(0), distinct.get(distinct.size() - 1)) < MIN_WAYPOINT_SPACING) {
+      distinct.remove(distinct.size() - 1);
+    }
+    if (distinct.size() < 2) {
+      throw new IllegalArgumentException("A route requires at least two distinct waypoints");
+    }
+
+    final int count = distinct.size();
+    x = new double[count];
+    y = new double[count];
+    z = new double[count];
+    speed = new double[count];
+    heading = new double[count];
+    segLength = new double[count];
+    segAccel = new double[count];
+    segYawRate = new double[count];
+    segStartTime = new double[count + 1];
+    segStartDist = new double[count + 1];
+
+    for (int i = 0; i < count; i++) {
+      double[] wp = distinct.get(i);
+      x[i] = wp[0];
+      y[i] = wp[1];
+      z[i] = wp[2];
+      speed[i] = Math.max(wp[3], MIN_SPEED);
+    }
+
+    double[] segHeading = new double[count];
+    for (int i = 0; i < count; i++) {
+      int next = (i + 1) % count;
+      segLength[i] = Math.hypot(x[next] - x[i], y[next] - y[i]);
+      segHeading[i] = Math.atan2(y[next] - y[i], x[next] - x[i]);
+    }
+    // Waypoint heading is the bisector of the adjoining segments so heading is continuous along the route
+    for (int i = 0; i < count; i++) {
+      double prev = segHeading[(i + count - 1) % count];
+      heading[i] = prev + wrapAngle(segHeading[i] - prev) / 2.0;
+    }
+
+    for (int i = 0; i < count; i++) {
+      int next = (i + 1) % count;
+      double segDuration = 2.0 * segLength[i] / (speed[i] + speed[next]);
+      segAccel[i] = (speed[next] * speed[next] - speed[i] * speed[i]) / (2.0 * segLength[i]);
+      segYawRate[i] = wrapAngle(heading[next] - heading[i]) / segDuration;
+      segStartTime[i + 1] = segStartTime[i] + segDuration;
+      segStartDist[i + 1] = segStartDist[i] + segLength[i];
+    }
+    duration = segStartTime[count];
+    length = segStartDist[count];
+  }
+
+  /**
+   * Loads a route file
+   *
+   * @param routeFilePath The path to the route csv file
+   * @param velocityScale The factor which converts the velocity column to m/s. Waypoint files written by
+   *                      the autoware waypoint saver store km/h.
+   * @param tangentPlane The conversion used to compute the geodetic position
+   * @param startTime The time in seconds at which the vehicle is at the first waypoint
+   * @param wheelBase The vehicle wheel base in m used to compute the steering angle
+   * @param steeringRatio The ratio of steering wheel angle to road wheel angle
+   * @return The loaded trajectory
+   * @throws IOException If the file could not be read or does not contain a valid route
+   */
+  public static RouteTrajectory load(String routeFilePath, double velocityScale, LocalTangentPlane tangentPlane,
+    double startTime, double wheelBase, double steeringRatio) throws IOException {
+    List<double[]> waypoints = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(routeFilePath))) {
+      String headerLine = reader.readLine();
+      if (headerLine == null) {
+        throw new IOException("Route file " + routeFilePath + " is empty");
+      }
+      List<String> header = Arrays.asList(headerLine.trim().split(","));
+      int[] cols = {header.indexOf("x"), header.indexOf("y"), header.indexOf("z"), header.indexOf("velocity")};
+      for (int col : cols) {
+        if (col < 0) {
+          throw new IOException("Route file " + routeFilePath + " must have x, y, z and velocity columns");
+        }
+      }
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        String[] elements = line.split(",");
+        double[] wp = new double[cols.length];
+        for (int i = 0; i < cols.length; i++) {
+          wp[i] = Double.parseDouble(elements[cols[i]]);
+        }
+        wp[3] *= velocityScale;
+        waypoints.add(wp);
+      }
+    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+      throw new IOException("Route file " + routeFilePath + " contains an invalid waypoint. " + e.getMessage(), e);
+    }
+    try {
+      return new RouteTrajectory(waypoints, tangentPlane, startTime, wheelBase, steeringRatio);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Route file " + routeFilePath + " is invalid. " + e.getMessage(), e);
+    }
+  }
+
+  @Override public void sample(Time time, VehicleState state) {
+    sample(time.toSeconds(), state);
+  }
+
+  /**
+   * Samples the vehicle state at the provided time
+   * @param seconds The time to sample at in s
+   * @param state The state object which will be filled out
+   */
+  public void sample(double seconds, VehicleState state) {
+    double elapsed = seconds - startTime;
+    double laps = Math.floor(elapsed / duration);
+    double t = elapsed - laps * duration;
+
+    int i = Arrays.binarySearch(segStartTime, t);
+    if (i < 0) {
+      i = -i - 2; // Index of the segment containing t
+    }
+    i = Math.min(Math.max(i, 0), x.length - 1);
+    int next = (i + 1) % x.length;
+
+    double dt = t - segStartTime[i];
+    double ds = Math.min(Math.max(speed[i] * dt + 0.5 * segAccel[i] * dt * dt, 0.0), segLength[i]);
+    double fraction = ds / segLength[i];
+
+    state.x = x[i] + (x[next] - x[i]) * fraction;
+    state.y = y[i] + (y[next] - y[i]) * fraction;
+    state.z = z[i] + (z[next] - z[i]) * fraction;
+    state.heading = wrapAngle(heading[i] + wrapAngle(heading[next] - heading[i]) * fraction);
+    state.speed = Math.max(speed[i] + segAccel[i] * dt, 0.0);
+    state.acceleration = segAccel[i];
+    state.yawRate = segYawRate[i];
+    state.steeringWheelAngle = Math.atan(wheelBase * state.yawRate / Math.max(state.speed, MIN_SPEED)) * steeringRatio;
+    state.odometer = Math.max(laps * length + segStartDist[i] + ds, 0.0);
+    tangentPlane.updateGeodetic(state);
+  }
+
+  /**
+   * Gets the time needed to drive the route once
+   * @return The duration in s
+   */
+  public double getDuration() {
+    return duration;
+  }
+
+  /**
+   * Gets the length of one lap of the route
+   * @return The length in m
+   */
+  public double getLength() {
+    return length;
+  }
+
+  /**
+   * Wraps an angle to the range [-pi, pi)
+   * @param angle The angle in rad
+   * @return The wrapped angle in rad
+   */
+  static double wrapAngle(double angle) {
+    return angle - 2.0 * Math.PI * Math.floor((angle + Math.PI) / (2.0 * Math.PI));
+  }
+
+  private static double distance(double[] a, double[] b) {
+    return Math.hypot(a[0] - b[0], a[1] - b[1]);
+  }
+}
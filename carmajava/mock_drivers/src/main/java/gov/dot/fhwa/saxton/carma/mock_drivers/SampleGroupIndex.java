@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * The sample id and file offset of every sample group in a data file.
+ * <p>
+ * The index is built in one block by block pass over the file which only parses the sample id column.
+ * It holds two primitive arrays so it stays small for files with millions of groups.
+ * A sample group starts at every row whose sample id differs from the previous row. The header line is skipped.
+ */
+public class SampleGroupIndex {
+  static final int READ_BUFFER_SIZE = 1 << 16;
+
+  private final int[] sampleIds;
+  private final long[] offsets;
+  private final int size;
+  private final boolean sorted;
+
+  private SampleGroupIndex(int[] sampleIds, long[] offsets, int size) {
+    this.sampleIds = sampleIds;
+    this.offsets = offsets;
+    this.size = size;
+    boolean ascending = true;
+    for (int i = 1; i < size && ascending; i++) {
+      ascending = sampleIds[i] > sampleIds[i - 1];
+    }
+    this.sorted = ascending;
+  }
+
+  /**
+   * Indexes a data file
+   * @param path The path to the data file
+   * @param sampleIdIdx The column of the sample id
+   * @param delimiter The column delimiter
+   * @return The index
+   * @throws IOException If the file could not be read
+   */
+  public static SampleGroupIndex build(String path, int sampleIdIdx, char delimiter) throws IOException {
+    int[] ids = new int[1024];
+    long[] starts = new long[1024];
+    int count = 0;
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    try (InputStream in = new FileInputStream(path)) {
+      long offset = 0;
+      long lineStart = 0;
+      boolean header = true;
+      int column = 0;
+      int id = 0;
+      boolean idValid = false;
+      boolean negative = false;
+      boolean invalid = false;
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        for (int i = 0; i < read; i++) {
+          byte b = buffer[i];
+          offset++;
+          if (b == '\n') {
+            if (!header && idValid && (count == 0 || ids[count - 1] != (negative ? -id : id))) {
+              if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+              }
+              ids[count] = negative ? -id : id;
+              starts[count] = lineStart;
+              count++;
+            }
+            header = false;
+            lineStart = offset;
+            column = 0;
+            id = 0;
+            idValid = false;
+            negative = false;
+            invalid = false;
+          } else if (b == delimiter) {
+            column++;
+          } else if (column == sampleIdIdx && !header && !invalid) {
+            if (b >= '0' && b <= '9') {
+              id = id * 10 + (b - '0');
+              idValid = true;
+            } else if (b == '-' && !idValid) {
+              negative = true;
+            } else if (b != ' ' && b != '\r') {
+              invalid = true; // Not a number so the row is not indexed
+              idValid = false;
+            }
+          }
+        }
+      }
+      if (!header && idValid && offset > lineStart
+        && (count == 0 || ids[count - 1] != (negative ? -id : id))) {
+        // Last line without a line break
+        if (count == ids.length) {
+          ids = Arrays.copyOf(ids, count + 1);
+          starts = Arrays.copyOf(starts, count + 1);
+        }
+        ids[count] = negative ? -id : id;
+        starts[count] = lineStart;
+        count++;
+      }
+    }
+    return new SampleGroupIndex(ids, starts, count);
+  }
+
+  /**
+   * @return The number of sample groups
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return True if sample ids strictly increase through the file
+   */
+  public boolean isSorted() {
+    return sorted;
+  }
+
+  public int getSampleId(int group) {
+    return sampleIds[group];
+  }
+
+  /**
+   * @param group The position of the group in the file
+   * @return The file offset of the first row of the group
+   */
+  public long getOffset(int group) {
+    return offsets[group];
+  }
+
+  /**
+   * Finds the first sample group whose id is not less than a sample id
+   * Uses a binary search when the ids are sorted and a linear search for the first equal id otherwise
+   * @param sampleId The sample id to find
+   * @return The position of the group. -1 if there is no such group
+   */
+  public int findSampleId(int sampleId) {
+    if (!sorted) {
+      for (int i = 0; i < size; i++) {
+        if (sampleIds[i] == sampleId) {
+          return i;
+        }
+      }
+      return -1;
+    }
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sampleIds[mid] < sampleId) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low < size ? low : -1;
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds sample groups between two recorded sample groups of a data file.
+ * <p>
+ * Each column is interpolated according to its kind. LINEAR columns are interpolated linearly, QUATERNION marks
+ * the w column of four consecutive w, x, y, z columns which are interpolated with slerp and HOLD columns keep the
+ * value of the earlier group. Booleans, enums, ids and integer columns must be HOLD.
+ * <p>
+ * Row i of one group is interpolated with row i of the other. Groups with a different number of rows and the
+ * step from the last group of a file back to the first are held instead of interpolated.
+ * Only the output rows are kept between calls so memory does not grow with the length of the replay.
+ */
+public class SampleInterpolator {
+
+  /**
+   * How a column is interpolated
+   */
+  public enum Kind {
+    HOLD, LINEAR, QUATERNION
+  }
+
+  static final double SLERP_LINEAR_THRESHOLD = 0.9995; // Quaternions this close are interpolated linearly
+
+  private final Kind[] kinds;
+  private final int sampleIdIdx;
+  private final boolean holdsAll; // True if no column changes between groups
+  private final List<String[]> output = new ArrayList<>();
+  private final double[] quatA = new double[4];
+  private final double[] quatB = new double[4];
+  private final double[] quatOut = new double[4];
+
+  /**
+   * Constructor
+   *
+   * @param kinds The kind of each column. Columns beyond the end of the array are held
+   * @param sampleIdIdx The column of the sample id
+   */
+  public SampleInterpolator(Kind[] kinds, int sampleIdIdx) {
+    this.kinds = Arrays.copyOf(kinds, kinds.length);
+    this.sampleIdIdx = sampleIdIdx;
+    boolean hold = true;
+    for (Kind kind : kinds) {
+      hold &= kind == Kind.HOLD;
+    }
+    this.holdsAll = hold;
+  }
+
+  /**
+   * Creates a column kind array with every column held
+   * @param columnCount The number of columns
+   * @return The kinds
+   */
+  public static Kind[] holdAll(int columnCount) {
+    Kind[] kinds = new Kind[columnCount];
+    Arrays.fill(kinds, Kind.HOLD);
+    return kinds;
+  }
+
+  /**
+   * Interpolates between two sample groups
+   * The returned rows are reused by the next call
+   * @param from The earlier group
+   * @param to The later group
+   * @param t The fraction of the way from the earlier to the later group in [0, 1)
+   * @return The interpolated group. from itself if it cannot be interpolated
+   */
+  public List<String[]> interpolate(List<String[]> from, List<String[]> to, double t) {
+    if (holdsAll || t <= 0.0 || from.isEmpty() || from.size() != to.size()
+      || Integer.parseInt(to.get(0)[sampleIdIdx]) < Integer.parseInt(from.get(0)[sampleIdIdx])) {
+      return from;
+    }
+    while (output.size() > from.size()) {
+      output.remove(output.size() - 1);
+    }
+    for (int i = 0; i < from.size(); i++) {
+      String[] a = from.get(i);
+      String[] b = to.get(i);
+      if (i == output.size()) {
+        output.add(new String[a.length]);
+      } else if (output.get(i).length != a.length) {
+        output.set(i, new String[a.length]);
+      }
+      interpolateRow(a, b, t, output.get(i));
+    }
+    return output;
+  }
+
+  private void interpolateRow(String[] a, String[] b, double t, String[] out) {
+    int col = 0;
+    while (col < a.length) {
+      Kind kind = col < kinds.length && a.length == b.length ? kinds[col] : Kind.HOLD;
+      switch (kind) {
+        case LINEAR:
+          double va = Double.parseDouble(a[col]);
+          out[col] = Double.toString(va + (Double.parseDouble(b[col]) - va) * t);
+          col++;
+          break;
+        case QUATERNION:
+          for (int j = 0; j < 4; j++) {
+            quatA[j] = Double.parseDouble(a[col + j]);
+            quatB[j] = Double.parseDouble(b[col + j]);
+          }
+          slerp(quatA, quatB, t, quatOut);
+          for (int j = 0; j < 4; j++) {
+            out[col + j] = Double.toString(quatOut[j]);
+          }
+          col += 4;
+          break;
+        default:
+          out[col] = a[col];
+          col++;
+          break;
+      }
+    }
+  }
+
+  /**
+   * Spherical linear interpolation between two quaternions stored as w, x, y, z
+   * The inputs need not be normalized. The shorter arc is used
+   * @param a The start quaternion. Normalized in place
+   * @param b The end quaternion. Normalized in place
+   * @param t The interpolation fraction
+   * @param out The normalized result
+   */
+  static void slerp(double[] a, double[] b, double t, double[] out) {
+    normalize(a);
+    normalize(b);
+    double dot = a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3];
+    double sign = 1.0;
+    if (dot < 0.0) {
+      dot = -dot;
+      sign = -1.0;
+    }
+    double wa;
+    double wb;
+    if (dot > SLERP_LINEAR_THRESHOLD) {
+      wa = 1.0 - t;
+      wb = t;
+    } else {
+      double theta = Math.acos(dot);
+      double sinTheta = Math.sin(theta);
+      wa = Math.sin((1.0 - t) * theta) / sinTheta;
+      wb = Math.sin(t * theta) / sinTheta;
+    }
+    for (int j = 0; j < 4; j++) {
+      out[j] = wa * a[j] + sign * wb * b[j];
+    }
+    normalize(out);
+  }
+
+  private static void normalize(double[] q) {
+    double norm = Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+    if (norm == 0.0) {
+      q[0] = 1.0; // Treat a zero quaternion as the identity
+      return;
+    }
+    for (int j = 0; j < 4; j++) {
+      q[j] /= norm;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.apache.commons.logging.Log;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ramps the publish rate and sample scale of a driver step by step to find where publishing saturates.
+ * <p>
+ * run must be called once at the end of every step. It measures the step which just ended and then multiplies
+ * the rate and scale by the step factors. The ramp stops when both reach their maximum or when the achieved
+ * tick rate falls below saturationRatio of the target rate. On saturation the driver is returned to the
+ * settings of the last step which kept up.
+ * <p>
+ * Each step adds one line per topic to the saturation curve: the target and achieved rates, the message rate
+ * and bandwidth of the topic and the mean time spent in its publish calls. rosjava does not expose the length of
+ * a publisher's outgoing queue, so a rising publish call time and growing deadline misses are the signs of
+ * queue pressure.
+ */
+public class StressProfile implements Runnable {
+  static final String CSV_HEADER = "driver,step,target rate (Hz),sample scale,achieved rate (Hz),deadline misses,"
+    + "topic,message rate (Hz),bandwidth (B/s),mean publish call (us),subscribers";
+
+  private final IMockDriver driver;
+  private final Log log;
+  private final double rateFactor;
+  private final int scaleFactor;
+  private final double maxRate; // Hz
+  private final int maxScale;
+  private final double saturationRatio;
+  private final String outputFile;
+
+  private int step = 0;
+  private boolean finished = false;
+  private long prevNanos = System.nanoTime();
+  private long prevTicks;
+  private long prevMisses;
+  private double lastGoodRate; // Hz
+  private int lastGoodScale;
+  private final Map<String, DriverMetrics.TopicTotals> prevTotals = new HashMap<>();
+  private final StringBuilder curve = new StringBuilder(CSV_HEADER).append('\n');
+
+  /**
+   * Constructor
+   *
+   * @param driver The driver to ramp
+   * @param log The log used to report each step
+   * @param rateFactor The factor applied to the publish rate after each step
+   * @param scaleFactor The factor applied to the sample scale after each step
+   * @param maxRate The largest publish rate in Hz
+   * @param maxScale The largest sample scale
+   * @param saturationRatio The fraction of the target rate below which publishing is saturated
+   * @param outputFile The csv file the saturation curve is written to. Empty to only log it
+   */
+  public StressProfile(IMockDriver driver, Log log, double rateFactor, int scaleFactor, double maxRate,
+    int maxScale, double saturationRatio, String outputFile) {
+    this.driver = driver;
+    this.log = log;
+    this.rateFactor = rateFactor;
+    this.scaleFactor = scaleFactor;
+    this.maxRate = maxRate;
+    this.maxScale = maxScale;
+    this.saturationRatio = saturationRatio;
+    this.outputFile = outputFile;
+    prevTicks = driver.getMetrics().getTicks();
+    prevMisses = driver.getMetrics().getDeadlineMisses();
+    lastGoodRate = driver.getPublishRate();
+    lastGoodScale = driver.getSampleScale();
+  }
+
+  public boolean isFinished() {
+    return finished;
+  }
+
+  @Override public void run() {
+    if (finished) {
+      return;
+    }
+    DriverMetrics metrics = driver.getMetrics();
+    long now = System.nanoTime();
+    double duration = (now - prevNanos) * 1e-9;
+    long ticks = metrics.getTicks();
+    long misses = metrics.getDeadlineMisses();
+    double targetRate = driver.getPublishRate();
+    double achievedRate = (ticks - prevTicks) / duration;
+
+    for (DriverMetrics.TopicTotals totals : metrics.getTopicTotals()) {
+      DriverMetrics.TopicTotals prev = prevTotals.get(totals.getTopic());
+      long messages = totals.getMessages() - (prev == null ? 0 : prev.getMessages());
+      long bytes = totals.getBytes() - (prev == null ? 0 : prev.getBytes());
+      long publishNanos = totals.getPublishNanos() - (prev == null ? 0 : prev.getPublishNanos());
+      curve.append(String.format("%s,%d,%.1f,%d,%.1f,%d,%s,%.1f,%.0f,%.2f,%d%n", driver.getGraphName(), step,
+        targetRate, driver.getSampleScale(), achievedRate, misses - prevMisses, totals.getTopic(),
+        messages / duration, bytes / duration, messages == 0 ? 0.0 : publishNanos / 1e3 / messages,
+        totals.getSubscribers()));
+      prevTotals.put(totals.getTopic(), totals);
+    }
+    log.info(driver.getGraphName() + " stress step " + step + " target " + targetRate + " Hz scale "
+      + driver.getSampleScale() + " achieved " + String.format("%.1f", achievedRate) + " Hz");
+
+    prevNanos = now;
+    prevTicks = ticks;
+    prevMisses = misses;
+    step++;
+
+    int scale = driver.getSampleScale();
+    if (achievedRate < saturationRatio * targetRate) {
+      driver.setPublishRate(lastGoodRate);
+      driver.setSampleScale(lastGoodScale);
+      finish("saturated at " + targetRate + " Hz with sample scale " + scale);
+      return;
+    }
+    lastGoodRate = targetRate;
+    lastGoodScale = scale;
+    if (targetRate >= maxRate && scale >= maxScale) {
+      finish("reached the target of " + maxRate + " Hz with sample scale " + maxScale);
+    } else {
+      driver.setPublishRate(Math.min(targetRate * rateFactor, maxRate));
+      driver.setSampleScale(Math.min(scale * scaleFactor, maxScale));
+    }
+  }
+
+  private void finish(String reason) {
+    finished = true;
+    log.info(driver.getGraphName() + " stress profile " + reason + "\n" + curve);
+    if (outputFile.isEmpty()) {
+      return;
+    }
+    try (PrintWriter writer = new PrintWriter(new FileWriter(outputFile))) {
+      writer.print(curve);
+    } catch (IOException e) {
+      log.warn(driver.getGraphName() + " could not write saturation curve to " + outputFile + " " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.util.Random;
+
+/**
+ * A crowded traffic scene of tracked objects moving relative to the host vehicle.
+ * <p>
+ * Objects keep their id for the life of the scene. An object which leaves the tracked range
+ * re-enters from the opposite end of its lane so the object count per frame stays constant.
+ * All object state is held in primitive arrays so stepping the scene does not allocate.
+ */
+class SyntheticTrafficScene {
+
+  static final double LANE_WIDTH = 3.7; // m
+  static final double MIN_X = -100.0; // m behind the host vehicle
+  static final double MAX_X = 200.0; // m ahead of the host vehicle
+  static final int LANE_COUNT = 5; // Host lane plus two lanes on each side
+  static final double MAX_RELATIVE_SPEED = 5.0; // m/s
+
+  private final int[] ids;
+  private final double[] x;
+  private final double[] y;
+  private final double[] vx;
+  private final double[] length;
+  private final double[] width;
+  private final double[] height;
+  private final boolean[] truck;
+
+  /**
+   * Constructor
+   *
+   * @param objectCount The number of objects in the scene
+   * @param seed The seed used to place the objects. The same seed always produces the same scene.
+   */
+  SyntheticTrafficScene(int objectCount, long seed) {
+    Random random = new Random(seed);
+    ids = new int[objectCount];
+    x = new double[objectCount];
+    y = new double[objectCount];
+    vx = new double[objectCount];
+    length = new double[objectCount];
+    width = new double[objectCount];
+    height = new double[objectCount];
+    truck = new boolean[objectCount];
+
+    for (int i = 0; i < objectCount; i++) {
+      ids[i] = i + 1; // Id 0 is reserved for unknown objects
+      x[i] = MIN_X + random.nextDouble() * (MAX_X - MIN_X);
+      y[i] = (i % LANE_COUNT - LANE_COUNT / 2) * LANE_WIDTH;
+      vx[i] = (random.nextDouble() * 2.0 - 1.0) * MAX_RELATIVE_SPEED;
+      truck[i] = random.nextInt(10) == 0;
+      length[i] = truck[i] ? 16.0 : 4.5;
+      width[i] = truck[i] ? 2.6 : 1.8;
+      height[i] = truck[i] ? 4.0 : 1.5;
+    }
+  }
+
+  /**
+   * Advances all objects by the provided time step
+   *
+   * @param dt The time step in seconds
+   */
+  void step(double dt) {
+    final double range = MAX_X - MIN_X;
+    for (int i = 0; i < x.length; i++) {
+      x[i] += vx[i] * dt;
+      if (x[i] >= MAX_X) {
+        x[i] -= range;
+      } else if (x[i] < MIN_X) {
+        x[i] += range;
+      }
+    }
+  }
+
+  int size() {
+    return ids.length;
+  }
+
+  int getId(int i) {
+    return ids[i];
+  }
+
+  double getX(int i) {
+    return x[i];
+  }
+
+  double getY(int i) {
+    return y[i];
+  }
+
+  double getVelocityX(int i) {
+    return vx[i];
+  }
+
+  double getLength(int i) {
+    return length[i];
+  }
+
+  double getWidth(int i) {
+    return width[i];
+  }
+
+  double getHeight(int i) {
+    return height[i];
+  }
+
+  boolean isTruck(int i) {
+    return truck[i];
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A log of timestamped records which a mock driver replays at their recorded spacing instead of a data file.
+ * See AbstractMockDriver.setTimedLog
+ */
+public interface TimedLogReader extends Closeable {
+
+  /**
+   * Moves to the next record
+   * @return False at the end of the log
+   * @throws IOException If the log could not be read
+   */
+  boolean next() throws IOException;
+
+  /**
+   * Moves back before the first record
+   * @throws IOException If the log could not be read
+   */
+  void rewind() throws IOException;
+
+  /**
+   * @return The time of the current record in us on the log's clock
+   */
+  long getTime();
+}
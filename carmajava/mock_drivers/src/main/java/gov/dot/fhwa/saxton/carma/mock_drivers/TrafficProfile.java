@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.ros.node.topic.Publisher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shapes the timing of the messages published by a driver to imitate unreliable sensors.
+ * <p>
+ * The profile combines the following effects, each of which is disabled until configured:
+ * <ul>
+ *   <li>Dropouts: for dropoutDuration out of every dropoutPeriod seconds nothing is delivered</li>
+ *   <li>Bursts: for burstDuration out of every burstPeriod seconds samples are published burstFactor times faster</li>
+ *   <li>Loss: each message is discarded with a fixed probability</li>
+ *   <li>Reordering: a message is held back with a fixed probability and delivered after the next message
+ *   of the same topic, or by releaseHeld once it has been held for the longest hold time</li>
+ *   <li>Delay: each message is delivered after a fixed delay plus a random jitter, which also reorders messages
+ *   when the jitter is larger than the publish period</li>
+ * </ul>
+ * All random choices come from one seeded generator so a profile with the same seed repeats the same pattern
+ * for the same sequence of messages. Windows are measured from the creation of the profile.
+ */
+public class TrafficProfile {
+
+  /**
+   * The destination of the messages which pass the profile
+   */
+  public interface Sink {
+    <T> void deliver(Publisher<T> publisher, T message);
+  }
+
+  private final Random random;
+  private final ScheduledExecutorService executor;
+  private final long startNanos = System.nanoTime();
+
+  private long dropoutPeriod = 0; // ns
+  private long dropoutDuration = 0; // ns
+  private long dropoutOffset = 0; // ns
+  private long burstPeriod = 0; // ns
+  private long burstDuration = 0; // ns
+  private long burstOffset = 0; // ns
+  private double burstFactor = 1.0;
+  private double lossProbability = 0.0;
+  private double reorderProbability = 0.0;
+  private long reorderMaxHold = 0; // ns
+  private long delay = 0; // ns
+  private long delayJitter = 0; // ns
+
+  private final Map<Publisher<?>, HeldMessage> heldMessages = new HashMap<>();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong lostCount = new AtomicLong();
+  private final AtomicLong reorderedCount = new AtomicLong();
+  private final AtomicLong delayedCount = new AtomicLong();
+
+  /**
+   * Constructor
+   *
+   * @param seed The seed of the random loss, reordering and jitter
+   * @param executor The executor used to deliver delayed messages
+   */
+  public TrafficProfile(long seed, ScheduledExecutorService executor) {
+    this.random = new Random(seed);
+    this.executor = executor;
+  }
+
+  /**
+   * Configures periodic dropouts
+   * @param period The time between the starts of two dropouts in s. 0 disables dropouts
+   * @param duration The length of each dropout in s
+   * @param offset The time until the first dropout starts in s
+   * @return This profile
+   */
+  public TrafficProfile setDropouts(double period, double duration, double offset) {
+    dropoutPeriod = toNanos(period);
+    dropoutDuration = toNanos(duration);
+    dropoutOffset = toNanos(offset);
+    return this;
+  }
+
+  /**
+   * Configures periodic bursts
+   * @param period The time between the starts of two bursts in s. 0 disables bursts
+   * @param duration The length of each burst in s
+   * @param offset The time until the first burst starts in s
+   * @param factor The multiple of the publish rate used during a burst
+   * @return This profile
+   */
+  public TrafficProfile setBursts(double period, double duration, double offset, double factor) {
+    burstPeriod = toNanos(period);
+    burstDuration = toNanos(duration);
+    burstOffset = toNanos(offset);
+    burstFactor = Math.max(factor, 1.0);
+    return this;
+  }
+
+  /**
+   * Configures random loss
+   * @param percent The percentage of messages which are discarded
+   * @return This profile
+   */
+  public TrafficProfile setLoss(double percent) {
+    lossProbability = percent / 100.0;
+    return this;
+  }
+
+  /**
+   * Configures random reordering
+   * @param percent The percentage of messages which are delivered after the next message of their topic
+   * @param maxHoldMs The longest time in ms a message is held when no other message of its topic follows
+   * @return This profile
+   */
+  public TrafficProfile setReorder(double percent, double maxHoldMs) {
+    reorderProbability = percent / 100.0;
+    reorderMaxHold = (long) (maxHoldMs * 1e6);
+    return this;
+  }
+
+  /**
+   * Configures delayed delivery
+   * @param delayMs The delay added to every message in ms
+   * @param jitterMs The largest random delay added on top of delayMs in ms
+   * @return This profile
+   */
+  public TrafficProfile setDelay(double delayMs, double jitterMs) {
+    delay = (long) (delayMs * 1e6);
+    delayJitter = (long) (jitterMs * 1e6);
+    return this;
+  }
+
+  /**
+   * Checks if any effect is configured
+   * @return True if messages may be shaped
+   */
+  public boolean isEnabled() {
+    return dropoutPeriod > 0 || burstPeriod > 0 || lossProbability > 0.0 || reorderProbability > 0.0
+      || delay > 0 || delayJitter > 0;
+  }
+
+  /**
+   * Gets the factor to apply to the publish rate at the current time
+   * @return burstFactor during a burst and 1 otherwise
+   */
+  public double getRateFactor() {
+    return inWindow(burstPeriod, burstDuration, burstOffset) ? burstFactor : 1.0;
+  }
+
+  /**
+   * Passes a message through the profile
+   * @param publisher The publisher of the message
+   * @param message The message
+   * @param sink The destination of the message if it is not discarded
+   * @param <T> The message type
+   */
+  public <T> void shape(Publisher<T> publisher, T message, Sink sink) {
+    if (inWindow(dropoutPeriod, dropoutDuration, dropoutOffset)) {
+      droppedCount.incrementAndGet();
+      return;
+    }
+    HeldMessage held;
+    synchronized (this) {
+      if (lossProbability > 0.0 && random.nextDouble() < lossProbability) {
+        lostCount.incrementAndGet();
+        return;
+      }
+      held = heldMessages.remove(publisher);
+      if (held == null && reorderProbability > 0.0 && random.nextDouble() < reorderProbability) {
+        heldMessages.put(publisher, new HeldMessage(publisher, message, System.nanoTime() + reorderMaxHold));
+        reorderedCount.incrementAndGet();
+        return;
+      }
+    }
+    deliver(publisher, message, sink);
+    if (held != null) {
+      held.deliver(sink);
+    }
+  }
+
+  /**
+   * Delivers the held messages whose longest hold time has passed
+   * Owners should call this function every tick so messages of low rate topics or the last message of a topic
+   * are not held forever
+   * @param sink The destination of the released messages
+   */
+  public void releaseHeld(Sink sink) {
+    if (reorderProbability <= 0.0) {
+      return;
+    }
+    List<HeldMessage> released;
+    synchronized (this) {
+      if (heldMessages.isEmpty()) {
+        return;
+      }
+      long now = System.nanoTime();
+      released = new ArrayList<>(heldMessages.size());
+      for (Iterator<HeldMessage> it = heldMessages.values().iterator(); it.hasNext();) {
+        HeldMessage held = it.next();
+        if (now - held.releaseNanos >= 0) {
+          released.add(held);
+          it.remove();
+        }
+      }
+    }
+    for (HeldMessage held : released) {
+      held.deliver(sink);
+    }
+  }
+
+  /**
+   * A message held back for reordering
+   */
+  private class HeldMessage {
+    final Publisher<Object> publisher;
+    final Object message;
+    final long releaseNanos;
+
+    @SuppressWarnings("unchecked")
+    HeldMessage(Publisher<?> publisher, Object message, long releaseNanos) {
+      this.publisher = (Publisher<Object>) publisher;
+      this.message = message;
+      this.releaseNanos = releaseNanos;
+    }
+
+    void deliver(Sink sink) {
+      TrafficProfile.this.deliver(publisher, message, sink);
+    }
+  }
+
+  private <T> void deliver(final Publisher<T> publisher, final T message, final Sink sink) {
+    if (delay == 0 && delayJitter == 0) {
+      sink.deliver(publisher, message);
+      return;
+    }
+    long messageDelay;
+    synchronized (this) {
+      messageDelay = delay + (delayJitter > 0 ? (long) (random.nextDouble() * delayJitter) : 0);
+    }
+    delayedCount.incrementAndGet();
+    executor.schedule(new Runnable() {
+      @Override public void run() {
+        sink.deliver(publisher, message);
+      }
+    }, messageDelay, TimeUnit.NANOSECONDS);
+  }
+
+  private boolean inWindow(long period, long duration, long offset) {
+    if (period <= 0) {
+      return false;
+    }
+    long elapsed = System.nanoTime() - startNanos - offset;
+    return elapsed >= 0 && elapsed % period < duration;
+  }
+
+  /**
+   * Adds the number of shaped messages to a diagnostic status
+   * @param builder The status builder
+   */
+  public void report(DiagnosticStatusBuilder builder) {
+    builder.add("traffic dropped", droppedCount.get());
+    builder.add("traffic lost", lostCount.get());
+    builder.add("traffic reordered", reorderedCount.get());
+    builder.add("traffic delayed", delayedCount.get());
+    builder.add("traffic rate factor", getRateFactor());
+  }
+
+  private static long toNanos(double seconds) {
+    return (long) (seconds * 1e9);
+  }
+}
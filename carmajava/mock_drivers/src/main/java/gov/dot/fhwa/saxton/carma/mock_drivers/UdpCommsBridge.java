@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import cav_msgs.ByteArray;
+import org.apache.commons.logging.Log;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.message.MessageListener;
+import org.ros.node.ConnectedNode;
+import org.ros.node.topic.Publisher;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connects the comms topics to a radio or stand-in process over UDP.
+ * <p>
+ * A selector thread drains every datagram waiting on a non-blocking DatagramChannel into a reused direct buffer and
+ * publishes each one as an inbound cav_msgs/ByteArray. The payload is copied once into the message's own buffer
+ * because rosjava serializes published messages later on its own thread.
+ * Outbound messages given to the bridge as a listener are sent from their content buffer to the remote address.
+ * The message type of an inbound datagram is taken from the J2735 message id in its first two bytes unless a fixed
+ * type is configured.
+ */
+public class UdpCommsBridge implements Runnable, MessageListener<ByteArray> {
+  static final int MAX_DATAGRAM_SIZE = 65507;
+  static final long SELECT_TIMEOUT = 100; // ms
+
+  private final ConnectedNode connectedNode;
+  private final Log log;
+  private final Publisher<ByteArray> inboundPub;
+  private final TrafficProfile.Sink sink;
+  private final InetSocketAddress listenAddress;
+  private final InetSocketAddress remoteAddress; // Null if outbound messages are not sent
+  private final String messageType; // Empty to detect the type of each datagram
+  private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+  private final AtomicLong receivedDatagrams = new AtomicLong();
+  private final AtomicLong receivedBytes = new AtomicLong();
+  private final AtomicLong sentDatagrams = new AtomicLong();
+  private final AtomicLong sentBytes = new AtomicLong();
+  private final AtomicLong sendFailures = new AtomicLong();
+  private volatile DatagramChannel channel = null;
+  private Selector selector = null;
+  private volatile boolean closed = false;
+
+  /**
+   * Constructor
+   *
+   * @param connectedNode The node used for the current ROS time
+   * @param inboundPub The publisher of inbound messages
+   * @param sink The destination of inbound messages
+   * @param listenAddress The local address datagrams are received on
+   * @param remoteAddress The address outbound messages are sent to. Null to not send them
+   * @param messageType The message type of every inbound datagram. Empty to detect it
+   */
+  public UdpCommsBridge(ConnectedNode connectedNode, Publisher<ByteArray> inboundPub, TrafficProfile.Sink sink,
+    InetSocketAddress listenAddress, InetSocketAddress remoteAddress, String messageType) {
+    this.connectedNode = connectedNode;
+    this.log = connectedNode.getLog();
+    this.inboundPub = inboundPub;
+    this.sink = sink;
+    this.listenAddress = listenAddress;
+    this.remoteAddress = remoteAddress;
+    this.messageType = messageType;
+  }
+
+  /**
+   * Binds the channel and starts receiving on a new daemon thread
+   * @throws IOException If the channel could not be bound
+   */
+  public void start() throws IOException {
+    selector = Selector.open();
+    channel = DatagramChannel.open();
+    channel.configureBlocking(false);
+    channel.bind(listenAddress);
+    channel.register(selector, SelectionKey.OP_READ);
+    Thread thread = new Thread(this, "udp_comms_bridge " + listenAddress);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override public void run() {
+    try {
+      while (!closed) {
+        if (selector.select(SELECT_TIMEOUT) == 0) {
+          continue;
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          keys.next();
+          keys.remove();
+          receiveAll();
+        }
+      }
+    } catch (ClosedChannelException | ClosedSelectorException e) {
+      // Closed
+    } catch (IOException e) {
+      log.warn("UDP comms bridge on " + listenAddress + " stopped " + e.getMessage());
+    }
+  }
+
+  /**
+   * Publishes every datagram waiting on the channel
+   */
+  private void receiveAll() throws IOException {
+    while (true) {
+      receiveBuffer.clear();
+      if (channel.receive(receiveBuffer) == null) {
+        return;
+      }
+      receiveBuffer.flip();
+      int length = receiveBuffer.remaining();
+      ByteArray inbound = inboundPub.newMessage();
+      inbound.getHeader().setFrameId("0");
+      inbound.getHeader().setStamp(connectedNode.getCurrentTime());
+      inbound.setMessageType(messageType.isEmpty() ? getJ2735Type(receiveBuffer) : messageType);
+      ChannelBuffer content = ChannelBuffers.buffer(ByteOrder.LITTLE_ENDIAN, length);
+      content.writeBytes(receiveBuffer);
+      inbound.setContent(content);
+      receivedDatagrams.incrementAndGet();
+      receivedBytes.addAndGet(length);
+      sink.deliver(inboundPub, inbound);
+    }
+  }
+
+  /**
+   * Sends an outbound message to the remote address
+   * @param outbound The outbound message
+   */
+  @Override public void onNewMessage(ByteArray outbound) {
+    DatagramChannel sendChannel = channel;
+    if (remoteAddress == null || sendChannel == null) {
+      return;
+    }
+    ByteBuffer content = outbound.getContent().toByteBuffer();
+    int length = content.remaining();
+    try {
+      if (sendChannel.send(content, remoteAddress) == 0 && length > 0) {
+        sendFailures.incrementAndGet(); // The socket buffer is full
+        return;
+      }
+      sentDatagrams.incrementAndGet();
+      sentBytes.addAndGet(length);
+    } catch (IOException e) {
+      sendFailures.incrementAndGet();
+    }
+  }
+
+  /**
+   * Gets the message type of a J2735 message frame from its message id
+   * @param datagram The datagram positioned at its first byte
+   * @return The message type. Unknown if the id is not recognized
+   */
+  static String getJ2735Type(ByteBuffer datagram) {
+    if (datagram.remaining() < 2) {
+      return "Unknown";
+    }
+    int id = ((datagram.get(datagram.position()) & 0xff) << 8) | (datagram.get(datagram.position() + 1) & 0xff);
+    switch (id) {
+      case 18:
+        return "MAP";
+      case 19:
+        return "SPAT";
+      case 20:
+        return "BSM";
+      default:
+        return "Unknown";
+    }
+  }
+
+  /**
+   * Adds the datagram counts to a diagnostic status
+   * @param builder The status builder
+   */
+  public void report(DiagnosticStatusBuilder builder) {
+    builder.add("udp received", receivedDatagrams.get());
+    builder.add("udp received bytes", receivedBytes.get());
+    builder.add("udp sent", sentDatagrams.get());
+    builder.add("udp sent bytes", sentBytes.get());
+    builder.add("udp send failures", sendFailures.get());
+  }
+
+  /**
+   * Stops receiving and closes the channel
+   */
+  public void close() {
+    closed = true;
+    try {
+      if (selector != null) {
+        selector.close();
+      }
+      if (channel != null) {
+        channel.close();
+      }
+    } catch (IOException e) {
+      log.warn("Could not close UDP comms bridge on " + listenAddress + " " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+/**
+ * Kinematic state of the simulated host vehicle.
+ * <p>
+ * A single instance is reused by each driver so sampling a state source does not allocate.
+ * Positions are in the local map frame (x east, y north, z up) and heading is the ENU yaw.
+ */
+public class VehicleState {
+  public static final double GRAVITY = 9.80665; // m/s^2
+
+  public double x; // m
+  public double y; // m
+  public double z; // m
+  public double heading; // rad counter clockwise from east
+  public double speed; // m/s
+  public double acceleration; // m/s^2 along the heading
+  public double yawRate; // rad/s
+  public double steeringWheelAngle; // rad
+  public double odometer; // m
+  public double latitude; // deg
+  public double longitude; // deg
+  public double altitude; // m
+
+  /**
+   * Copies all values of another state into this state
+   * @param other The state to copy
+   */
+  public void set(VehicleState other) {
+    x = other.x;
+    y = other.y;
+    z = other.z;
+    heading = other.heading;
+    speed = other.speed;
+    acceleration = other.acceleration;
+    yawRate = other.yawRate;
+    steeringWheelAngle = other.steeringWheelAngle;
+    odometer = other.odometer;
+    latitude = other.latitude;
+    longitude = other.longitude;
+    altitude = other.altitude;
+  }
+
+  /**
+   * Gets the acceleration perpendicular to the heading
+   * @return The lateral acceleration in m/s^2
+   */
+  public double getLateralAcceleration() {
+    return speed * yawRate;
+  }
+}